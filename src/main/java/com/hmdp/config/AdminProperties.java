@@ -0,0 +1,22 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 运维接口（/admin/**）的访问控制，对应 application.yaml 中的 hmdp.admin
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.admin")
+public class AdminProperties {
+
+    /**
+     * 允许调用运维接口的用户id，为空时所有用户都不能调用
+     */
+    private Set<Long> userIds = new HashSet<>();
+}
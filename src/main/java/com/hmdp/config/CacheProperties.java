@@ -0,0 +1,348 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import com.hmdp.utils.CacheRebuildScheduler;
+import com.hmdp.utils.CacheTtlPolicy;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 缓存相关配置，对应 application.yaml 中的 hmdp.cache
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache")
+public class CacheProperties {
+
+    /**
+     * 本地一级缓存（L1）
+     */
+    private Local local = new Local();
+
+    /**
+     * 防缓存穿透的布隆过滤器
+     */
+    private Bloom bloom = new Bloom();
+
+    /**
+     * 缓存值的编码格式
+     */
+    private Codec codec = new Codec();
+
+    /**
+     * 逻辑过期缓存提前刷新（XFetch）的系数，越大越早刷新，1为论文推荐值
+     */
+    private double earlyRefreshBeta = 1.0;
+
+    /**
+     * 按key前缀配置的过期策略，用于打散过期时间
+     */
+    private List<TtlPolicy> ttlPolicies = new ArrayList<>();
+
+    /**
+     * 逻辑过期缓存的后台重建
+     */
+    private Rebuild rebuild = new Rebuild();
+
+    /**
+     * 启动预热
+     */
+    private WarmUp warmUp = new WarmUp();
+
+    /**
+     * 运行指标
+     */
+    private Metrics metrics = new Metrics();
+
+    /**
+     * 异步缓存客户端
+     */
+    private Async async = new Async();
+
+    /**
+     * 热点key探测与本地副本
+     */
+    private HotKey hotKey = new HotKey();
+
+    /**
+     * 命名空间版本号
+     */
+    private Namespace namespace = new Namespace();
+
+    /**
+     * 事务发件箱的投递
+     */
+    private Outbox outbox = new Outbox();
+
+    @Data
+    public static class Local {
+        /**
+         * 是否开启本地缓存
+         */
+        private boolean enabled = false;
+        /**
+         * 最多缓存的条目数，超出后按LRU淘汰
+         */
+        private int maxSize = 1000;
+        /**
+         * 条目在本地的存活时间，兜底跨节点失效消息丢失的情况，不宜过长
+         */
+        private Duration ttl = Duration.ofSeconds(30);
+        /**
+         * 开启本地缓存的key前缀，如 cache:shop:
+         */
+        private List<String> prefixes = new ArrayList<>();
+    }
+
+    @Data
+    public static class Bloom {
+        /**
+         * 是否开启布隆过滤器
+         */
+        private boolean enabled = false;
+        /**
+         * 是否在本地保留位图副本，开启后判断不再访问redis
+         */
+        private boolean localCopy = true;
+        /**
+         * 按key前缀配置的过滤器
+         */
+        private List<BloomFilter> filters = new ArrayList<>();
+    }
+
+    @Data
+    public static class BloomFilter {
+        /**
+         * key前缀，如 cache:shop:
+         */
+        private String prefix;
+        /**
+         * 预计元素数量
+         */
+        private long expectedInsertions = 100000;
+        /**
+         * 期望误判率
+         */
+        private double fpp = 0.01;
+    }
+
+    @Data
+    public static class Codec {
+        /**
+         * 写入格式：json（不压缩时与旧版本的纯文本完全兼容）或 smile（二进制），读取时自动识别
+         */
+        private String format = "json";
+        /**
+         * 编码后超过该字节数则压缩，小于等于0表示不压缩
+         */
+        private int compressThreshold = 2048;
+    }
+
+    @Data
+    public static class Rebuild {
+        /**
+         * 重建线程数
+         */
+        private int threads = 10;
+        /**
+         * 排队任务上限
+         */
+        private int queueCapacity = 1000;
+        /**
+         * 任务从提交起的截止时间，排队超时的任务直接丢弃
+         */
+        private Duration deadline = Duration.ofSeconds(5);
+        /**
+         * 队列满时的处理策略
+         */
+        private CacheRebuildScheduler.OverflowPolicy overflowPolicy = CacheRebuildScheduler.OverflowPolicy.DISCARD_COLDEST;
+    }
+
+    @Data
+    public static class TtlPolicy {
+        /**
+         * key前缀，如 cache:shop:
+         */
+        private String prefix;
+        /**
+         * 基础过期时间，不配置则沿用代码中传入的时间
+         */
+        private Duration ttl;
+        /**
+         * 打散方式：none、jitter（随机浮动）、bucket（按key哈希分桶）
+         */
+        private CacheTtlPolicy.Mode mode = CacheTtlPolicy.Mode.JITTER;
+        /**
+         * jitter 模式下的浮动百分比
+         */
+        private int jitterPercent = 10;
+        /**
+         * bucket 模式下的桶数
+         */
+        private int buckets = 10;
+        /**
+         * bucket 模式下过期时间分布的窗口，第i个桶多存活 i·窗口/桶数
+         */
+        private Duration bucketWindow = Duration.ofMinutes(5);
+    }
+
+    @Data
+    public static class WarmUp {
+        /**
+         * 是否在启动时预热店铺缓存与地理位置索引
+         */
+        private boolean enabled = false;
+        /**
+         * 每批从数据库读取的行数
+         */
+        private int batchSize = 500;
+        /**
+         * 并发读取数据库的线程数，按id区间切分
+         */
+        private int concurrency = 2;
+        /**
+         * 每秒最多读取的行数，小于等于0表示不限速
+         */
+        private int rowsPerSecond = 5000;
+        /**
+         * 是否在预热达到目标比例前保持未就绪（阻塞启动流程）
+         */
+        private boolean holdReadiness = false;
+        /**
+         * 就绪所需的预热比例
+         */
+        private double readyFraction = 0.8;
+        /**
+         * 最长阻塞时间，超时后不再等待，剩余部分在后台继续
+         */
+        private Duration maxHold = Duration.ofSeconds(60);
+    }
+
+    @Data
+    public static class Metrics {
+        /**
+         * 是否统计缓存指标
+         */
+        private boolean enabled = true;
+        /**
+         * 命中类计数的采样率，(0, 1]，小于1时按权重累加
+         */
+        private double sampleRate = 1.0;
+        /**
+         * 回源耗时超过该值记为慢重建
+         */
+        private Duration slowThreshold = Duration.ofMillis(200);
+        /**
+         * 保留的慢重建记录条数
+         */
+        private int slowBufferSize = 64;
+    }
+
+    @Data
+    public static class Async {
+        /**
+         * 执行数据库回源的线程数
+         */
+        private int dbThreads = 8;
+        /**
+         * 回源排队上限，超出后直接失败，不阻塞redis的IO线程
+         */
+        private int dbQueueCapacity = 200;
+    }
+
+    @Data
+    public static class HotKey {
+        /**
+         * 是否开启热点key探测
+         */
+        private boolean enabled = true;
+        /**
+         * 访问计数的采样率，(0, 1]
+         */
+        private double sampleRate = 0.1;
+        /**
+         * 估计访问次数达到该值即为热点，计数每个窗口减半
+         */
+        private long threshold = 1000;
+        /**
+         * 衰减窗口
+         */
+        private Duration window = Duration.ofSeconds(1);
+        /**
+         * 计数表每行的宽度，向上取整为2的幂
+         */
+        private int sketchWidth = 4096;
+        /**
+         * 最多同时标记的热点key数量
+         */
+        private int maxHotKeys = 100;
+        /**
+         * 超过该时间没有再达到阈值的热点自动降级
+         */
+        private Duration hotTtl = Duration.ofSeconds(10);
+        /**
+         * 热点key在本地的副本存活时间，即各节点最多读到多久之前的数据
+         */
+        private Duration replicaTtl = Duration.ofSeconds(1);
+    }
+
+    @Data
+    public static class Namespace {
+        /**
+         * 本地版本号的最长使用时间，超过后重新从redis加载，兜底失效通知丢失的情况
+         */
+        private Duration refreshInterval = Duration.ofSeconds(5);
+        /**
+         * 逻辑过期数据在逻辑过期之后保留的时间，之后由redis删除，旧版本的数据同样借此回收
+         */
+        private Duration logicalRetention = Duration.ofHours(1);
+        /**
+         * 单个key重建后，旧版本的key保留的时间，应大于 refresh-interval
+         */
+        private Duration retireDelay = Duration.ofSeconds(60);
+        /**
+         * 单个key重建的最长时间，超过后不再把增量写入重建中的版本
+         */
+        private Duration rebuildTimeout = Duration.ofMinutes(10);
+    }
+
+    @Data
+    public static class Outbox {
+        /**
+         * 轮询间隔，小于等于0表示不轮询
+         */
+        private Duration pollInterval = Duration.ofSeconds(5);
+        /**
+         * 新事件写入后多久才会被轮询到，在此之前由事务提交后的投递处理
+         */
+        private Duration pollDelay = Duration.ofSeconds(10);
+        /**
+         * 每次轮询的事件数
+         */
+        private int batchSize = 100;
+        /**
+         * 轮询认领事件后推迟的时间，认领的节点在此期间没有处理完（如宕机）时，其它节点可以重新认领
+         */
+        private Duration claimTimeout = Duration.ofMinutes(1);
+        /**
+         * 提交后投递的排队上限，排满的交给轮询
+         */
+        private int queueCapacity = 1000;
+        /**
+         * 最多失败次数，超过后标记为失败，不再投递
+         */
+        private int maxAttempts = 10;
+        /**
+         * 首次重试的间隔，之后每次翻倍
+         */
+        private Duration retryBackoff = Duration.ofSeconds(1);
+        /**
+         * 重试间隔的上限
+         */
+        private Duration maxRetryBackoff = Duration.ofMinutes(5);
+    }
+}
@@ -1,7 +1,10 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.SeckillAdmissionInterceptor;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -18,6 +21,12 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SeckillAdmission seckillAdmission;
+
+    @Resource
+    private AdminProperties adminProperties;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         // 登录拦截器
@@ -31,6 +40,12 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/user/code",
                         "/user/login"
                 ).order(1);
+        // 运维接口只允许管理员调用，需要登录拦截器确认过用户
+        registry.addInterceptor(new AdminInterceptor(adminProperties))
+                .addPathPatterns("/admin/**").order(2);
+        // 秒杀接口的准入控制，需要登录拦截器确认过用户
+        registry.addInterceptor(new SeckillAdmissionInterceptor(seckillAdmission))
+                .addPathPatterns("/voucher-order/seckill/**").order(2);
         // token刷新的拦截器
         registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
     }
@@ -0,0 +1,59 @@
+package com.hmdp.config;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.resource.ClientResources;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.util.StringUtils;
+
+/**
+ * redis配置类
+ */
+@Configuration
+public class RedisConfig {
+
+    /**
+     * 发布订阅的监听容器，各组件自行向其注册频道监听（如本地缓存失效通知）
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
+
+    /**
+     * 异步缓存使用的lettuce客户端，与spring-data-redis共用IO线程（ClientResources）
+     */
+    @Bean(destroyMethod = "shutdown")
+    public RedisClient asyncRedisClient(RedisProperties properties, ClientResources clientResources) {
+        RedisURI.Builder builder = RedisURI.builder()
+                .withHost(properties.getHost())
+                .withPort(properties.getPort())
+                .withDatabase(properties.getDatabase());
+        if (StringUtils.hasText(properties.getPassword())) {
+            builder.withPassword(properties.getPassword().toCharArray());
+        }
+        if (properties.getTimeout() != null) {
+            builder.withTimeout(properties.getTimeout());
+        }
+        return RedisClient.create(clientResources, builder.build());
+    }
+
+    /**
+     * 异步缓存使用的连接：key为字符串，value为字节，交给 CacheSerializer 解析。
+     * lettuce连接线程安全，单个连接多路复用即可，不需要连接池
+     */
+    @Bean(destroyMethod = "close")
+    public StatefulRedisConnection<String, byte[]> asyncCacheConnection(RedisClient asyncRedisClient) {
+        return asyncRedisClient.connect(RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE));
+    }
+}
@@ -1,8 +1,10 @@
 package com.hmdp.config;
 
+import cn.hutool.core.util.StrUtil;
 import org.redisson.Redisson;
 import org.redisson.api.RedissonClient;
 import org.redisson.config.Config;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -13,10 +15,12 @@ import org.springframework.context.annotation.Configuration;
 public class RedissonConfig {
 
     @Bean
-    public RedissonClient redissonClient(){
-        // 配置
+    public RedissonClient redissonClient(RedisProperties redisProperties){
+        // 配置，与 spring.redis 使用同一个redis
         Config config = new Config();
-        config.useSingleServer().setAddress("redis://192.168.111.131:6379").setPassword("123456");
+        config.useSingleServer()
+                .setAddress("redis://" + redisProperties.getHost() + ":" + redisProperties.getPort())
+                .setPassword(StrUtil.emptyToNull(redisProperties.getPassword()));
         // 创建RedissonClient对象
         return Redisson.create(config);
     }
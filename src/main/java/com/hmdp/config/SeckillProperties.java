@@ -0,0 +1,266 @@
+package com.hmdp.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 秒杀相关配置，对应 application.yaml 中的 hmdp.seckill
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.seckill")
+public class SeckillProperties {
+
+    /**
+     * 订单消息的消费
+     */
+    private OrderConsumer orderConsumer = new OrderConsumer();
+
+    /**
+     * 本地售罄标记
+     */
+    private SoldOut soldOut = new SoldOut();
+
+    /**
+     * 库存分桶
+     */
+    private StockBuckets stockBuckets = new StockBuckets();
+
+    /**
+     * 秒杀接口的准入控制
+     */
+    private Admission admission = new Admission();
+
+    /**
+     * 秒杀券的预热与清理
+     */
+    private Preheat preheat = new Preheat();
+
+    /**
+     * redis与数据库的库存核对
+     */
+    private Reconcile reconcile = new Reconcile();
+
+    @Data
+    public static class OrderConsumer {
+        /**
+         * 每批最多处理的订单数，1表示逐条处理（加锁、查重、扣库存、插入各一次）
+         */
+        private int batchSize = 64;
+        /**
+         * 凑批的最长等待时间，从读到第一条消息开始计算
+         */
+        private Duration batchWait = Duration.ofMillis(50);
+        /**
+         * 订单消息的分区数，每个分区一个stream
+         */
+        private int partitions = 4;
+        /**
+         * 分区依据
+         */
+        private PartitionBy partitionBy = PartitionBy.USER;
+        /**
+         * 本节点最多同时消费的分区数，<=0 表示不限
+         */
+        private int maxConsumers = 0;
+        /**
+         * 分区租约的有效期，节点宕机后最多经过该时间分区被其它节点接手
+         */
+        private Duration leaseTtl = Duration.ofSeconds(10);
+        /**
+         * 本节点的消费者名，各节点必须唯一，默认为 进程号@主机名
+         */
+        private String consumerName;
+        /**
+         * 多久重试一次pending list中处理失败的消息
+         */
+        private Duration retryInterval = Duration.ofSeconds(10);
+        /**
+         * 一条消息最多投递的次数，超过后转入死信队列 stream.orders.dlq
+         */
+        private int maxDeliveries = 10;
+        /**
+         * 其它消费者名下的消息空闲超过该时间后视为消费者已下线，转到本节点处理
+         */
+        private Duration claimIdle = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class SoldOut {
+        /**
+         * 是否开启，开启后已售罄的优惠券不再访问redis
+         */
+        private boolean enabled = true;
+        /**
+         * 标记的有效期，丢失补货通知的节点最多误报这么久
+         */
+        private Duration ttl = Duration.ofSeconds(5);
+    }
+
+    @Data
+    public static class StockBuckets {
+        /**
+         * 新建秒杀券时把库存拆成的桶数，1表示不分桶；已创建的秒杀券不受影响。
+         * 单个redis实例上分桶不提高吞吐，只把大的购买者集合拆小，见 SeckillStockBuckets
+         */
+        private int count = 1;
+        /**
+         * 本地缓存的桶数多久后重新读取
+         */
+        private Duration refreshInterval = Duration.ofMinutes(1);
+    }
+
+    @Data
+    public static class Admission {
+        /**
+         * 是否开启
+         */
+        private boolean enabled = true;
+        /**
+         * 全局滑动窗口的长度
+         */
+        private Duration window = Duration.ofSeconds(1);
+        /**
+         * 各优惠券默认的限流参数
+         */
+        private Limit limit = new Limit(1000, 1000, 5000, 5);
+        /**
+         * 单独配置的优惠券，优惠券id -> 限流参数，未配置的项取 limit 中的值
+         */
+        private Map<Long, Limit> vouchers = new HashMap<>();
+
+        /**
+         * 优惠券生效的限流参数
+         */
+        public Limit limitOf(Long voucherId) {
+            Limit custom = vouchers.get(voucherId);
+            if (custom == null) {
+                return limit;
+            }
+            return new Limit(
+                    custom.localRate != null ? custom.localRate : limit.localRate,
+                    custom.localBurst != null ? custom.localBurst : limit.localBurst,
+                    custom.voucherLimit != null ? custom.voucherLimit : limit.voucherLimit,
+                    custom.userLimit != null ? custom.userLimit : limit.userLimit);
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Limit {
+        /**
+         * 本节点令牌桶每秒生成的令牌数，<=0 表示不限
+         */
+        private Integer localRate;
+        /**
+         * 本节点令牌桶的容量，允许的瞬时突发
+         */
+        private Integer localBurst;
+        /**
+         * 所有节点在一个窗口内放行的请求数，<=0 表示不限
+         */
+        private Integer voucherLimit;
+        /**
+         * 同一用户在一个窗口内放行的请求数，<=0 表示不限
+         */
+        private Integer userLimit;
+    }
+
+    @Data
+    public static class Preheat {
+        /**
+         * 是否开启定时预热，关闭后只在创建秒杀券时写入redis
+         */
+        private boolean enabled = true;
+        /**
+         * 预热的间隔
+         */
+        private Duration interval = Duration.ofSeconds(30);
+        /**
+         * 提前多久把秒杀券的库存与时间窗口写入redis，应大于 interval
+         */
+        private Duration lead = Duration.ofMinutes(5);
+        /**
+         * 秒杀结束多久后删除redis中的库存、购买者与时间窗口，应大于库存核对的 grace
+         */
+        private Duration retention = Duration.ofHours(2);
+        /**
+         * 每批读取的秒杀券数
+         */
+        private int batchSize = 500;
+    }
+
+    @Data
+    public static class Reconcile {
+        /**
+         * 是否开启定时核对
+         */
+        private boolean enabled = true;
+        /**
+         * 两次核对的间隔，差异需要在相邻两次核对中保持不变才会修复
+         */
+        private Duration interval = Duration.ofMinutes(1);
+        /**
+         * 已结束多久的秒杀券仍然核对，进行中的秒杀券不核对
+         */
+        private Duration grace = Duration.ofHours(1);
+        /**
+         * 核对租约的有效期，每核对一个秒杀券续约一次；节点宕机后最多经过该时间由其它节点核对
+         */
+        private Duration leaseTtl = Duration.ofMinutes(5);
+        /**
+         * 每批读取的订单数，以及SSCAN每次返回的建议数量
+         */
+        private int batchSize = 1000;
+        /**
+         * 逐个用户比对时内存中最多保留的用户数，超过时按用户id分成多轮比对
+         */
+        private int maxUsersInMemory = 100_000;
+        /**
+         * redis有购买记录、数据库没有订单（消息丢失或下单失败）：FIX 补建订单
+         */
+        private Repair missingOrder = Repair.FIX;
+        /**
+         * 数据库有订单、redis没有购买记录：FIX 写回购买记录
+         */
+        private Repair orphanOrder = Repair.FIX;
+        /**
+         * 数据库中同一用户有多个订单（建立唯一键之前的历史数据）：FIX 保留最早的订单，删除其余并归还库存
+         */
+        private Repair duplicateOrder = Repair.REPORT;
+        /**
+         * 购买者对齐后redis库存与数据库库存不一致：FIX 以数据库为准调整redis库存
+         */
+        private Repair stockDrift = Repair.FIX;
+    }
+
+    public enum Repair {
+        /**
+         * 只记录到核对报告
+         */
+        REPORT,
+        /**
+         * 自动修复
+         */
+        FIX
+    }
+
+    public enum PartitionBy {
+        /**
+         * 按用户id，同一优惠券的订单分散到各分区，热门优惠券也能并行写入
+         */
+        USER,
+        /**
+         * 按优惠券id，同一优惠券的库存扣减集中在一个分区，合并扣减的效果更好
+         */
+        VOUCHER
+    }
+}
@@ -0,0 +1,191 @@
+package com.hmdp.controller;
+
+
+import cn.hutool.core.util.NumberUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.AsyncCacheClient;
+import com.hmdp.utils.BloomFilterRegistry;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.CacheNamespaces;
+import com.hmdp.utils.CacheRebuildScheduler;
+import com.hmdp.utils.CacheStrategy;
+import com.hmdp.utils.CacheStrategyRegistry;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.LocalCache;
+import com.hmdp.utils.OutboxDispatcher;
+import com.hmdp.utils.ShopCacheWarmUp;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+
+/**
+ * 缓存运维接口
+ */
+@RestController
+@RequestMapping("/admin/cache")
+public class CacheAdminController {
+
+    @Resource
+    private LocalCache localCache;
+
+    @Resource
+    private BloomFilterRegistry bloomFilterRegistry;
+
+    @Resource
+    private CacheRebuildScheduler rebuildScheduler;
+
+    @Resource
+    private CacheStrategyRegistry strategyRegistry;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheNamespaces cacheNamespaces;
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private ShopCacheWarmUp shopCacheWarmUp;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private AsyncCacheClient asyncCacheClient;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private OutboxDispatcher outboxDispatcher;
+
+    /**
+     * 查询本地一级缓存的命中统计
+     */
+    @GetMapping("/local")
+    public Result localStats() {
+        return Result.ok(localCache.stats());
+    }
+
+    /**
+     * 查询布隆过滤器的容量、内存占用与当前误判率
+     */
+    @GetMapping("/bloom")
+    public Result bloomStats() {
+        return Result.ok(bloomFilterRegistry.stats());
+    }
+
+    /**
+     * 查询缓存重建队列深度、重建耗时与失败次数
+     */
+    @GetMapping("/rebuild")
+    public Result rebuildStats() {
+        return Result.ok(rebuildScheduler.stats());
+    }
+
+    /**
+     * 查询运行时覆盖的缓存策略
+     */
+    @GetMapping("/strategy")
+    public Result strategies() {
+        return Result.ok(strategyRegistry.overrides());
+    }
+
+    /**
+     * 切换某个前缀的缓存策略，不传strategy表示恢复代码中声明的策略
+     * 不同策略的缓存格式不同，切换后让该前缀下的缓存整体失效，返回前缀新的版本号
+     */
+    @PutMapping("/strategy")
+    public Result switchStrategy(@RequestParam("prefix") String prefix,
+                                 @RequestParam(value = "strategy", required = false) CacheStrategy strategy) {
+        strategyRegistry.override(prefix, strategy);
+        return Result.ok(cacheClient.invalidateAll(prefix));
+    }
+
+    /**
+     * 查询本节点已加载的缓存命名空间与版本号
+     */
+    @GetMapping("/namespaces")
+    public Result namespaces() {
+        return Result.ok(cacheNamespaces.versions());
+    }
+
+    /**
+     * 命名空间版本号加一，让前缀（如 cache:shop:）下的缓存整体失效，返回新的版本号。
+     * 地理位置索引（shop:geo:{typeId}）不会在查询时回源，只加版本号会让附近店铺查询为空，改为按类型重建
+     */
+    @PostMapping("/namespaces")
+    public Result bumpNamespace(@RequestParam("namespace") String namespace) {
+        if (namespace.startsWith(SHOP_GEO_KEY)) {
+            String typeId = namespace.substring(SHOP_GEO_KEY.length());
+            if (!NumberUtil.isLong(typeId)) {
+                return Result.fail("地理位置索引只能按类型重建！");
+            }
+            return shopService.rebuildGeo(Long.valueOf(typeId));
+        }
+        return Result.ok(cacheClient.invalidateAll(namespace));
+    }
+
+    /**
+     * 按类型重建店铺地理位置索引：写入新版本的key后再切换，返回新的版本号
+     */
+    @PostMapping("/geo/{typeId}")
+    public Result rebuildGeo(@PathVariable("typeId") Long typeId) {
+        return shopService.rebuildGeo(typeId);
+    }
+
+    /**
+     * 查询启动预热的进度
+     */
+    @GetMapping("/warm-up")
+    public Result warmUpStats() {
+        return Result.ok(shopCacheWarmUp.stats());
+    }
+
+    /**
+     * 按前缀与策略查询命中率、空值命中、回源耗时分布、抢锁失败次数，以及最近的慢重建
+     */
+    @GetMapping("/metrics")
+    public Result metrics() {
+        return Result.ok(cacheMetrics.stats());
+    }
+
+    /**
+     * 清零缓存指标
+     */
+    @DeleteMapping("/metrics")
+    public Result resetMetrics() {
+        cacheMetrics.reset();
+        return Result.ok();
+    }
+
+    /**
+     * 查询异步缓存回源线程池的状态
+     */
+    @GetMapping("/async")
+    public Result asyncStats() {
+        return Result.ok(asyncCacheClient.stats());
+    }
+
+    /**
+     * 查询当前的热点key及其估计访问次数
+     */
+    @GetMapping("/hot-keys")
+    public Result hotKeys() {
+        return Result.ok(hotKeyDetector.stats());
+    }
+
+    /**
+     * 查询发件箱的积压、投递与重试情况
+     */
+    @GetMapping("/outbox")
+    public Result outboxStats() {
+        return Result.ok(outboxDispatcher.stats());
+    }
+}
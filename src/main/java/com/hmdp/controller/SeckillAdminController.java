@@ -0,0 +1,105 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.OrderConsumerPool;
+import com.hmdp.utils.OrderStreamRecovery;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.SeckillPreheater;
+import com.hmdp.utils.SeckillReconciler;
+import com.hmdp.utils.SoldOutFlags;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
+
+/**
+ * 秒杀运维接口
+ */
+@RestController
+@RequestMapping("/admin/seckill")
+public class SeckillAdminController {
+
+    @Resource
+    private OrderConsumerPool orderConsumerPool;
+
+    @Resource
+    private OrderStreamRecovery orderStreamRecovery;
+
+    @Resource
+    private SoldOutFlags soldOutFlags;
+
+    @Resource
+    private SeckillAdmission seckillAdmission;
+
+    @Resource
+    private SeckillPreheater seckillPreheater;
+
+    @Resource
+    private SeckillReconciler seckillReconciler;
+
+    /**
+     * 查询本节点的消费者名、认领的订单分区与存活的消费节点
+     */
+    @GetMapping("/consumers")
+    public Result consumers() {
+        return Result.ok(orderConsumerPool.stats());
+    }
+
+    /**
+     * 查询各分区未确认消息的数量与最早一条的时长，以及重试与转入死信队列的次数
+     */
+    @GetMapping("/pending")
+    public Result pending() {
+        return Result.ok(orderStreamRecovery.stats());
+    }
+
+    /**
+     * 查询本节点标记为售罄的优惠券
+     */
+    @GetMapping("/sold-out")
+    public Result soldOut() {
+        return Result.ok(soldOutFlags.stats());
+    }
+
+    /**
+     * 清除优惠券的售罄标记（所有节点）
+     */
+    @DeleteMapping("/sold-out/{voucherId}")
+    public Result clearSoldOut(@PathVariable("voucherId") Long voucherId) {
+        soldOutFlags.clear(voucherId);
+        return Result.ok();
+    }
+
+    /**
+     * 查询本节点秒杀接口放行与拒绝的请求数
+     */
+    @GetMapping("/admission")
+    public Result admission() {
+        return Result.ok(seckillAdmission.stats());
+    }
+
+    /**
+     * 查询秒杀券的预热与清理情况
+     */
+    @GetMapping("/preheat")
+    public Result preheat() {
+        return Result.ok(seckillPreheater.stats());
+    }
+
+    /**
+     * 查询各秒杀券最近一次的库存核对结果
+     */
+    @GetMapping("/reconcile")
+    public Result reconcile() {
+        return Result.ok(seckillReconciler.stats());
+    }
+
+    /**
+     * 立即核对一个秒杀券，发现差异时不等待第二次确认，按配置的策略修复
+     */
+    @PostMapping("/reconcile/{voucherId}")
+    public Result reconcile(@PathVariable("voucherId") Long voucherId) {
+        SeckillReconciler.Report report = seckillReconciler.reconcile(voucherId, true);
+        return report == null ? Result.fail("秒杀券不存在！") : Result.ok(report);
+    }
+}
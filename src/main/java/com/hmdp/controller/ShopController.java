@@ -10,6 +10,7 @@ import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -36,6 +37,16 @@ public class ShopController {
         return shopService.queryById(id);
     }
 
+    /**
+     * 查询商铺详情与商铺的优惠券，异步返回，等待redis期间释放请求线程
+     * @param id 商铺id
+     * @return 商铺信息与优惠券列表
+     */
+    @GetMapping("/{id}/detail")
+    public CompletableFuture<Result> queryShopDetail(@PathVariable("id") Long id) {
+        return shopService.queryShopDetailAsync(id);
+    }
+
     /**
      * 新增商铺信息
      * @param shop 商铺数据
@@ -43,10 +54,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库并登记到布隆过滤器，返回店铺id
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -56,9 +65,8 @@ public class ShopController {
      */
     @PutMapping
     public Result updateShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.updateById(shop);
-        return Result.ok();
+        // 写入数据库，事务提交后删除缓存并同步地理位置索引
+        return shopService.update(shop);
     }
 
     /**
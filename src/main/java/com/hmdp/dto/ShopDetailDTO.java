@@ -0,0 +1,13 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class ShopDetailDTO {
+    private Shop shop;//店铺信息
+    private List<Voucher> vouchers;//店铺的优惠券
+}
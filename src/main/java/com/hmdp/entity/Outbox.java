@@ -0,0 +1,72 @@
+package com.hmdp.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * <p>
+ * 事务发件箱
+ * </p>
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("tb_outbox")
+public class Outbox implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int STATUS_PENDING = 0;
+
+    public static final int STATUS_DEAD = 1;
+
+    /**
+     * 主键
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 事件类型
+     */
+    private String type;
+
+    /**
+     * 事件内容，JSON
+     */
+    private String payload;
+
+    /**
+     * 状态，0：待投递；1：多次重试失败
+     */
+    private Integer status;
+
+    /**
+     * 已失败的次数
+     */
+    private Integer attempts;
+
+    /**
+     * 轮询在该时间之后投递
+     */
+    private LocalDateTime nextRetryTime;
+
+    /**
+     * 最近一次失败原因
+     */
+    private String lastError;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createTime;
+
+
+}
@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,10 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 一条多行INSERT写入一批订单，已存在的订单（消息重复投递、同一用户重复下单）通过 ON DUPLICATE KEY UPDATE 忽略
+     *
+     * @return 实际插入的行数
+     */
+    int insertIfAbsent(@Param("orders") List<VoucherOrder> orders);
 }
@@ -38,4 +38,9 @@ public interface IUserService extends IService<User> {
     Result sign();
 
     Result signCount();
+
+    /**
+     * 根据id查询用户，只返回UserDTO中的字段
+     */
+    Result queryUserById(Long id);
 }
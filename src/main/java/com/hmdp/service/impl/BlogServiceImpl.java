@@ -3,31 +3,38 @@ package com.hmdp.service.impl;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.Follow;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.OutboxWriter;
+import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_TTL;
 import static com.hmdp.utils.RedisConstants.FEED_KEY;
 
 /**
@@ -48,7 +55,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     private IUserService userService;
 
     @Resource
-    private IFollowService followService;
+    private CacheClient cacheClient;
+
+    @Resource
+    private OutboxWriter outboxWriter;
 
     /**
      * 跟据id查询博客
@@ -133,9 +143,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     /**
      * 保存博文
-     * 同时将博文推送到粉丝的redis中去
+     * 同时将博文推送到粉丝的redis中去（通过发件箱在事务提交后推送）
      */
     @Override
+    @Transactional
     public Result saveBlog(Blog blog) {
         // 1.获取登录用户
         UserDTO user = UserHolder.getUser();
@@ -145,21 +156,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (!isSuccess) {
             return Result.fail("新增笔记失败！");
         }
-        // 3.查询笔记作者的所有粉丝
-        // select * from tb_follow where follow_user_id = ?
-        List<Follow> follows = followService.query()
-                .eq("follow_user_id", user.getId())
-                .list();
-        // 4.推送笔记id给所有粉丝
-        for (Follow follow : follows) {
-            // 4.1.获取粉丝id
-            Long userId = follow.getUserId();
-            // 4.2.推送
-            // （发到谁的邮箱，谁就是key，这样才能对他收到的邮件进行按时间排序）
-            String key = FEED_KEY + userId;
-            stringRedisTemplate.opsForZSet().add(key, blog.getId().toString(), System.currentTimeMillis());
-        }
-        // 5.返回id
+        // 3.推送笔记id给所有粉丝，与笔记在同一事务中写入发件箱
+        // （发到谁的邮箱，谁就是key，这样才能对他收到的邮件进行按时间排序）
+        outboxWriter.pushFeed(blog, System.currentTimeMillis());
+        // 4.返回id
         return Result.ok(blog.getId());
     }
 
@@ -202,10 +202,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         // 5.根据id查询blog
         String idStr=StrUtil.join(",",ids);
         List<Blog> blogs =
-                query().in("id", ids).last("ORDER.BY FIELD(id," + idStr + ")").list();
+                query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+        // 5.1.批量查询blog有关的用户
+        queryBlogUsers(blogs);
         for(Blog blog: blogs){
-            // 5.1.查询blog有关的用户
-            queryBlogUser(blog);
             // 5.2.查询blog是否被当前用户点赞
             isBlogLiked(blog);
         }
@@ -235,12 +235,41 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     }
 
     /**
-     * 查询当前博客的博主
+     * 查询热门博客
      */
-    private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+    @Override
+    public Result queryHotBlog(Integer current) {
+        // 根据点赞数分页查询
+        Page<Blog> page = query()
+                .orderByDesc("liked")
+                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+        // 获取当前页数据
+        List<Blog> records = page.getRecords();
+        // 批量查询用户
+        queryBlogUsers(records);
+        return Result.ok(records);
+    }
+
+    /**
+     * 批量查询博客的博主
+     * 一次MGET查缓存，未命中的用户一次性查库，避免逐条getById
+     */
+    private void queryBlogUsers(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toList());
+        Map<Long, UserDTO> users = cacheClient.queryBatchWithPassThrough(CACHE_USER_KEY, userIds, UserDTO.class,
+                ids -> userService.listByIds(ids).stream()
+                        .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                        .collect(Collectors.toList()),
+                UserDTO::getId, CACHE_USER_TTL, TimeUnit.MINUTES);
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
     }
 }
@@ -1,28 +1,42 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.StrUtil;
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopDetailDTO;
 import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.AsyncCacheClient;
+import com.hmdp.utils.BloomFilterRegistry;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheNamespaces;
+import com.hmdp.utils.CacheStrategy;
+import com.hmdp.utils.CacheStrategyRegistry;
+import com.hmdp.utils.HmCached;
+import com.hmdp.utils.OutboxWriter;
 import com.hmdp.utils.RedisData;
 import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
 import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.*;
@@ -35,38 +49,121 @@ import static com.hmdp.utils.RedisConstants.*;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
+    private static final int BLOOM_LOAD_BATCH_SIZE = 1000;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
     private CacheClient cacheClient;
 
-    @Override
-    public Result queryById(Long id) {
-        //以下选择一个场景即可
+    @Resource
+    private AsyncCacheClient asyncCacheClient;
 
-        //解决缓存穿透
-        Shop shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById,
-                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    @Resource
+    private CacheNamespaces cacheNamespaces;
 
-        //解决缓存击穿（互斥锁）
-//        Shop shop1 = cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById,
-//                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    @Resource
+    private CacheStrategyRegistry strategyRegistry;
 
-        //解决缓存击穿（设置逻辑过期时间）
-//        Shop shop2 = cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById,
-//                20L, TimeUnit.SECONDS);
+    @Resource
+    private VoucherMapper voucherMapper;
 
-        if (shop == null) {
-            return Result.fail("店铺不存在！");
+    @Resource
+    private BloomFilterRegistry bloomFilterRegistry;
+
+    @Resource
+    private OutboxWriter outboxWriter;
+
+    /**
+     * 启动时把所有店铺id加载到布隆过滤器，按主键分批扫描
+     */
+    @PostConstruct
+    private void initBloomFilter() {
+        if (!bloomFilterRegistry.isEnabled(CACHE_SHOP_KEY)) {
+            return;
         }
+        try {
+            List<Long> ids = new ArrayList<>();
+            long lastId = 0;
+            while (true) {
+                // SELECT id FROM tb_shop WHERE id > ? ORDER BY id LIMIT 1000
+                List<Shop> batch = query().select("id").gt("id", lastId)
+                        .orderByAsc("id").last("LIMIT " + BLOOM_LOAD_BATCH_SIZE).list();
+                if (batch.isEmpty()) {
+                    break;
+                }
+                for (Shop shop : batch) {
+                    ids.add(shop.getId());
+                }
+                lastId = ids.get(ids.size() - 1);
+            }
+            bloomFilterRegistry.loadAll(CACHE_SHOP_KEY, ids);
+        } catch (Exception e) {
+            // 加载失败时过滤器保持放行状态，不影响正常查询
+            log.error("加载店铺布隆过滤器失败！", e);
+        }
+    }
 
-        return Result.ok(shop);
+    /**
+     * 缓存策略可以在运行时按前缀切换，见 CacheStrategyRegistry
+     */
+    @Override
+    @HmCached(prefix = CACHE_SHOP_KEY, type = Shop.class, ttl = CACHE_SHOP_TTL, nullMessage = "店铺不存在！")
+    public Result queryById(Long id) {
+        return Result.ok(getById(id));
     }
 
+    /**
+     * 同时查询店铺与店铺的优惠券，两次缓存读取并发进行，不占用请求线程；
+     * 缓存key、格式都与 queryById、VoucherServiceImpl.queryVoucherOfShop 一致，策略与它们一样按前缀从
+     * CacheStrategyRegistry 取当前生效的值（两者的注解都声明为缓存空对象），运行时切换后两条路径读写同一种格式
+     */
+    @Override
+    public CompletableFuture<Result> queryShopDetailAsync(Long id) {
+        // 1.取各前缀当前生效的策略，并发发起两次查询
+        CacheStrategy shopStrategy = strategyRegistry.resolve(CACHE_SHOP_KEY, CacheStrategy.PASS_THROUGH);
+        CacheStrategy voucherStrategy = strategyRegistry.resolve(CACHE_VOUCHER_SHOP_KEY, CacheStrategy.PASS_THROUGH);
+        CompletableFuture<Shop> shopFuture = asyncCacheClient.query(CACHE_SHOP_KEY, shopStrategy,
+                id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        CompletableFuture<Voucher[]> voucherFuture = asyncCacheClient.query(CACHE_VOUCHER_SHOP_KEY, voucherStrategy,
+                id, Voucher[].class, shopId -> voucherMapper.queryVoucherOfShop(shopId).toArray(new Voucher[0]),
+                CACHE_VOUCHER_TTL, TimeUnit.MINUTES);
+        // 2.组合结果
+        return shopFuture.thenCombine(voucherFuture, (shop, vouchers) -> {
+            if (shop == null) {
+                return Result.fail("店铺不存在！");
+            }
+            ShopDetailDTO detail = new ShopDetailDTO();
+            detail.setShop(shop);
+            // 每次复制一份，避免修改共享的本地缓存
+            detail.setVouchers(vouchers == null ? Collections.emptyList() : new ArrayList<>(Arrays.asList(vouchers)));
+            return Result.ok(detail);
+        });
+    }
+
+    @Override
+    @Transactional
+    public Result saveShop(Shop shop) {
+        // 1.写入数据库
+        save(shop);
+        // 2.登记到布隆过滤器，否则新店铺会被误判为不存在
+        bloomFilterRegistry.add(CACHE_SHOP_KEY, shop.getId());
+        // 3.地理位置索引通过发件箱在事务提交后写入
+        if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+            outboxWriter.addShopGeo(shop);
+        }
+        return Result.ok(shop.getId());
+    }
+
+    /**
+     * 更新店铺：缓存删除与地理位置索引的变更作为发件箱事件与店铺在同一事务中写入，
+     * 提交后投递，投递失败由发件箱重试，不会出现数据库已提交而缓存没删的情况
+     */
     @Override
     @Transactional
     public Result update(Shop shop) {
@@ -74,10 +171,26 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null) {
             return Result.fail("店铺id不能为空！");
         }
+        Shop old = getById(id);
+        if (old == null) {
+            return Result.fail("店铺不存在！");
+        }
         //1.先修改数据库
         updateById(shop);
-        //2.再删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        //2.记录删除缓存（同时通知各节点清理本地缓存）
+        outboxWriter.evictCache(CACHE_SHOP_KEY, id);
+        //3.类型或坐标变化时同步地理位置索引
+        Long typeId = shop.getTypeId() != null ? shop.getTypeId() : old.getTypeId();
+        Double x = shop.getX() != null ? shop.getX() : old.getX();
+        Double y = shop.getY() != null ? shop.getY() : old.getY();
+        boolean typeChanged = old.getTypeId() != null && !old.getTypeId().equals(typeId);
+        if (typeChanged) {
+            outboxWriter.removeShopGeo(old.getTypeId(), id);
+        }
+        if (typeId != null && x != null && y != null
+                && (typeChanged || !x.equals(old.getX()) || !y.equals(old.getY()))) {
+            outboxWriter.addShopGeo(new Shop().setId(id).setTypeId(typeId).setX(x).setY(y));
+        }
         return Result.ok();
     }
 
@@ -98,7 +211,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;//跳过的元素数量（偏移量）
         int end = current * SystemConstants.DEFAULT_PAGE_SIZE;//要获取的元素数量上限
         // 3.查询redis、按照距离排序、分页。结果：shopId、distance
-        String key = SHOP_GEO_KEY + typeId;
+        String key = cacheNamespaces.key(SHOP_GEO_KEY + typeId);
         GeoResults<RedisGeoCommands.GeoLocation<String>> results =
                 stringRedisTemplate.opsForGeo().search(
                         key,
@@ -129,19 +242,44 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             Distance distance = result.getDistance();
             distanceMap.put(shopIdStr, distance);
         });
-        // 5.根据店铺id查询Shop
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query()
-                .in("id", idStr)
-                .last("ORDER BY FIELD(id," + idStr + ")")//确保查询结果顺序与Redis返回的顺序一致
-                .list();
-        for (Shop shop : shops) {
+        // 5.根据店铺id批量查询Shop：先一次MGET查缓存，未命中的再一次性查库，结果顺序与Redis返回的顺序一致
+        Map<Long, Shop> shopMap = cacheClient.queryBatchWithPassThrough(CACHE_SHOP_KEY, ids, Shop.class,
+                this::listByIds, Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        List<Shop> shops = new ArrayList<>(shopMap.size());
+        for (Shop cached : shopMap.values()) {
+            // 缓存对象可能被本地缓存共享，复制后再设置距离
+            Shop shop = BeanUtil.copyProperties(cached, Shop.class);
             shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+            shops.add(shop);
         }
         // 6.返回
         return Result.ok(shops);
     }
 
+    /**
+     * 重建某个类型的地理位置索引：写入新版本的key后切换版本号，查询不会看到写了一半的数据。
+     * 分配新版本之后才查询数据库，此后的变更由发件箱同时写入新版本
+     */
+    @Override
+    public Result rebuildGeo(Long typeId) {
+        // 写入新版本的key，旧版本由命名空间延迟过期
+        long version = cacheNamespaces.rebuild(SHOP_GEO_KEY + typeId, key -> {
+            // 1.查询该类型所有店铺的坐标
+            List<Shop> shops = query().select("id", "x", "y").eq("type_id", typeId).list();
+            List<RedisGeoCommands.GeoLocation<String>> locations = new ArrayList<>(shops.size());
+            for (Shop shop : shops) {
+                if (shop.getX() != null && shop.getY() != null) {
+                    locations.add(new RedisGeoCommands.GeoLocation<>(shop.getId().toString(), new Point(shop.getX(), shop.getY())));
+                }
+            }
+            // 2.写入新版本
+            if (!locations.isEmpty()) {
+                stringRedisTemplate.opsForGeo().add(key, locations);
+            }
+        });
+        return Result.ok(version);
+    }
+
 //    public void saveShop2Redis(Long id, Long expireSeconds) {
 //        //1.查询店铺数据
 //        Shop shop = getById(id);
@@ -11,6 +11,7 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.HmCached;
 import com.hmdp.utils.RegexUtils;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
@@ -171,6 +172,14 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         return Result.ok(count);
     }
 
+    @Override
+    @HmCached(prefix = CACHE_USER_KEY, type = UserDTO.class, ttl = CACHE_USER_TTL)
+    public Result queryUserById(Long id) {
+        User user = getById(id);
+        // 用户不存在返回 Result.ok()，与原接口一致
+        return Result.ok(user == null ? null : BeanUtil.copyProperties(user, UserDTO.class));
+    }
+
     /**
      * 电话号码创建账号
      *
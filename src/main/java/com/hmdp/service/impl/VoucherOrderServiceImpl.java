@@ -1,20 +1,25 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.config.SeckillProperties;
 import com.hmdp.dto.Result;
-import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.OrderConsumerPool;
+import com.hmdp.utils.OrderStreamRecovery;
+import com.hmdp.utils.OrderStreamRouter;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillStockBuckets;
 import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.SoldOutFlags;
 import com.hmdp.utils.UserHolder;
 import org.apache.tomcat.util.scan.UrlJar;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -26,15 +31,15 @@ import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
-import static com.hmdp.utils.RedisConstants.LOCK_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_VOUCHER_KEY;
 
 /**
  * 秒杀优惠券服务
@@ -49,125 +54,228 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private RedisIdWorker redisIdWorker;
 
     @Resource
-    private RedissonClient redissonClient;
+    private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private OrderStreamRouter orderStreamRouter;
+
+    @Resource
+    private OrderConsumerPool orderConsumerPool;
+
+    @Resource
+    private OrderStreamRecovery orderStreamRecovery;
+
+    @Resource
+    private SoldOutFlags soldOutFlags;
+
+    @Resource
+    private SeckillStockBuckets seckillStockBuckets;
+
+    //自身的代理对象，消费线程中调用事务方法
+    @Resource
+    @Lazy
+    private IVoucherOrderService self;
 
     //Spring Data Redis提供的类，用于封装Redis Lua脚本
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<List> SECKILL_SCRIPT;
 
     static {
         SECKILL_SCRIPT = new DefaultRedisScript<>();
         SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));//设置Lua脚本文件位置
-        SECKILL_SCRIPT.setResultType(Long.class);//指定脚本返回结果类型为Long
+        SECKILL_SCRIPT.setResultType(List.class);//指定脚本返回结果类型为List：[结果, 订单id]
     }
 
     //--------------------------------------------------------------------------------------------------------------
 
-    //创建一个用于异步处理的线程池
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
-
     //在类初始化之后执行，因为当这个类初始化好了之后，随时都是有可能要执行的
-    @PostConstruct//Spring 容器初始化后立即启动消费者线程。
+    @PostConstruct//Spring 容器初始化后立即启动消费者池，每认领一个分区启动一个消费者线程
     private void init() {
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        // 批大小大于1时批量消费，否则逐条消费
+        boolean batch = seckillProperties.getOrderConsumer().getBatchSize() > 1;
+        orderConsumerPool.start(lease -> batch ? new BatchVoucherOrderHandler(lease) : new VoucherOrderHandler(lease));
     }
 
-    //初始化一个容量为 1,048,576（1024×1024）的阻塞队列，用于临时存储秒杀订单
-    private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
-
-    //代理对象
-    private IVoucherOrderService proxy;
-
     //2）
     // 用于线程池处理的任务
     // 当初始化完毕后，就会去从队列中去拿信息
     private class VoucherOrderHandler implements Runnable {
 
-        //主循环处理新消息
+        //本节点对所消费分区的租约
+        private final OrderConsumerPool.PartitionLease lease;
+
+        private VoucherOrderHandler(OrderConsumerPool.PartitionLease lease) {
+            this.lease = lease;
+        }
+
+        private final long retryIntervalMillis = seckillProperties.getOrderConsumer().getRetryInterval().toMillis();
+
+        //主循环处理新消息，租约交还或失效后退出
         @Override
         public void run() {
-            while (true) {
+            // 先处理接手的未确认消息
+            handlePendingList();
+            long nextRetry = System.currentTimeMillis() + retryIntervalMillis;
+            while (lease.isActive()) {
+                // 定时重试处理失败的消息
+                if (System.currentTimeMillis() >= nextRetry) {
+                    handlePendingList();
+                    nextRetry = System.currentTimeMillis() + retryIntervalMillis;
+                }
                 try {
                     // 1.获取队列中的订单信息
-                    //XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 >
+                    //XREADGROUP GROUP g1 {消费者} COUNT 1 BLOCK 2000 STREAMS stream.orders:{分区} >
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),// 消费者组g1，消费者实例c1
+                            Consumer.from(SECKILL_ORDER_GROUP, lease.getConsumerName()),// 消费者组g1，本节点的消费者
                             StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),// 每次读1条，阻塞2秒
-                            StreamOffset.create("stream.orders", ReadOffset.lastConsumed())// 从 stream.orders 读取新消息，> 表示新消息
+                            StreamOffset.create(lease.getStreamKey(), ReadOffset.lastConsumed())// 从分区的stream读取新消息，> 表示新消息
                     );
                     // 2. 跳过空消息
                     if(list==null||list.isEmpty()){
                         continue;
                     }
-                    // 3. 消息解析
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
-                    // 4.创建订单
-                    handleVoucherOrder(voucherOrder);
-                    // 5.确认消息已处理完成 XACK
-                    stringRedisTemplate.opsForStream().acknowledge("s1","g1",record.getId());
+                    // 3.创建订单并确认
+                    handle(list);
                 } catch (Exception e) {
+                    // 消息留在pending list中，到时间后重试
                     log.error("处理订单异常！", e);
-                    handlePendingList(); // 异常时转去处理失败消息
                 }
             }
         }
 
-        //专门处理失败消息
+        private void handle(List<MapRecord<String, Object, Object>> records) {
+            for (MapRecord<String, Object, Object> record : records) {
+                // 1. 消息解析，将Redis中的Hash结构转换为Java对象
+                VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+                // 2.创建订单
+                handleVoucherOrder(voucherOrder);
+                // 3.确认消息已处理完成 XACK stream.orders:{分区} g1 id
+                stringRedisTemplate.opsForStream().acknowledge(lease.getStreamKey(), SECKILL_ORDER_GROUP, record.getId());
+            }
+        }
+
+        //处理失败消息：接手下线消费者的消息，重试pending list，超过投递次数的转入死信队列
         private void handlePendingList() {
-            while(true){
-                try{
-                    // 1. 从Pending List读取(0表示待处理消息)
-                    //XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 0
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),// 消费者组 g1，消费者 c1
-                            StreamReadOptions.empty().count(1),// 每次读取 1 条消息（不阻塞）
-                            StreamOffset.create("stream.orders", ReadOffset.from("0"))//0 表示读取 Pending List 中的消息
-                    );
-                    // 2. 无异常消息时退出
-                    if(list==null||list.isEmpty()){
-                        break;
-                    }
-                    // 3. 消息解析与业务处理（同主流程）
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    //将Redis中的Hash结构转换为Java对象
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
-                    createVoucherOrder(voucherOrder);
-                    // 4. 成功处理后的ACK
-                    stringRedisTemplate.opsForStream().acknowledge("s1","g1",record.getId());
-                }catch (Exception e){
-                    log.error("处理pendding订单异常！", e);
-                    try{
-                        Thread.sleep(20);//休眠2毫秒
-                    }catch (Exception e2){
-                        e2.printStackTrace();
+            try {
+                orderStreamRecovery.recover(lease, 1, this::handle);
+            } catch (Exception e) {
+                log.error("处理pendding订单异常！", e);
+            }
+        }
+    }
+
+    /**
+     * 批量消费：每次凑够 batch-size 条或等满 batch-wait 后，在一个事务中创建整批订单，再一次XACK整批消息
+     */
+    private class BatchVoucherOrderHandler implements Runnable {
+
+        private final OrderConsumerPool.PartitionLease lease;
+
+        private final int batchSize = seckillProperties.getOrderConsumer().getBatchSize();
+
+        private final long batchWaitMillis = seckillProperties.getOrderConsumer().getBatchWait().toMillis();
+
+        private final long retryIntervalMillis = seckillProperties.getOrderConsumer().getRetryInterval().toMillis();
+
+        private BatchVoucherOrderHandler(OrderConsumerPool.PartitionLease lease) {
+            this.lease = lease;
+        }
+
+        @Override
+        public void run() {
+            // 先处理接手的未确认消息
+            handlePendingList();
+            long nextRetry = System.currentTimeMillis() + retryIntervalMillis;
+            while (lease.isActive()) {
+                // 定时重试处理失败的消息
+                if (System.currentTimeMillis() >= nextRetry) {
+                    handlePendingList();
+                    nextRetry = System.currentTimeMillis() + retryIntervalMillis;
+                }
+                try {
+                    // 1.凑一批新消息
+                    List<MapRecord<String, Object, Object>> records = readBatch();
+                    if (records.isEmpty()) {
+                        continue;
                     }
+                    // 2.批量创建订单并确认
+                    handleBatch(records);
+                } catch (Exception e) {
+                    // 整批留在pending list中，到时间后重试，重试时逐条找出失败的消息
+                    log.error("批量处理订单异常！", e);
+                }
+            }
+        }
+
+        private List<MapRecord<String, Object, Object>> readBatch() {
+            // 1.阻塞等待第一批消息
+            //XREADGROUP GROUP g1 {消费者} COUNT n BLOCK 2000 STREAMS stream.orders:{分区} >
+            List<MapRecord<String, Object, Object>> first = read(batchSize, Duration.ofSeconds(2));
+            if (first == null || first.isEmpty()) {
+                return Collections.emptyList();
+            }
+            // 2.不满一批时继续读，直到凑满或等待超时
+            List<MapRecord<String, Object, Object>> batch = new ArrayList<>(first);
+            long deadline = System.currentTimeMillis() + batchWaitMillis;
+            while (batch.size() < batchSize) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    // BLOCK 0 表示一直阻塞，超时后不能再读
+                    break;
+                }
+                List<MapRecord<String, Object, Object>> more = read(batchSize - batch.size(), Duration.ofMillis(remaining));
+                if (more == null || more.isEmpty()) {
+                    break;
                 }
+                batch.addAll(more);
+            }
+            return batch;
+        }
+
+        private List<MapRecord<String, Object, Object>> read(int count, Duration block) {
+            return stringRedisTemplate.opsForStream().read(
+                    Consumer.from(SECKILL_ORDER_GROUP, lease.getConsumerName()),
+                    StreamReadOptions.empty().count(count).block(block),
+                    StreamOffset.create(lease.getStreamKey(), ReadOffset.lastConsumed())
+            );
+        }
+
+        private void handleBatch(List<MapRecord<String, Object, Object>> records) {
+            // 1.消息解析
+            List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+            RecordId[] ids = new RecordId[records.size()];
+            for (int i = 0; i < records.size(); i++) {
+                MapRecord<String, Object, Object> record = records.get(i);
+                voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+                ids[i] = record.getId();
+            }
+            // 2.一个事务中创建整批订单
+            self.createVoucherOrders(voucherOrders);
+            // 3.整批确认 XACK stream.orders:{分区} g1 id1 id2 ...
+            stringRedisTemplate.opsForStream().acknowledge(lease.getStreamKey(), SECKILL_ORDER_GROUP, ids);
+        }
+
+        //处理失败消息：接手下线消费者的消息，按批重试pending list，超过投递次数的转入死信队列
+        private void handlePendingList() {
+            try {
+                orderStreamRecovery.recover(lease, batchSize, this::handleBatch);
+            } catch (Exception e) {
+                log.error("批量处理pendding订单异常！", e);
             }
         }
     }
 
     //3）
     private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        //1.获取用户
-        Long userId = UserHolder.getUser().getId();
-        // 2.创建锁对象
-        RLock redisLock = redissonClient.getLock(LOCK_ORDER_KEY + userId);
-        // 3.尝试获取锁
-        boolean isLock = redisLock.tryLock();
-        // 4.判断是否获得锁成功
-        if(!isLock){
-            // 获取锁失败，直接返回失败或者重试
-            log.error("不允许重复下单！");
-            return;
-        }
-        try {
-            //注意：由于是spring的事务是放在threadLocal中，此时的是多线程，事务会失效
-            proxy.createVoucherOrder(voucherOrder);
-        }finally {
-            redisLock.unlock();
+        // 一人一单由 (voucher_id, user_id) 唯一键保证，不再需要按用户加锁；消费线程中没有登录用户，用户取自消息
+        //注意：由于是spring的事务是放在threadLocal中，此时的是多线程，通过代理对象调用事务方法
+        if (!self.createVoucherOrder(voucherOrder)) {
+            log.error("用户已经购买过一次！userId: " + voucherOrder.getUserId());
         }
     }
 
@@ -177,72 +285,171 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      * 将耗时比较短的逻辑判断放入到redis中，如秒杀库存、秒杀订单
      * <p>
      * 我们去下单时，是通过lua表达式去原子执行判断逻辑，
-     * 如果判断我出来不为0，则要么是库存不足，要么是重复下单，返回错误信息，
+     * 如果判断我出来不为0，则要么是不在秒杀时间内，要么是库存不足，要么是重复下单，返回错误信息，
      * 如果是0，则把下单的逻辑保存到队列中去，然后异步执行
      */
     @Override
     public Result seckillVoucher(Long voucherId) {
+        // 0.本节点已标记售罄，直接返回，不访问redis
+        if (soldOutFlags.isSoldOut(voucherId)) {
+            return Result.fail("库存不足！");
+        }
         //获取用户
         Long userId = UserHolder.getUser().getId();
-        //生成订单id
-        long orderId = redisIdWorker.nextId("order");
-        // 1.执行lua脚本
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,// Lua 脚本
-                Collections.emptyList(),// KEYS 为空（或无键参数）
-                voucherId.toString(), //ARGV[1]
-                userId.toString(), //ARGV[2]
-                String.valueOf(orderId) //ARGV[3]
-        );
+        // 1.在用户所在的桶执行lua脚本，下单成功时在脚本中生成订单id
+        int buckets = seckillStockBuckets.buckets(voucherId);
+        int home = seckillStockBuckets.homeBucket(userId, buckets);
+        List<?> result = executeSeckill(voucherId, userId, home, home, buckets, buckets > 1 ? "1" : "0");
+        int r = ((Long) result.get(0)).intValue();
+        if (r == 3) {
+            // 1.1.自己的桶没有库存，已占住名额，依次到相邻的桶扣减
+            r = 1;
+            for (int i = 1; i < buckets && r == 1; i++) {
+                result = executeSeckill(voucherId, userId, (home + i) % buckets, home, buckets, "2");
+                r = ((Long) result.get(0)).intValue();
+            }
+            if (r != 0) {
+                // 所有桶都没有库存，释放名额
+                seckillStockBuckets.release(voucherId, userId, buckets);
+            }
+        }
         // 2.判断结果是否为0
-        int r = result.intValue();
         if (r != 0) {
-            // 2.1.不为0 ，代表没有购买资格
-            return Result.fail(r == 1 ? "库存不足！" : "不能重复下单！");
+            // 2.1.不为0 ，代表没有购买资格，库存不足时标记售罄并通知其它节点
+            if (r == 1) {
+                soldOutFlags.markSoldOut(voucherId);
+            }
+            return Result.fail(failMessage(r));
         }
+        // 3.返回订单id
+        return Result.ok(Long.valueOf((String) result.get(1)));
+    }
 
-        //这里的代码在lua已经实现过，这里是起到一个兜底作用
-        // 3.封装订单对象
-        VoucherOrder voucherOrder = new VoucherOrder();
-        voucherOrder.setId(orderId);
-        voucherOrder.setUserId(userId);
-        voucherOrder.setVoucherId(voucherId);
-        // 4.放入阻塞队列
-        orderTasks.add(voucherOrder);
-        // 5.获取代理对象
-        proxy = (IVoucherOrderService)AopContext.currentProxy();
+    private static String failMessage(int r) {
+        switch (r) {
+            case 1:
+                return "库存不足！";
+            case 4:
+                return "秒杀尚未开始！";
+            case 5:
+                return "秒杀已经结束！";
+            default:
+                return "不能重复下单！";
+        }
+    }
 
-        // 3.返回订单id
-        return Result.ok(orderId);
+    /**
+     * 在一个库存桶上执行秒杀脚本
+     *
+     * @param bucket 扣减库存的桶
+     * @param home   用户所在的桶，购买记录写在这里
+     * @param mode   0 不分桶；1 在自己的桶下单，没有库存时占住名额；2 已占住名额，到相邻的桶扣减
+     * @return [结果, 订单id]，结果 0 成功，1 库存不足，2 重复下单，3 自己的桶没有库存（已占住名额），4 尚未开始，5 已经结束
+     */
+    private List<?> executeSeckill(Long voucherId, Long userId, int bucket, int home, int buckets, String mode) {
+        String stockKey = seckillStockBuckets.stockKey(voucherId, bucket, buckets);
+        // 库存key只统计访问，不做本地副本，热点通过 /admin/cache/hot-keys 查看
+        hotKeyDetector.record(stockKey);
+        LocalDateTime now = LocalDateTime.now();
+        return stringRedisTemplate.execute(
+                SECKILL_SCRIPT,// Lua 脚本
+                Arrays.asList(
+                        stockKey, //KEYS[1]：库存
+                        seckillStockBuckets.orderKey(voucherId, home, buckets), //KEYS[2]：用户所在桶的购买者集合
+                        orderStreamRouter.streamKey(voucherId, userId), //KEYS[3]：订单所在分区的消息队列
+                        redisIdWorker.countKey("order", now), //KEYS[4]：订单id序列号
+                        SECKILL_VOUCHER_KEY + voucherId //KEYS[5]：预热的秒杀时间窗口
+                ),
+                voucherId.toString(), //ARGV[1]
+                userId.toString(), //ARGV[2]
+                String.valueOf(redisIdWorker.timestamp(now)), //ARGV[3]：订单id的时间戳部分
+                mode //ARGV[4]
+        );
     }
 
     //4）
+    /**
+     * 创建一个订单：INSERT ... ON DUPLICATE KEY UPDATE 写入，只有插入了新行才扣减库存，已存在的订单（消息重复投递）直接返回
+     *
+     * @return 是否创建了订单
+     */
     @Override
     @Transactional
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
+    public boolean createVoucherOrder(VoucherOrder voucherOrder) {
         //这里的代码在lua已经实现过，这里是起到一个兜底作用
-        //一人一单
-        Long userId = UserHolder.getUser().getId();
-        Long voucherId = voucherOrder.getVoucherId();
-        //5.1.用户id和对应的订单
-        Integer count = query().eq("user_id", userId).eq("voucher_id", voucherId).count();
-        //5.2.判断是否存在
-        if (count > 0) {
-            //用户存在且购买过
-            log.error("用户已经购买过一次！");
-            return;
+        //一人一单：唯一键冲突时不插入
+        if (getBaseMapper().insertIfAbsent(Collections.singletonList(voucherOrder)) == 0) {
+            return false;
+        }
+        //扣减库存
+        deductStock(voucherOrder.getVoucherId(), 1);
+        return true;
+    }
+
+    /**
+     * 批量创建订单，整批在同一个事务中：
+     * 每个优惠券一条多行 INSERT ... ON DUPLICATE KEY UPDATE，按实际插入的行数执行一次 stock = stock - k，
+     * 批内重复与数据库中已有的订单由唯一键排除，不需要先查询
+     *
+     * @return 实际创建的订单数
+     */
+    @Override
+    @Transactional
+    public int createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        // 1.按优惠券分组
+        Map<Long, List<VoucherOrder>> byVoucher = new LinkedHashMap<>();
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            byVoucher.computeIfAbsent(voucherOrder.getVoucherId(), k -> new ArrayList<>()).add(voucherOrder);
         }
-        //6，扣减库存
+        // 2.写入订单，再按插入的行数扣减库存
+        int created = 0;
+        for (Map.Entry<Long, List<VoucherOrder>> entry : byVoucher.entrySet()) {
+            int inserted = getBaseMapper().insertIfAbsent(entry.getValue());
+            if (inserted < entry.getValue().size()) {
+                log.error("用户已经购买过一次！voucherId: " + entry.getKey() + "，忽略 "
+                        + (entry.getValue().size() - inserted) + " 个订单");
+            }
+            if (inserted > 0) {
+                deductStock(entry.getKey(), inserted);
+            }
+            created += inserted;
+        }
+        return created;
+    }
+
+    /**
+     * 删除一个优惠券的若干订单并归还数据库库存，用于库存核对发现的重复订单
+     *
+     * @return 实际删除的订单数
+     */
+    @Override
+    @Transactional
+    public int cancelVoucherOrders(Long voucherId, List<Long> orderIds) {
+        if (orderIds.isEmpty()) {
+            return 0;
+        }
+        int removed = getBaseMapper().delete(new QueryWrapper<VoucherOrder>()
+                .eq("voucher_id", voucherId).in("id", orderIds));
+        if (removed > 0) {
+            seckillVoucherService.update()
+                    .setSql("stock = stock + " + removed)
+                    .eq("voucher_id", voucherId)
+                    .update();
+        }
+        return removed;
+    }
+
+    //扣减库存 stock = stock - k，库存不足时回滚整个事务，消息留在pending list中重试，仍然失败时转入死信队列
+    private void deductStock(Long voucherId, int count) {
         boolean success = seckillVoucherService.update()
-                .setSql("stock=stock-1")
+                .setSql("stock = stock - " + count)
                 .eq("voucher_id", voucherId)
-                .gt("stock", 0) //乐观锁防止超卖问题
+                .ge("stock", count) //乐观锁防止超卖问题
                 .update();
         if (!success) {
-            log.error("库存不足！");
+            // redis中已经预扣了库存，正常不会走到这里
+            throw new IllegalStateException("库存不足！voucherId: " + voucherId + "，需要 " + count);
         }
-        //7.创建订单
-        save(voucherOrder);
     }
 
     //--------------------------------------------------------------------------------------------------------------
@@ -295,7 +502,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 //     * 将耗时比较短的逻辑判断放入到redis中，如秒杀库存、秒杀订单
 //     * <p>
 //     * 我们去下单时，是通过lua表达式去原子执行判断逻辑，
-//     * 如果判断我出来不为0，则要么是库存不足，要么是重复下单，返回错误信息，
+//     * 如果判断我出来不为0，则要么是不在秒杀时间内，要么是库存不足，要么是重复下单，返回错误信息，
 //     * 如果是0，则把下单的逻辑保存到队列中去，然后异步执行
 //     */
 //    @Override
@@ -316,7 +523,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 //        int r = result.intValue();
 //        if (r != 0) {
 //            // 2.1.不为0 ，代表没有购买资格
-//            return Result.fail(r == 1 ? "库存不足！" : "不能重复下单！");
+//            return Result.fail(failMessage(r));
 //        }
 //        //TODO 保存阻塞队列
 //        // 3.返回订单id
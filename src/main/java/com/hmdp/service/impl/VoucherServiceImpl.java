@@ -7,14 +7,19 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.HmCached;
+import com.hmdp.utils.OutboxWriter;
+import com.hmdp.utils.SeckillPreheater;
+import com.hmdp.utils.SoldOutFlags;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -31,9 +36,16 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISeckillVoucherService seckillVoucherService;
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private OutboxWriter outboxWriter;
+
+    @Resource
+    private SoldOutFlags soldOutFlags;
+
+    @Resource
+    private SeckillPreheater seckillPreheater;
 
     @Override
+    @HmCached(prefix = CACHE_VOUCHER_SHOP_KEY, type = Voucher.class, collection = true, ttl = CACHE_VOUCHER_TTL)
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
         List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
@@ -41,6 +53,19 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         return Result.ok(vouchers);
     }
 
+    /**
+     * 店铺的优惠券列表缓存通过发件箱在事务提交后删除
+     */
+    @Override
+    @Transactional
+    public boolean save(Voucher entity) {
+        boolean saved = super.save(entity);
+        if (saved) {
+            outboxWriter.evictCache(CACHE_VOUCHER_SHOP_KEY, entity.getShopId());
+        }
+        return saved;
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -53,7 +78,18 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        //保存秒杀库到Redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY+voucher.getId(),voucher.getStock().toString());
+        //写入Redis与广播售罄标记在事务提交后执行，事务回滚时不会留下数据库中不存在的秒杀券
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                //即将开始的秒杀券立即把库存与时间窗口写入Redis，其余的由定时预热在开始前写入；
+                //这里写入失败时，开启了定时预热的情况下由下一轮预热补写
+                if (seckillPreheater.isDue(seckillVoucher)) {
+                    seckillPreheater.preheat(seckillVoucher);
+                }
+                //清除各节点的售罄标记
+                soldOutFlags.clear(voucher.getId());
+            }
+        });
     }
 }
@@ -0,0 +1,267 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.CacheProperties;
+import io.lettuce.core.SetArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
+import static com.hmdp.utils.RedisConstants.LOCK_CACHE_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_CACHE_TTL;
+
+/**
+ * {@link CacheClient} 的异步版本，redis读写使用lettuce的异步命令，返回 CompletableFuture，
+ * 调用方可以同时发起多个缓存查询再组合结果，redis往返期间不占用请求线程
+ * <p>
+ * 回调运行在lettuce的IO线程上，不能在其中阻塞：dbFallback 与提交重建（可能同步释放锁）交给独立的有界线程池执行，
+ * 队列满时直接拒绝（返回失败的future、异步释放重建锁），不会回退到调用线程执行
+ * <p>
+ * 与同步版本共用本地缓存、布隆过滤器、过期策略、重建调度器与指标，写入的数据格式完全一致
+ */
+@Slf4j
+@Component
+public class AsyncCacheClient {
+
+    private static final byte[] NULL_VALUE = new byte[0];
+
+    private final RedisAsyncCommands<String, byte[]> commands;
+
+    private final CacheClient cacheClient;
+
+    private final LocalCache localCache;
+
+    private final BloomFilterRegistry bloomFilterRegistry;
+
+    private final CacheSerializer serializer;
+
+    private final CacheTtlPolicy ttlPolicy;
+
+    private final CacheRebuildScheduler rebuildScheduler;
+
+    private final CacheStrategyRegistry strategyRegistry;
+
+    private final CacheMetrics metrics;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    //逻辑过期的数据在逻辑过期之后保留的秒数
+    private final long logicalRetentionSeconds;
+
+    //执行dbFallback的线程池
+    private final ThreadPoolExecutor dbExecutor;
+
+    public AsyncCacheClient(StatefulRedisConnection<String, byte[]> asyncCacheConnection, CacheClient cacheClient,
+                            LocalCache localCache, BloomFilterRegistry bloomFilterRegistry, CacheSerializer serializer,
+                            CacheTtlPolicy ttlPolicy, CacheRebuildScheduler rebuildScheduler,
+                            CacheStrategyRegistry strategyRegistry, CacheMetrics metrics,
+                            HotKeyDetector hotKeyDetector, CacheProperties cacheProperties) {
+        this.commands = asyncCacheConnection.async();
+        this.cacheClient = cacheClient;
+        this.localCache = localCache;
+        this.bloomFilterRegistry = bloomFilterRegistry;
+        this.serializer = serializer;
+        this.ttlPolicy = ttlPolicy;
+        this.rebuildScheduler = rebuildScheduler;
+        this.strategyRegistry = strategyRegistry;
+        this.metrics = metrics;
+        this.hotKeyDetector = hotKeyDetector;
+        this.logicalRetentionSeconds = cacheProperties.getNamespace().getLogicalRetention().getSeconds();
+        CacheProperties.Async properties = cacheProperties.getAsync();
+        int threads = Math.max(1, properties.getDbThreads());
+        this.dbExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, properties.getDbQueueCapacity())),
+                new NamedThreadFactory("cache-async-db-", true), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 按前缀当前生效的策略查询：逻辑过期类的策略走逻辑过期，其余走缓存空对象。
+     * 互斥锁策略需要阻塞等待重建结果，没有异步版本，同样按缓存空对象处理（两者的缓存格式相同）
+     *
+     * @param declared 前缀的策略，运行时有覆盖时以覆盖为准
+     */
+    public <R, ID> CompletableFuture<R> query(String keyPrefix, CacheStrategy declared, ID id, Class<R> type,
+                                              Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        CacheStrategy strategy = strategyRegistry.resolve(keyPrefix, declared);
+        if (strategy.isLogical()) {
+            return queryWithLogicalExpire(keyPrefix, id, type, dbFallback, time, unit,
+                    strategy == CacheStrategy.EARLY_REFRESH);
+        }
+        return queryWithPassThrough(keyPrefix, id, type, dbFallback, time, unit);
+    }
+
+    /**
+     * 缓存空对象解决缓存穿透，对应 {@link CacheClient#queryWithPassThrough}
+     */
+    public <R, ID> CompletableFuture<R> queryWithPassThrough(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        CacheStrategy strategy = CacheStrategy.PASS_THROUGH;
+        // 0.布隆过滤器判定一定不存在的id，直接返回
+        if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+            metrics.bloomReject(keyPrefix, strategy);
+            return CompletableFuture.completedFuture(null);
+        }
+        String key = cacheClient.key(keyPrefix, id);
+        // 0.1.再查本地缓存（热点key的本地副本）
+        boolean useLocal = localCache.isEnabled(keyPrefix);
+        R local = cacheClient.getLocal(key, type, useLocal);
+        if (local != null) {
+            metrics.localHit(keyPrefix, strategy);
+            return CompletableFuture.completedFuture(local);
+        }
+        // 1.异步查询redis
+        hotKeyDetector.record(key);
+        return commands.get(key).toCompletableFuture().thenCompose(raw -> {
+            if (raw != null && raw.length > 0) {
+                // 2.命中，回填本地缓存后返回
+                metrics.hit(keyPrefix, strategy);
+                R r = serializer.deserialize(raw, type);
+                cacheClient.putLocal(key, r, useLocal);
+                return CompletableFuture.completedFuture(r);
+            }
+            if (raw != null) {
+                // 命中空值
+                metrics.nullHit(keyPrefix, strategy);
+                return CompletableFuture.completedFuture(null);
+            }
+            // 3.未命中，在数据库线程池中查询，再异步写回
+            metrics.miss(keyPrefix, strategy, 1);
+            return load(keyPrefix, strategy, key, id, dbFallback).thenCompose(r -> {
+                if (r == null) {
+                    return setNull(key).thenApply(ok -> null);
+                }
+                cacheClient.putLocal(key, r, useLocal);
+                long seconds = ttlPolicy.ttlSeconds(key, unit.toSeconds(time));
+                return commands.setex(key, seconds, serializer.serialize(r)).toCompletableFuture().thenApply(ok -> r);
+            });
+        });
+    }
+
+    /**
+     * 逻辑过期解决缓存击穿，对应 {@link CacheClient#queryWithLogicalExpire}；缓存不存在时同步查库写入
+     *
+     * @param earlyRefresh 是否按重建耗时提前刷新
+     */
+    public <R, ID> CompletableFuture<R> queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type,
+                                                               Function<ID, R> dbFallback, Long time, TimeUnit unit,
+                                                               boolean earlyRefresh) {
+        CacheStrategy strategy = earlyRefresh ? CacheStrategy.EARLY_REFRESH : CacheStrategy.LOGICAL_EXPIRE;
+        if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+            metrics.bloomReject(keyPrefix, strategy);
+            return CompletableFuture.completedFuture(null);
+        }
+        String key = cacheClient.key(keyPrefix, id);
+        // 0.热点key先查本地副本
+        R replica = cacheClient.getLocal(key, type, false);
+        if (replica != null) {
+            metrics.localHit(keyPrefix, strategy);
+            return CompletableFuture.completedFuture(replica);
+        }
+        // 1.异步查询redis
+        hotKeyDetector.record(key);
+        return commands.get(key).toCompletableFuture().thenCompose(raw -> {
+            if (raw == null) {
+                // 2.未预热，查库后按逻辑过期格式写入，记录重建耗时供提前刷新使用
+                metrics.miss(keyPrefix, strategy, 1);
+                long begin = System.currentTimeMillis();
+                return load(keyPrefix, strategy, key, id, dbFallback).thenCompose(r -> {
+                    if (r == null) {
+                        return setNull(key).thenApply(ok -> null);
+                    }
+                    long seconds = ttlPolicy.ttlSeconds(key, unit.toSeconds(time));
+                    byte[] value = serializer.serialize(r, LocalDateTime.now().plusSeconds(seconds),
+                            System.currentTimeMillis() - begin);
+                    return commands.setex(key, seconds + logicalRetentionSeconds, value)
+                            .toCompletableFuture().thenApply(ok -> r);
+                });
+            }
+            if (raw.length == 0) {
+                metrics.nullHit(keyPrefix, strategy);
+                return CompletableFuture.completedFuture(null);
+            }
+            // 3.命中，未过期（也无需提前刷新）直接返回
+            metrics.hit(keyPrefix, strategy);
+            RedisData redisData = serializer.deserializeLogical(raw, type);
+            R r = type.cast(redisData.getData());
+            if (!cacheClient.needsRebuild(redisData, earlyRefresh)) {
+                cacheClient.putLocal(key, r, false);
+                return CompletableFuture.completedFuture(r);
+            }
+            if (!redisData.getExpireTime().isAfter(LocalDateTime.now())) {
+                metrics.staleHit(keyPrefix, strategy);
+            }
+            // 4.需要重建，异步抢锁，抢到后交给重建调度器；无论结果如何都先返回旧值
+            String lockKey = LOCK_CACHE_KEY + key;
+            commands.set(lockKey, "1".getBytes(StandardCharsets.UTF_8), SetArgs.Builder.nx().ex(LOCK_CACHE_TTL))
+                    .whenComplete((ok, e) -> {
+                        if (e != null) {
+                            log.error("获取缓存重建锁失败！key: {}", key, e);
+                        } else if ("OK".equals(ok)) {
+                            // 提交时可能同步执行丢弃回调（释放锁会阻塞），不能在IO线程上执行，转到数据库线程池
+                            try {
+                                dbExecutor.execute(() ->
+                                        cacheClient.submitRebuild(keyPrefix, strategy, key, id, dbFallback, time, unit));
+                            } catch (RejectedExecutionException rejected) {
+                                // 线程池已满，放弃本次重建，异步释放锁
+                                commands.del(lockKey);
+                            }
+                        } else {
+                            metrics.lockFailure(keyPrefix, strategy);
+                            rebuildScheduler.touch(key);
+                        }
+                    });
+            return CompletableFuture.completedFuture(r);
+        });
+    }
+
+    //在数据库线程池中执行dbFallback，线程池满时返回失败的future
+    private <R, ID> CompletableFuture<R> load(String keyPrefix, CacheStrategy strategy, String key, ID id,
+                                              Function<ID, R> dbFallback) {
+        try {
+            return CompletableFuture.supplyAsync(
+                    () -> cacheClient.loadFromDb(keyPrefix, strategy, key, id, dbFallback), dbExecutor);
+        } catch (RejectedExecutionException e) {
+            metrics.load(keyPrefix, strategy, key, 0, false);
+            CompletableFuture<R> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    //写入空值标记，防止缓存穿透
+    private CompletableFuture<String> setNull(String key) {
+        long seconds = ttlPolicy.spreadSeconds(key, TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL));
+        return commands.setex(key, seconds, NULL_VALUE).toCompletableFuture();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("dbThreads", dbExecutor.getPoolSize());
+        stats.put("dbActive", dbExecutor.getActiveCount());
+        stats.put("dbQueued", dbExecutor.getQueue().size());
+        stats.put("dbCompleted", dbExecutor.getCompletedTaskCount());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        dbExecutor.shutdown();
+        if (!dbExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+            dbExecutor.shutdownNow();
+        }
+    }
+}
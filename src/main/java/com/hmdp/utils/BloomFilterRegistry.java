@@ -0,0 +1,103 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_ADD_CHANNEL;
+import static com.hmdp.utils.RedisConstants.BLOOM_KEY;
+
+/**
+ * 按key前缀管理布隆过滤器，用于在查询redis和数据库之前拦截一定不存在的id
+ * <p>
+ * 没有配置过滤器的前缀一律放行；某节点新增元素后通过发布订阅同步到其它节点的本地副本
+ */
+@Slf4j
+@Component
+public class BloomFilterRegistry implements MessageListener {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final Map<String, RedisBloomFilter> filters = new ConcurrentHashMap<>();
+
+    public BloomFilterRegistry(CacheProperties cacheProperties, StringRedisTemplate stringRedisTemplate,
+                               RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        CacheProperties.Bloom bloom = cacheProperties.getBloom();
+        if (!bloom.isEnabled()) {
+            return;
+        }
+        for (CacheProperties.BloomFilter filter : bloom.getFilters()) {
+            filters.put(filter.getPrefix(), new RedisBloomFilter(BLOOM_KEY + filter.getPrefix(),
+                    filter.getExpectedInsertions(), filter.getFpp(), bloom.isLocalCopy(), stringRedisTemplate));
+        }
+        listenerContainer.addMessageListener(this, new ChannelTopic(BLOOM_ADD_CHANNEL));
+    }
+
+    public boolean isEnabled(String keyPrefix) {
+        return filters.containsKey(keyPrefix);
+    }
+
+    /**
+     * 返回false表示该id一定不存在
+     */
+    public boolean mightContain(String keyPrefix, Object id) {
+        RedisBloomFilter filter = filters.get(keyPrefix);
+        return filter == null || filter.mightContain(id);
+    }
+
+    /**
+     * 新增数据后登记id，并通知其它节点
+     */
+    public void add(String keyPrefix, Object id) {
+        RedisBloomFilter filter = filters.get(keyPrefix);
+        if (filter == null) {
+            return;
+        }
+        filter.add(id);
+        // 消息格式：前缀 + 换行 + id
+        stringRedisTemplate.convertAndSend(BLOOM_ADD_CHANNEL, keyPrefix + "\n" + id);
+    }
+
+    /**
+     * 全量加载，加载完成后过滤器才开始拦截
+     */
+    public void loadAll(String keyPrefix, Collection<?> ids) {
+        RedisBloomFilter filter = filters.get(keyPrefix);
+        if (filter == null) {
+            return;
+        }
+        filter.loadAll(ids);
+        log.info("布隆过滤器加载完成，前缀：{}，元素个数：{}", keyPrefix, ids.size());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.indexOf('\n');
+        if (index < 0) {
+            return;
+        }
+        RedisBloomFilter filter = filters.get(body.substring(0, index));
+        if (filter != null) {
+            filter.addLocal(body.substring(index + 1));
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        filters.forEach((prefix, filter) -> stats.put(prefix, filter.stats()));
+        return stats;
+    }
+}
@@ -0,0 +1,170 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.Result;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.Ordered;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.core.annotation.Order;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * {@link HmCached} 与 {@link HmCacheEvict} 的切面实现，具体的缓存逻辑交给 {@link CacheClient}
+ * <p>
+ * 优先级高于事务切面（默认 LOWEST_PRECEDENCE），位于事务之外：查询时缓存命中不会开启事务，删除缓存在事务提交之后执行。
+ * 不能设为 HIGHEST_PRECEDENCE，否则会排在暴露调用上下文的拦截器之前，注解参数无法绑定
+ */
+@Aspect
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 100)
+public class CacheAspect {
+
+    private final CacheClient cacheClient;
+
+    private final CacheStrategyRegistry strategyRegistry;
+
+    private final ExpressionParser parser = new SpelExpressionParser();
+
+    private final ParameterNameDiscoverer nameDiscoverer = new DefaultParameterNameDiscoverer();
+
+    //解析后的SpEL，表达式文本 -> 表达式
+    private final Map<String, Expression> expressions = new ConcurrentHashMap<>();
+
+    public CacheAspect(CacheClient cacheClient, CacheStrategyRegistry strategyRegistry) {
+        this.cacheClient = cacheClient;
+        this.strategyRegistry = strategyRegistry;
+    }
+
+    @Around("@annotation(cached)")
+    public Object cached(ProceedingJoinPoint joinPoint, HmCached cached) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        // 1.确定缓存的数据类型，列表以数组形式缓存
+        boolean wrapped = Result.class.equals(method.getReturnType());
+        boolean collection = cached.collection()
+                || (!wrapped && List.class.isAssignableFrom(method.getReturnType()));
+        Class<?> elementType = cached.type() != Void.class ? cached.type() : method.getReturnType();
+        if (elementType == Result.class || (collection && List.class.isAssignableFrom(elementType))) {
+            throw new IllegalStateException("@HmCached 需要指定缓存的数据类型：" + method);
+        }
+        Class<?> type = collection ? Array.newInstance(elementType, 0).getClass() : elementType;
+        // 2.计算key
+        Object id = evaluateKey(joinPoint, method, cached.key());
+        CacheStrategy strategy = strategyRegistry.resolve(cached.prefix(), cached.strategy());
+        // 3.交给CacheClient查询，未命中时执行原方法
+        Object value;
+        try {
+            value = query(strategy, cached, id, type, ignored -> load(joinPoint, wrapped, elementType));
+        } catch (UncachedResult e) {
+            // 原方法返回了失败结果，原样返回
+            return e.result;
+        } catch (UndeclaredThrowableException e) {
+            throw e.getUndeclaredThrowable();
+        }
+        // 4.还原为方法的返回类型，列表每次复制一份，避免修改共享的本地缓存
+        if (collection && value != null) {
+            value = new ArrayList<>(Arrays.asList((Object[]) value));
+        }
+        if (!wrapped) {
+            return value;
+        }
+        if (value == null) {
+            return cached.nullMessage().isEmpty() ? Result.ok() : Result.fail(cached.nullMessage());
+        }
+        return Result.ok(value);
+    }
+
+    @AfterReturning(pointcut = "@annotation(evict)", returning = "result")
+    public void evict(JoinPoint joinPoint, HmCacheEvict evict, Object result) {
+        if (result instanceof Result && !Boolean.TRUE.equals(((Result) result).getSuccess())) {
+            return;
+        }
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        Object id = evaluateKey(joinPoint, method, evict.key());
+        if (id != null) {
+            cacheClient.delete(evict.prefix(), id);
+        }
+    }
+
+    private <R> R query(CacheStrategy strategy, HmCached cached, Object id, Class<R> type,
+                        Function<Object, Object> loader) {
+        Function<Object, R> dbFallback = key -> type.cast(loader.apply(key));
+        String prefix = cached.prefix();
+        Long ttl = cached.ttl();
+        switch (strategy) {
+            case MUTEX:
+                return cacheClient.queryWithMutex(prefix, id, type, dbFallback, ttl, cached.unit());
+            case LOGICAL_EXPIRE:
+                return cacheClient.queryWithLogicalExpire(prefix, id, type, dbFallback, ttl, cached.unit(), false, true);
+            case EARLY_REFRESH:
+                return cacheClient.queryWithLogicalExpire(prefix, id, type, dbFallback, ttl, cached.unit(), true, true);
+            default:
+                return cacheClient.queryWithPassThrough(prefix, id, type, dbFallback, ttl, cached.unit());
+        }
+    }
+
+    /**
+     * 执行原方法，取出需要缓存的数据
+     */
+    private Object load(ProceedingJoinPoint joinPoint, boolean wrapped, Class<?> elementType) {
+        Object value;
+        try {
+            value = joinPoint.proceed();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new UndeclaredThrowableException(e);
+        }
+        if (wrapped) {
+            Result result = (Result) value;
+            if (result == null || !Boolean.TRUE.equals(result.getSuccess())) {
+                throw new UncachedResult(result);
+            }
+            value = result.getData();
+        }
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            return list.toArray((Object[]) Array.newInstance(elementType, list.size()));
+        }
+        return value;
+    }
+
+    private Object evaluateKey(JoinPoint joinPoint, Method method, String key) {
+        Object[] args = joinPoint.getArgs();
+        if (key.isEmpty()) {
+            return args.length > 0 ? args[0] : null;
+        }
+        Expression expression = expressions.computeIfAbsent(key, parser::parseExpression);
+        return expression.getValue(new MethodBasedEvaluationContext(null, method, args, nameDiscoverer));
+    }
+
+    /**
+     * 原方法返回失败结果时抛出，跳过缓存写入
+     */
+    private static class UncachedResult extends RuntimeException {
+        private final Result result;
+
+        private UncachedResult(Result result) {
+            super(null, null, false, false);
+            this.result = result;
+        }
+    }
+}
@@ -1,20 +1,32 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
-import com.hmdp.dto.Result;
-import com.hmdp.entity.Shop;
+import com.hmdp.config.CacheProperties;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -24,27 +36,147 @@ public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    //创建一个固定大小的线程池，主要用于缓存重建等后台任务
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private final LocalCache localCache;
+
+    private final BloomFilterRegistry bloomFilterRegistry;
+
+    private final CacheRebuildNotifier rebuildNotifier;
+
+    private final CacheSerializer serializer;
+
+    //提前刷新系数，越大越早刷新
+    private final double earlyRefreshBeta;
+
+    //空值标记，用于缓存穿透
+    private static final byte[] NULL_VALUE = new byte[0];
+
+    //本节点正在进行的缓存重建，key -> 重建结果
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlightLoads = new ConcurrentHashMap<>();
+
+    //没抢到锁时每次等待通知的最长时间
+    private static final long REBUILD_WAIT_MILLIS = 200;
+
+    //按前缀打散过期时间
+    private final CacheTtlPolicy ttlPolicy;
+
+    //按前缀与策略统计的运行指标
+    private final CacheMetrics metrics;
+
+    //后台缓存重建，队列有界、按key去重
+    private final CacheRebuildScheduler rebuildScheduler;
+
+    //热点key探测，热点key在本地保留短期副本
+    private final HotKeyDetector hotKeyDetector;
+
+    //命名空间版本号，key中带上前缀当前的版本
+    private final CacheNamespaces namespaces;
+
+    //逻辑过期的数据在逻辑过期之后保留的秒数
+    private final long logicalRetentionSeconds;
 
     //构造器注入可以避免循环依赖
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    public CacheClient(StringRedisTemplate stringRedisTemplate, LocalCache localCache,
+                       BloomFilterRegistry bloomFilterRegistry, CacheRebuildNotifier rebuildNotifier,
+                       CacheSerializer serializer, CacheTtlPolicy ttlPolicy,
+                       CacheRebuildScheduler rebuildScheduler, CacheMetrics metrics,
+                       HotKeyDetector hotKeyDetector, CacheNamespaces namespaces,
+                       CacheProperties cacheProperties) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.localCache = localCache;
+        this.bloomFilterRegistry = bloomFilterRegistry;
+        this.rebuildNotifier = rebuildNotifier;
+        this.serializer = serializer;
+        this.ttlPolicy = ttlPolicy;
+        this.rebuildScheduler = rebuildScheduler;
+        this.metrics = metrics;
+        this.hotKeyDetector = hotKeyDetector;
+        this.namespaces = namespaces;
+        this.logicalRetentionSeconds = cacheProperties.getNamespace().getLogicalRetention().getSeconds();
+        this.earlyRefreshBeta = cacheProperties.getEarlyRefreshBeta();
     }
 
-    //存储数据到redis，设置过期时间
+    //存储数据到redis，设置过期时间（按前缀的过期策略打散）
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        setRaw(key, serializer.serialize(value), ttlPolicy.ttlSeconds(key, unit.toSeconds(time)));
     }
 
-    //存储数据到redis，不设置过期时间，但是有逻辑过期时间
+    //存储数据到redis，有逻辑过期时间；实际过期时间再延长 logical-retention，长期不访问的数据由redis回收
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
-        // 设置逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        setWithLogicalExpire(key, value, time, unit, 0);
+    }
+
+    //同上，并记录本次重建的耗时（毫秒）
+    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, long rebuildCost) {
+        // 设置逻辑过期（按前缀的过期策略打散），过期时间与重建耗时写在序列化头部
+        long seconds = ttlPolicy.ttlSeconds(key, unit.toSeconds(time));
+        byte[] raw = serializer.serialize(value, LocalDateTime.now().plusSeconds(seconds), rebuildCost);
         // 写入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        setRaw(key, raw, seconds + logicalRetentionSeconds);
+    }
+
+    /**
+     * 管道批量写入缓存，用于预热；过期时间同样按前缀的过期策略打散
+     *
+     * @param values      完整的key -> 缓存值
+     * @param logical     是否按逻辑过期格式写入
+     * @param rebuildCost 查询这批数据的耗时（毫秒），逻辑过期格式写在头部供提前刷新使用
+     */
+    public void setAll(Map<String, ?> values, Long time, TimeUnit unit, boolean logical, long rebuildCost) {
+        long defaultSeconds = unit.toSeconds(time);
+        // 先在管道外完成序列化，缩短占用连接的时间
+        Map<byte[], byte[]> raws = new LinkedHashMap<>(values.size());
+        Map<byte[], Long> ttls = new HashMap<>(values.size());
+        values.forEach((key, value) -> {
+            long seconds = ttlPolicy.ttlSeconds(key, defaultSeconds);
+            byte[] rawKey = rawKey(key);
+            if (logical) {
+                raws.put(rawKey, serializer.serialize(value, LocalDateTime.now().plusSeconds(seconds), rebuildCost));
+                ttls.put(rawKey, seconds + logicalRetentionSeconds);
+            } else {
+                raws.put(rawKey, serializer.serialize(value));
+                ttls.put(rawKey, seconds);
+            }
+        });
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            raws.forEach((rawKey, raw) -> connection.setEx(rawKey, ttls.get(rawKey), raw));
+            return null;
+        });
+    }
+
+    //删除缓存，同时通知所有节点清理本地缓存
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        localCache.broadcastInvalidate(key);
+    }
+
+    //批量删除缓存，各节点的本地缓存通过一条消息清理
+    public void deleteAll(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.delete(keys);
+        localCache.broadcastInvalidate(keys);
+    }
+
+    //删除前缀下某个id当前版本的缓存
+    public void delete(String keyPrefix, Object id) {
+        delete(key(keyPrefix, id));
+    }
+
+    /**
+     * 让前缀下的所有缓存失效：命名空间版本号加一，旧版本的key依靠过期时间回收
+     *
+     * @return 新的版本号
+     */
+    public long invalidateAll(String keyPrefix) {
+        return namespaces.bump(keyPrefix);
+    }
+
+    /**
+     * 前缀下某个id当前版本的实际key
+     */
+    public String key(String keyPrefix, Object id) {
+        return namespaces.prefix(keyPrefix) + id;
     }
 
     //---------------------------------------------------------------------------------------------------------------------
@@ -54,81 +186,176 @@ public class CacheClient {
      */
     public <R, ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
-        String key = keyPrefix + id;
+        CacheStrategy strategy = CacheStrategy.PASS_THROUGH;
+        // 0.布隆过滤器判定一定不存在的id，直接返回，不访问redis和数据库
+        if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+            metrics.bloomReject(keyPrefix, strategy);
+            return null;
+        }
+        String key = key(keyPrefix, id);
+        // 0.1.再查本地缓存（热点key的本地副本）
+        boolean useLocal = localCache.isEnabled(keyPrefix);
+        R local = getLocal(key, type, useLocal);
+        if (local != null) {
+            metrics.localHit(keyPrefix, strategy);
+            return local;
+        }
         // 1.从redis查询缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] raw = getRaw(key);
         // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(json, type);
+        if (raw != null && raw.length > 0) {
+            // 3.存在，回填本地缓存后返回
+            metrics.hit(keyPrefix, strategy);
+            R r = serializer.deserialize(raw, type);
+            putLocal(key, r, useLocal);
+            return r;
         }
         // 判断命中的是否是空值
-        if (json != null) {
+        if (raw != null) {
             // 返回一个错误信息
+            metrics.nullHit(keyPrefix, strategy);
             return null;
         }
 
         // 4.不存在，根据id查询数据库
-        R r = dbFallback.apply(id);
+        metrics.miss(keyPrefix, strategy, 1);
+        R r = loadFromDb(keyPrefix, strategy, key, id, dbFallback);
         // 5.不存在，返回错误（缓存空对象）
         if (r == null) {
             // 将空值写入redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            setNull(key);
             // 返回错误信息
             return null;
         }
         // 6.存在，写入redis
         this.set(key, r, time, unit);
+        putLocal(key, r, useLocal);
         return r;
     }
 
     /**
      * 互斥锁解决缓存击穿
+     * <p>
+     * 同一节点内对同一个key的并发未命中合并为一次重建（single-flight），只有一个线程去竞争分布式锁；
+     * 没抢到锁时等待重建完成的通知，而不是休眠后递归重试
      */
     public <R, ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
-        String key = keyPrefix + id;
+        CacheStrategy strategy = CacheStrategy.MUTEX;
+        if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+            metrics.bloomReject(keyPrefix, strategy);
+            return null;
+        }
+        String key = key(keyPrefix, id);
+        boolean useLocal = localCache.isEnabled(keyPrefix);
+        R local = getLocal(key, type, useLocal);
+        if (local != null) {
+            metrics.localHit(keyPrefix, strategy);
+            return local;
+        }
         //1.先从redis查询缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] raw = getRaw(key);
         //2.判断是否命中
-        if (StrUtil.isNotBlank(json)) {
+        if (raw != null && raw.length > 0) {
             //3.命中，直接返回
-            return JSONUtil.toBean(json, type);
+            metrics.hit(keyPrefix, strategy);
+            R r = serializer.deserialize(raw, type);
+            putLocal(key, r, useLocal);
+            return r;
         }
 
         //判断命中的值是否是空值
-        if (json != null) {
+        if (raw != null) {
             //返回一个错误信息
+            metrics.nullHit(keyPrefix, strategy);
             return null;
         }
+        metrics.miss(keyPrefix, strategy, 1);
 
         //4.不存在，实现缓存重构
-        //4.1获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
+        //4.1同一节点只允许一个线程重建，其余线程共享它的结果
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlightLoads.putIfAbsent(key, flight);
+        if (existing != null) {
+            return type.cast(joinFlight(existing));
+        }
         try {
-            boolean isLock = tryLock(lockKey);
-            //4.2没拿到锁，则休眠重试(递归重试)
-            if (!isLock) {
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
-            }
-            //4.3拿到锁，跟据id查询数据库
-            r = dbFallback.apply(id);
-            //5.不存在，返回错误，同时将控制写入redis（防止缓存穿透？），2分钟有效期
-            if (r == null) {
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                return null;
+            R r = loadWithMutex(key, keyPrefix, id, type, dbFallback, time, unit);
+            if (r != null) {
+                putLocal(key, r, useLocal);
             }
-            //6.将数据写入redis
-            this.set(key, r, time, unit);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            flight.complete(r);
+            return r;
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
         } finally {
-            //7.释放互斥锁
-            unlock(lockKey);
+            inFlightLoads.remove(key, flight);
         }
+    }
 
-        return r;
+    private <R, ID> R loadWithMutex(String key, String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
+                                    Long time, TimeUnit unit) {
+        String lockKey = LOCK_CACHE_KEY + key;
+        //最多等待一个锁的有效期，超过说明持锁方异常，直接查库兜底
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(LOCK_CACHE_TTL);
+        while (true) {
+            //4.2先登记等待再抢锁，避免在两步之间错过重建完成的通知
+            CompletableFuture<Void> rebuilt = rebuildNotifier.await(key);
+            if (tryLock(lockKey)) {
+                rebuildNotifier.cancel(key, rebuilt);
+                try {
+                    //4.3拿到锁后再查一次缓存，可能刚被其它节点重建好
+                    byte[] raw = getRaw(key);
+                    if (raw != null) {
+                        return raw.length > 0 ? serializer.deserialize(raw, type) : null;
+                    }
+                    //4.4跟据id查询数据库
+                    R r = loadFromDb(keyPrefix, CacheStrategy.MUTEX, key, id, dbFallback);
+                    //5.不存在，返回错误，同时将空值写入redis（防止缓存穿透），2分钟有效期
+                    if (r == null) {
+                        setNull(key);
+                        return null;
+                    }
+                    //6.将数据写入redis
+                    this.set(key, r, time, unit);
+                    return r;
+                } finally {
+                    //7.释放互斥锁，并通知等待方
+                    unlock(lockKey);
+                    rebuildNotifier.notifyRebuilt(key);
+                }
+            }
+            //4.5没拿到锁，等待重建完成的通知；通知可能丢失，所以分段等待后都重新查一次缓存
+            metrics.lockFailure(keyPrefix, CacheStrategy.MUTEX);
+            long remaining = deadline - System.currentTimeMillis();
+            try {
+                rebuilt.get(Math.min(remaining, REBUILD_WAIT_MILLIS), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                rebuildNotifier.cancel(key, rebuilt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+            byte[] raw = getRaw(key);
+            if (raw != null) {
+                return raw.length > 0 ? serializer.deserialize(raw, type) : null;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                log.warn("等待缓存重建超时，直接查询数据库，key：{}", key);
+                return loadFromDb(keyPrefix, CacheStrategy.MUTEX, key, id, dbFallback);
+            }
+        }
+    }
+
+    private Object joinFlight(CompletableFuture<Object> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        }
     }
 
     /**
@@ -136,53 +363,385 @@ public class CacheClient {
      */
     public <R, ID> R queryWithLogicalExpire(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
-        String key = keyPrefix + id;
+        return queryWithLogicalExpire(keyPrefix, id, type, dbFallback, time, unit, 0, false);
+    }
+
+    /**
+     * 逻辑过期 + 概率提前刷新（XFetch）
+     * <p>
+     * 每次命中时按 now - 重建耗时 × beta × ln(random) >= 过期时间 判断是否提前重建：
+     * 越接近过期、重建越慢，提前刷新的概率越大，热点key会在过期前被某个请求提前重建，
+     * 各个key的重建时间也因此被随机打散，不会在同一时刻一起抢锁
+     */
+    public <R, ID> R queryWithEarlyRefresh(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        return queryWithLogicalExpire(keyPrefix, id, type, dbFallback, time, unit, earlyRefreshBeta, false);
+    }
+
+    /**
+     * 逻辑过期查询，供没有预热的数据使用
+     *
+     * @param earlyRefresh 是否开启概率提前刷新
+     * @param loadOnMiss   缓存不存在时是否同步查库并写入，数据库中也不存在时写入空值
+     */
+    public <R, ID> R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
+                                            Long time, TimeUnit unit, boolean earlyRefresh, boolean loadOnMiss) {
+        return queryWithLogicalExpire(keyPrefix, id, type, dbFallback, time, unit,
+                earlyRefresh ? earlyRefreshBeta : 0, loadOnMiss);
+    }
+
+    /**
+     * @param beta       提前刷新系数，小于等于0表示只在过期后刷新
+     * @param loadOnMiss 缓存不存在时是否同步查库并写入
+     */
+    private <R, ID> R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
+                                             Long time, TimeUnit unit, double beta, boolean loadOnMiss) {
+        CacheStrategy strategy = beta > 0 ? CacheStrategy.EARLY_REFRESH : CacheStrategy.LOGICAL_EXPIRE;
+        if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+            metrics.bloomReject(keyPrefix, strategy);
+            return null;
+        }
+        String key = key(keyPrefix, id);
+        // 0.热点key先查本地副本
+        R replica = getLocal(key, type, false);
+        if (replica != null) {
+            metrics.localHit(keyPrefix, strategy);
+            return replica;
+        }
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] raw = getRaw(key);
         // 2.判断是否存在
-        if (StrUtil.isBlank(json)) {
-            // 3.存在，直接返回
+        if (raw == null) {
+            metrics.miss(keyPrefix, strategy, 1);
+        } else if (raw.length == 0) {
+            metrics.nullHit(keyPrefix, strategy);
+        } else {
+            metrics.hit(keyPrefix, strategy);
+        }
+        if (raw == null && loadOnMiss) {
+            // 2.1.未预热，同步查库写入，记录重建耗时供提前刷新使用
+            long begin = System.currentTimeMillis();
+            R r = loadFromDb(keyPrefix, strategy, key, id, dbFallback);
+            if (r == null) {
+                setNull(key);
+            } else {
+                this.setWithLogicalExpire(key, r, time, unit, System.currentTimeMillis() - begin);
+            }
+            return r;
+        }
+        if (raw == null || raw.length == 0) {
+            // 3.不存在，直接返回
             return null;
         }
-        // 4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        // 4.命中，反序列化（过期时间在头部，只需解析一次）
+        RedisData redisData = serializer.deserializeLogical(raw, type);
+        R r = type.cast(redisData.getData());
         LocalDateTime expireTime = redisData.getExpireTime();
         // 5.判断是否过期
-        if (expireTime.isAfter(LocalDateTime.now())) {
-            // 5.1.未过期，直接返回店铺信息
+        if (expireTime.isAfter(LocalDateTime.now()) && !shouldRefreshEarly(redisData, beta)) {
+            // 5.1.未过期（也无需提前刷新），直接返回店铺信息
+            putLocal(key, r, false);
             return r;
         }
-        // 6.已过期，缓存重建
+        // 6.已过期（或提前刷新），缓存重建
+        if (!expireTime.isAfter(LocalDateTime.now())) {
+            metrics.staleHit(keyPrefix, strategy);
+        }
         // 6.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
+        String lockKey = LOCK_CACHE_KEY + key;
         boolean isLock = tryLock(lockKey);
         // 6.2.判断是否获取锁成功
         if (isLock) {
-            // 6.3.成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
+            // 6.3.成功，交给重建调度器，任务被丢弃时释放锁
+            submitRebuild(keyPrefix, strategy, key, id, dbFallback, time, unit);
+        } else {
+            // 重建还在排队，记一次读取，提升优先级
+            metrics.lockFailure(keyPrefix, strategy);
+            rebuildScheduler.touch(key);
+        }
+        // 6.4.返回过期的商铺信息
+        return r;
+    }
+
+    /**
+     * 已持有重建锁，把逻辑过期数据的重建交给重建调度器，任务被丢弃时释放锁
+     */
+    <R, ID> void submitRebuild(String keyPrefix, CacheStrategy strategy, String key, ID id,
+                               Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String lockKey = LOCK_CACHE_KEY + key;
+        rebuildScheduler.submit(key, () -> {
+            try {
+                // 查询数据库，记录重建耗时供提前刷新使用
+                long begin = System.currentTimeMillis();
+                R newR = loadFromDb(keyPrefix, strategy, key, id, dbFallback);
+                // 重建缓存
+                this.setWithLogicalExpire(key, newR, time, unit, System.currentTimeMillis() - begin);
+            } finally {
+                // 释放锁
+                unlock(lockKey);
+            }
+        }, () -> unlock(lockKey));
+    }
+
+    /**
+     * 逻辑过期数据是否需要重建：已过期，或开启提前刷新且命中概率
+     */
+    boolean needsRebuild(RedisData redisData, boolean earlyRefresh) {
+        return !redisData.getExpireTime().isAfter(LocalDateTime.now())
+                || shouldRefreshEarly(redisData, earlyRefresh ? earlyRefreshBeta : 0);
+    }
+
+    //XFetch：重建耗时越长、离过期越近，越可能提前刷新
+    private boolean shouldRefreshEarly(RedisData redisData, double beta) {
+        Long rebuildCost = redisData.getRebuildCost();
+        if (beta <= 0 || rebuildCost == null || rebuildCost <= 0) {
+            return false;
+        }
+        long expireMillis = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        double gap = -rebuildCost * beta * Math.log(ThreadLocalRandom.current().nextDouble());
+        return System.currentTimeMillis() + gap >= expireMillis;
+    }
+
+    //---------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 批量查询，缓存空对象解决缓存穿透
+     * <p>
+     * 一次 MGET 取出所有缓存，只把未命中的id交给数据库批量查询一次，再用管道一次性回写（不存在的写空值）
+     *
+     * @param dbBatchFallback 根据一批id查询数据库
+     * @param idGetter        从查询结果中取出id，用于和请求的id对应
+     * @return id -> 数据，按请求id的顺序排列，不存在的id不在结果中
+     */
+    public <R, ID> Map<ID, R> queryBatchWithPassThrough(
+            String keyPrefix, Collection<ID> ids, Class<R> type, Function<Collection<ID>, List<R>> dbBatchFallback,
+            Function<R, ID> idGetter, Long time, TimeUnit unit) {
+        Map<ID, R> result = new LinkedHashMap<>();
+        String versionedPrefix = namespaces.prefix(keyPrefix);
+        boolean useLocal = localCache.isEnabled(keyPrefix);
+        // 1.布隆过滤器与本地缓存
+        List<ID> remoteIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+                metrics.bloomReject(keyPrefix, CacheStrategy.PASS_THROUGH);
+                continue;
+            }
+            R local = useLocal ? localCache.get(versionedPrefix + id, type) : null;
+            if (local != null) {
+                metrics.localHit(keyPrefix, CacheStrategy.PASS_THROUGH);
+                result.put(id, local);
+            } else {
+                remoteIds.add(id);
+            }
+        }
+        if (remoteIds.isEmpty()) {
+            return sortByIds(ids, result);
+        }
+        // 2.MGET 一次取出剩余的缓存
+        List<String> keys = remoteIds.stream().map(id -> versionedPrefix + id).collect(Collectors.toList());
+        List<byte[]> raws = multiGetRaw(keys);
+        List<ID> missIds = new ArrayList<>();
+        for (int i = 0; i < remoteIds.size(); i++) {
+            byte[] raw = raws.get(i);
+            if (raw == null) {
+                missIds.add(remoteIds.get(i));
+            } else if (raw.length == 0) {
+                metrics.nullHit(keyPrefix, CacheStrategy.PASS_THROUGH);
+            } else {
+                metrics.hit(keyPrefix, CacheStrategy.PASS_THROUGH);
+                R r = serializer.deserialize(raw, type);
+                result.put(remoteIds.get(i), r);
+                if (useLocal) {
+                    localCache.put(keys.get(i), r);
+                }
+            }
+            // 命中空值：确定不存在，不放入结果
+        }
+        if (missIds.isEmpty()) {
+            return sortByIds(ids, result);
+        }
+        // 3.未命中的id一次性查数据库
+        metrics.miss(keyPrefix, CacheStrategy.PASS_THROUGH, missIds.size());
+        Map<ID, R> loaded = new HashMap<>();
+        for (R r : loadBatchFromDb(keyPrefix, CacheStrategy.PASS_THROUGH, missIds, dbBatchFallback)) {
+            loaded.put(idGetter.apply(r), r);
+        }
+        // 4.管道回写，数据库中也不存在的写空值
+        long ttlSeconds = unit.toSeconds(time);
+        long nullSeconds = TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : missIds) {
+                R r = loaded.get(id);
+                String key = versionedPrefix + id;
+                byte[] value = r == null ? NULL_VALUE : serializer.serialize(r);
+                long seconds = r == null ? ttlPolicy.spreadSeconds(key, nullSeconds) : ttlPolicy.ttlSeconds(key, ttlSeconds);
+                connection.setEx(rawKey(key), seconds, value);
+            }
+            return null;
+        });
+        loaded.forEach((id, r) -> {
+            result.put(id, r);
+            if (useLocal) {
+                localCache.put(versionedPrefix + id, r);
+            }
+        });
+        return sortByIds(ids, result);
+    }
+
+    /**
+     * 批量查询，利用逻辑过期时间解决缓存击穿
+     * <p>
+     * 与单个查询一致：缓存不存在的id视为不存在（需要预热），已过期的数据先返回旧值，
+     * 抢到锁的过期id合并为一次数据库批量查询，在后台重建
+     */
+    public <R, ID> Map<ID, R> queryBatchWithLogicalExpire(
+            String keyPrefix, Collection<ID> ids, Class<R> type, Function<Collection<ID>, List<R>> dbBatchFallback,
+            Function<R, ID> idGetter, Long time, TimeUnit unit) {
+        Map<ID, R> result = new LinkedHashMap<>();
+        CacheStrategy strategy = CacheStrategy.LOGICAL_EXPIRE;
+        String versionedPrefix = namespaces.prefix(keyPrefix);
+        List<ID> queryIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (bloomFilterRegistry.mightContain(keyPrefix, id)) {
+                queryIds.add(id);
+            } else {
+                metrics.bloomReject(keyPrefix, strategy);
+            }
+        }
+        if (queryIds.isEmpty()) {
+            return result;
+        }
+        // 1.MGET 一次取出所有缓存
+        List<byte[]> raws = multiGetRaw(queryIds.stream().map(id -> versionedPrefix + id).collect(Collectors.toList()));
+        List<ID> expiredIds = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < queryIds.size(); i++) {
+            byte[] raw = raws.get(i);
+            if (raw == null) {
+                metrics.miss(keyPrefix, strategy, 1);
+                continue;
+            }
+            if (raw.length == 0) {
+                metrics.nullHit(keyPrefix, strategy);
+                continue;
+            }
+            metrics.hit(keyPrefix, strategy);
+            RedisData redisData = serializer.deserializeLogical(raw, type);
+            result.put(queryIds.get(i), type.cast(redisData.getData()));
+            // 2.过期且抢到锁的id交给后台重建
+            if (!redisData.getExpireTime().isAfter(now)) {
+                metrics.staleHit(keyPrefix, strategy);
+                if (tryLock(LOCK_CACHE_KEY + versionedPrefix + queryIds.get(i))) {
+                    expiredIds.add(queryIds.get(i));
+                } else {
+                    metrics.lockFailure(keyPrefix, strategy);
+                }
+            }
+        }
+        if (!expiredIds.isEmpty()) {
+            Runnable unlockAll = () -> expiredIds.forEach(id -> unlock(LOCK_CACHE_KEY + versionedPrefix + id));
+            rebuildScheduler.submit(versionedPrefix + expiredIds, () -> {
                 try {
-                    // 查询数据库
-                    R newR = dbFallback.apply(id);
-                    // 重建缓存
-                    this.setWithLogicalExpire(key, newR, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
+                    // 每个key记录整批查询的耗时
+                    long begin = System.currentTimeMillis();
+                    List<R> list = loadBatchFromDb(keyPrefix, strategy, expiredIds, dbBatchFallback);
+                    long cost = System.currentTimeMillis() - begin;
+                    for (R r : list) {
+                        this.setWithLogicalExpire(versionedPrefix + idGetter.apply(r), r, time, unit, cost);
+                    }
                 } finally {
-                    // 释放锁
-                    unlock(lockKey);
+                    unlockAll.run();
                 }
-            });
+            }, unlockAll);
         }
-        // 6.4.返回过期的商铺信息
-        return r;
+        // 3.过期的数据先返回旧值
+        return result;
+    }
+
+    //按请求id的顺序整理结果
+    private <R, ID> Map<ID, R> sortByIds(Collection<ID> ids, Map<ID, R> found) {
+        Map<ID, R> sorted = new LinkedHashMap<>(found.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                sorted.put(id, r);
+            }
+        }
+        return sorted;
+    }
+
+    //查询数据库并记录回源耗时
+    <R, ID> R loadFromDb(String keyPrefix, CacheStrategy strategy, String key, ID id, Function<ID, R> dbFallback) {
+        long begin = System.nanoTime();
+        boolean success = false;
+        try {
+            R r = dbFallback.apply(id);
+            success = true;
+            return r;
+        } finally {
+            metrics.load(keyPrefix, strategy, key, System.nanoTime() - begin, success);
+        }
+    }
+
+    //批量查询数据库并记录回源耗时
+    private <R, ID> List<R> loadBatchFromDb(String keyPrefix, CacheStrategy strategy, List<ID> ids,
+                                           Function<Collection<ID>, List<R>> dbBatchFallback) {
+        long begin = System.nanoTime();
+        boolean success = false;
+        try {
+            List<R> list = dbBatchFallback.apply(ids);
+            success = true;
+            return list;
+        } finally {
+            metrics.load(keyPrefix, strategy, keyPrefix + "[批量" + ids.size() + "个]", System.nanoTime() - begin, success);
+        }
+    }
+
+    //本地缓存：开启了本地缓存的前缀，或者被识别为热点的key
+    <R> R getLocal(String key, Class<R> type, boolean useLocal) {
+        return useLocal || hotKeyDetector.isHot(key) ? localCache.get(key, type) : null;
+    }
+
+    //热点key只在本地保留短期副本，各节点最多读到 replica-ttl 之前的数据
+    void putLocal(String key, Object value, boolean useLocal) {
+        if (useLocal) {
+            localCache.put(key, value);
+        } else if (hotKeyDetector.isHot(key)) {
+            localCache.put(key, value, hotKeyDetector.getReplicaTtlMillis());
+        }
+    }
+
+    private static byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    //以字节读取，交给序列化器识别格式
+    private byte[] getRaw(String key) {
+        hotKeyDetector.record(key);
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey(key)));
+    }
+
+    private List<byte[]> multiGetRaw(List<String> keys) {
+        keys.forEach(hotKeyDetector::record);
+        byte[][] rawKeys = keys.stream().map(CacheClient::rawKey).toArray(byte[][]::new);
+        List<byte[]> raws = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+        return raws == null ? Collections.nCopies(keys.size(), null) : raws;
+    }
+
+    private void setRaw(String key, byte[] value, long seconds) {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.setEx(rawKey(key), seconds, value));
+    }
+
+    //写入空值标记，防止缓存穿透
+    private void setNull(String key) {
+        setRaw(key, NULL_VALUE, ttlPolicy.spreadSeconds(key, TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL)));
     }
 
     //---------------------------------------------------------------------------------------------------------------------
 
     private boolean tryLock(String key) {
         //如果键不存在则新增,存在则不改变已经有的值。同时，缓存命中返回 false，不命中返回 true。
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
+        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_CACHE_TTL, TimeUnit.SECONDS);
         //防止拆箱
         return BooleanUtil.isTrue(flag);
     }
@@ -0,0 +1,24 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值的编码格式（SPI）
+ * <p>
+ * 实现类注册为Spring Bean即可被 {@link CacheSerializer} 识别，
+ * 编码格式的id写在缓存值的头部，读取时按id选择解码器，因此不同格式的key可以共存
+ */
+public interface CacheCodec {
+
+    /**
+     * 格式id，写入头部，不能重复且发布后不能修改
+     */
+    byte id();
+
+    /**
+     * 格式名称，对应配置 hmdp.cache.codec.format
+     */
+    String name();
+
+    byte[] encode(Object value);
+
+    <T> T decode(byte[] bytes, int offset, int length, Class<T> type);
+}
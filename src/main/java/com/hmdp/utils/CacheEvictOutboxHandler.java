@@ -0,0 +1,38 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 发件箱事件：删除缓存，一批事件合并为一次DEL和一条本地缓存失效消息
+ */
+@Component
+public class CacheEvictOutboxHandler implements OutboxHandler {
+
+    public static final String TYPE = "cache.evict";
+
+    private final CacheClient cacheClient;
+
+    public CacheEvictOutboxHandler(CacheClient cacheClient) {
+        this.cacheClient = cacheClient;
+    }
+
+    @Override
+    public String type() {
+        return TYPE;
+    }
+
+    @Override
+    public void handle(List<JSONObject> payloads) {
+        // 删除命名空间当前版本的key，同一个key只删一次
+        Set<String> keys = new LinkedHashSet<>();
+        for (JSONObject payload : payloads) {
+            keys.add(cacheClient.key(payload.getStr("prefix"), payload.getStr("id")));
+        }
+        cacheClient.deleteAll(keys);
+    }
+}
@@ -0,0 +1,298 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link CacheClient} 的运行指标，按key前缀与缓存策略分组
+ * <ul>
+ *     <li>计数：本地命中、redis命中、空值命中、未命中、布隆过滤器拦截、抢锁失败、返回过期旧值</li>
+ *     <li>回源耗时：dbFallback 的耗时直方图与失败次数</li>
+ *     <li>慢重建：超过阈值的回源记录在固定大小的环形缓冲区中</li>
+ * </ul>
+ * 命中类计数位于热路径，可配置采样率，按 1/采样率 的权重累加；查找分组不拼接字符串，热路径不分配对象
+ */
+@Component
+public class CacheMetrics {
+
+    //回源耗时直方图的桶上界（毫秒），最后一个桶为无穷大
+    private static final long[] BUCKET_BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    private static final CacheStrategy[] STRATEGIES = CacheStrategy.values();
+
+    private final boolean enabled;
+
+    private final double sampleRate;
+
+    //采样后每次累加的权重
+    private final long sampleWeight;
+
+    private final long slowThresholdNanos;
+
+    //前缀 -> 各策略的指标，数组下标为策略的ordinal
+    private final ConcurrentHashMap<String, PrefixMetrics[]> metrics = new ConcurrentHashMap<>();
+
+    //慢重建环形缓冲区
+    private final AtomicReferenceArray<SlowRebuild> slowRebuilds;
+
+    private final AtomicLong slowIndex = new AtomicLong();
+
+    public CacheMetrics(CacheProperties cacheProperties) {
+        CacheProperties.Metrics properties = cacheProperties.getMetrics();
+        this.enabled = properties.isEnabled();
+        this.sampleRate = Math.min(1D, Math.max(properties.getSampleRate(), 0.0001));
+        this.sampleWeight = Math.round(1 / sampleRate);
+        this.slowThresholdNanos = properties.getSlowThreshold().toNanos();
+        this.slowRebuilds = new AtomicReferenceArray<>(Math.max(1, properties.getSlowBufferSize()));
+    }
+
+    public void localHit(String keyPrefix, CacheStrategy strategy) {
+        if (sampled()) {
+            of(keyPrefix, strategy).localHits.add(sampleWeight);
+        }
+    }
+
+    public void hit(String keyPrefix, CacheStrategy strategy) {
+        if (sampled()) {
+            of(keyPrefix, strategy).hits.add(sampleWeight);
+        }
+    }
+
+    public void nullHit(String keyPrefix, CacheStrategy strategy) {
+        if (sampled()) {
+            of(keyPrefix, strategy).nullHits.add(sampleWeight);
+        }
+    }
+
+    public void bloomReject(String keyPrefix, CacheStrategy strategy) {
+        if (sampled()) {
+            of(keyPrefix, strategy).bloomRejects.add(sampleWeight);
+        }
+    }
+
+    /**
+     * 逻辑过期命中但已过期，返回了旧值
+     */
+    public void staleHit(String keyPrefix, CacheStrategy strategy) {
+        if (sampled()) {
+            of(keyPrefix, strategy).staleHits.add(sampleWeight);
+        }
+    }
+
+    //以下为未命中路径，本身就要访问数据库，不采样
+
+    public void miss(String keyPrefix, CacheStrategy strategy, int count) {
+        if (enabled) {
+            of(keyPrefix, strategy).misses.add(count);
+        }
+    }
+
+    public void lockFailure(String keyPrefix, CacheStrategy strategy) {
+        if (enabled) {
+            of(keyPrefix, strategy).lockFailures.increment();
+        }
+    }
+
+    /**
+     * 记录一次回源
+     *
+     * @param key 缓存key，批量回源时为描述信息
+     */
+    public void load(String keyPrefix, CacheStrategy strategy, String key, long nanos, boolean success) {
+        if (!enabled) {
+            return;
+        }
+        PrefixMetrics m = of(keyPrefix, strategy);
+        if (!success) {
+            m.loadErrors.increment();
+        }
+        long millis = nanos / 1_000_000;
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS.length && millis >= BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        m.loadHistogram.incrementAndGet(bucket);
+        m.loadNanos.add(nanos);
+        m.maxLoadNanos.accumulateAndGet(nanos, Math::max);
+        if (nanos >= slowThresholdNanos) {
+            int index = (int) (slowIndex.getAndIncrement() % slowRebuilds.length());
+            slowRebuilds.set(index, new SlowRebuild(key, strategy, millis, success, System.currentTimeMillis()));
+        }
+    }
+
+    private boolean sampled() {
+        return enabled && (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+
+    private PrefixMetrics of(String keyPrefix, CacheStrategy strategy) {
+        PrefixMetrics[] byStrategy = metrics.get(keyPrefix);
+        if (byStrategy == null) {
+            byStrategy = metrics.computeIfAbsent(keyPrefix, k -> {
+                PrefixMetrics[] array = new PrefixMetrics[STRATEGIES.length];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = new PrefixMetrics();
+                }
+                return array;
+            });
+        }
+        return byStrategy[strategy.ordinal()];
+    }
+
+    public void reset() {
+        metrics.clear();
+        for (int i = 0; i < slowRebuilds.length(); i++) {
+            slowRebuilds.set(i, null);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> prefixes = new LinkedHashMap<>();
+        metrics.forEach((prefix, byStrategy) -> {
+            Map<String, Object> strategies = new LinkedHashMap<>();
+            for (CacheStrategy strategy : STRATEGIES) {
+                PrefixMetrics m = byStrategy[strategy.ordinal()];
+                if (!m.isEmpty()) {
+                    strategies.put(strategy.name(), m.snapshot());
+                }
+            }
+            prefixes.put(prefix, strategies);
+        });
+        List<SlowRebuild> slow = new ArrayList<>();
+        for (int i = 0; i < slowRebuilds.length(); i++) {
+            SlowRebuild rebuild = slowRebuilds.get(i);
+            if (rebuild != null) {
+                slow.add(rebuild);
+            }
+        }
+        slow.sort(Comparator.comparingLong((SlowRebuild r) -> r.millis).reversed());
+        List<Map<String, Object>> slowList = new ArrayList<>(slow.size());
+        for (SlowRebuild rebuild : slow) {
+            slowList.add(rebuild.toMap());
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("sampleRate", sampleRate);
+        stats.put("prefixes", prefixes);
+        stats.put("slowRebuilds", slowList);
+        return stats;
+    }
+
+    private static class PrefixMetrics {
+        private final LongAdder localHits = new LongAdder();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder nullHits = new LongAdder();
+        private final LongAdder staleHits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder bloomRejects = new LongAdder();
+        private final LongAdder lockFailures = new LongAdder();
+        private final LongAdder loadErrors = new LongAdder();
+        private final LongAdder loadNanos = new LongAdder();
+        private final AtomicLong maxLoadNanos = new AtomicLong();
+        private final AtomicLongArray loadHistogram = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+
+        private boolean isEmpty() {
+            return localHits.sum() + hits.sum() + nullHits.sum() + staleHits.sum() + misses.sum() + bloomRejects.sum() == 0;
+        }
+
+        private Map<String, Object> snapshot() {
+            long local = localHits.sum();
+            long hit = hits.sum();
+            long nullHit = nullHits.sum();
+            long miss = misses.sum();
+            long requests = local + hit + nullHit + miss + bloomRejects.sum();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("requests", requests);
+            map.put("localHits", local);
+            map.put("hits", hit);
+            map.put("nullHits", nullHit);
+            map.put("staleHits", staleHits.sum());
+            map.put("misses", miss);
+            map.put("bloomRejects", bloomRejects.sum());
+            map.put("lockFailures", lockFailures.sum());
+            // 命中率：本地命中、redis命中、空值命中都算命中
+            map.put("hitRatio", requests == 0 ? 0D : (double) (local + hit + nullHit) / requests);
+            map.put("nullHitRatio", requests == 0 ? 0D : (double) nullHit / requests);
+            map.put("load", loadSnapshot());
+            return map;
+        }
+
+        private Map<String, Object> loadSnapshot() {
+            long[] counts = new long[loadHistogram.length()];
+            long count = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = loadHistogram.get(i);
+                count += counts[i];
+            }
+            Map<String, Long> histogram = new LinkedHashMap<>();
+            for (int i = 0; i < counts.length; i++) {
+                histogram.put(i < BUCKET_BOUNDS.length ? "<" + BUCKET_BOUNDS[i] + "ms" : ">=" + BUCKET_BOUNDS[i - 1] + "ms", counts[i]);
+            }
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("count", count);
+            map.put("errors", loadErrors.sum());
+            map.put("avgMillis", count == 0 ? 0D : loadNanos.sum() / 1_000_000D / count);
+            map.put("p50Millis", percentile(counts, count, 0.5));
+            map.put("p99Millis", percentile(counts, count, 0.99));
+            map.put("maxMillis", maxLoadNanos.get() / 1_000_000D);
+            map.put("histogram", histogram);
+            return map;
+        }
+
+        /**
+         * 按直方图估算分位数，返回所在桶的上界；落在最后一个桶时返回-1表示超出统计范围
+         */
+        private static long percentile(long[] counts, long total, double p) {
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(total * p);
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                if (cumulative >= target) {
+                    return i < BUCKET_BOUNDS.length ? BUCKET_BOUNDS[i] : -1;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static class SlowRebuild {
+        private final String key;
+        private final CacheStrategy strategy;
+        private final long millis;
+        private final boolean success;
+        private final long time;
+
+        private SlowRebuild(String key, CacheStrategy strategy, long millis, boolean success, long time) {
+            this.key = key;
+            this.strategy = strategy;
+            this.millis = millis;
+            this.success = success;
+            this.time = time;
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("key", key);
+            map.put("strategy", strategy);
+            map.put("millis", millis);
+            map.put("success", success);
+            map.put("time", Instant.ofEpochMilli(time).toString());
+            return map;
+        }
+    }
+}
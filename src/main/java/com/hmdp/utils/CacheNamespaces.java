@@ -0,0 +1,213 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.hmdp.utils.RedisConstants.CACHE_NS_BUILDING_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_NS_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_NS_KEY;
+
+/**
+ * 缓存命名空间的版本号：实际的key中带上命名空间当前的版本，版本号加一即让整个命名空间失效，
+ * 不需要 SCAN+DEL；旧版本的key不再被访问，依靠过期时间自然回收
+ * <p>
+ * 版本号保存在redis（cache:ns:{命名空间}），各节点缓存在本地，修改后通过发布订阅通知所有节点重新加载；
+ * 本地版本号超过 refresh-interval 也会重新加载，兜底通知丢失的情况。
+ * 版本号为0时key与没有命名空间时完全一致
+ */
+@Slf4j
+@Component
+public class CacheNamespaces implements MessageListener {
+
+    private static final DefaultRedisScript<Long> BUILD_SCRIPT;
+    private static final DefaultRedisScript<Long> SWITCH_SCRIPT;
+    static {
+        BUILD_SCRIPT = new DefaultRedisScript<>();
+        BUILD_SCRIPT.setLocation(new ClassPathResource("cache_ns_build.lua"));
+        BUILD_SCRIPT.setResultType(Long.class);
+        SWITCH_SCRIPT = new DefaultRedisScript<>();
+        SWITCH_SCRIPT.setLocation(new ClassPathResource("cache_ns_switch.lua"));
+        SWITCH_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final long refreshMillis;
+
+    private final Duration retireDelay;
+
+    private final Duration rebuildTimeout;
+
+    //命名空间 -> 本地的版本号
+    private final ConcurrentHashMap<String, Version> versions = new ConcurrentHashMap<>();
+
+    public CacheNamespaces(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer,
+                           CacheProperties cacheProperties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.refreshMillis = cacheProperties.getNamespace().getRefreshInterval().toMillis();
+        this.retireDelay = cacheProperties.getNamespace().getRetireDelay();
+        this.rebuildTimeout = cacheProperties.getNamespace().getRebuildTimeout();
+        listenerContainer.addMessageListener(this, new ChannelTopic(CACHE_NS_CHANNEL));
+    }
+
+    /**
+     * key前缀（以冒号结尾）当前版本的实际前缀，如 cache:shop: -> cache:shop:v3:
+     */
+    public String prefix(String keyPrefix) {
+        long version = version(keyPrefix);
+        return version == 0 ? keyPrefix : keyPrefix + "v" + version + ":";
+    }
+
+    /**
+     * 单个key作为命名空间时，当前版本的实际key，如 shop:geo:1 -> shop:geo:1:v3
+     */
+    public String key(String key) {
+        return key(key, version(key));
+    }
+
+    private String key(String key, long version) {
+        return version == 0 ? key : key + ":v" + version;
+    }
+
+    /**
+     * 命名空间当前的版本号
+     */
+    public long version(String namespace) {
+        Version version = versions.get(namespace);
+        if (version == null || System.currentTimeMillis() - version.loadedAt > refreshMillis) {
+            version = load(namespace, version);
+        }
+        return version.value;
+    }
+
+    /**
+     * 版本号加一，整个命名空间立即失效
+     *
+     * @return 新的版本号
+     */
+    public long bump(String namespace) {
+        Long value = stringRedisTemplate.opsForValue().increment(CACHE_NS_KEY + namespace);
+        long version = value == null ? 0 : value;
+        publish(namespace, version);
+        return version;
+    }
+
+    /**
+     * 单个key的重建：先写好新版本的key，再切换版本号，读请求始终看到完整的数据；
+     * 旧版本的key在 retire-delay 后过期，留给还没收到通知的节点继续读
+     * <p>
+     * 新版本号在独立的计数器（cache:ns-building:{key}）上分配，并发的重建不会写同一个key；
+     * 切换时比较版本号，只有比当前版本新才切换，先完成的旧重建不会覆盖后完成的新重建。
+     * 重建期间的增量变更通过 {@link #keys} 同时写入重建中的版本，writer 应在调用之后再读取数据源
+     *
+     * @param writer 参数为新版本的实际key
+     * @return 新的版本号，被更新的重建取代时返回当前版本号
+     */
+    public long rebuild(String key, Consumer<String> writer) {
+        List<String> counters = Arrays.asList(CACHE_NS_KEY + key, CACHE_NS_BUILDING_KEY + key);
+        // 1.分配新的版本号，此后增量同时写入新版本
+        Long value = stringRedisTemplate.execute(BUILD_SCRIPT, counters, key, String.valueOf(rebuildTimeout.toMillis()));
+        long next = value == null ? 0 : value;
+        String nextKey = key(key, next);
+        // 2.写入新版本的数据
+        try {
+            writer.accept(nextKey);
+        } catch (RuntimeException e) {
+            stringRedisTemplate.execute(SWITCH_SCRIPT, counters, String.valueOf(next), "0");
+            stringRedisTemplate.delete(nextKey);
+            throw e;
+        }
+        // 3.版本号仍比当前的新时切换，返回切换前的版本号
+        Long previous = stringRedisTemplate.execute(SWITCH_SCRIPT, counters, String.valueOf(next), "1");
+        if (previous == null || previous < 0) {
+            // 更新的重建已经切换，本次写入的数据不再使用
+            log.info("缓存命名空间 {} 的版本 {} 已被更新的重建取代", key, next);
+            stringRedisTemplate.expire(nextKey, retireDelay.getSeconds(), TimeUnit.SECONDS);
+            return load(key, versions.get(key)).value;
+        }
+        publish(key, next);
+        stringRedisTemplate.expire(key(key, previous), retireDelay.getSeconds(), TimeUnit.SECONDS);
+        return next;
+    }
+
+    /**
+     * 单个key当前版本的实际key，以及正在重建的新版本的实际key（如果有），增量变更需要写入全部
+     */
+    public List<String> keys(String key) {
+        List<String> values = stringRedisTemplate.opsForValue()
+                .multiGet(Arrays.asList(CACHE_NS_KEY + key, CACHE_NS_BUILDING_KEY + key));
+        long current = values == null || values.get(0) == null ? 0 : Long.parseLong(values.get(0));
+        long building = values == null || values.get(1) == null ? 0 : Long.parseLong(values.get(1));
+        List<String> keys = new ArrayList<>(2);
+        keys.add(key(key, current));
+        if (building > current) {
+            keys.add(key(key, building));
+        }
+        return keys;
+    }
+
+    private void publish(String namespace, long version) {
+        versions.put(namespace, new Version(version));
+        stringRedisTemplate.convertAndSend(CACHE_NS_CHANNEL, namespace);
+        log.info("缓存命名空间 {} 切换到版本 {}", namespace, version);
+    }
+
+    private Version load(String namespace, Version old) {
+        Version version;
+        try {
+            String value = stringRedisTemplate.opsForValue().get(CACHE_NS_KEY + namespace);
+            version = new Version(value == null ? 0 : Long.parseLong(value));
+        } catch (Exception e) {
+            // 加载失败时沿用本地的版本号，稍后再试
+            log.error("加载缓存命名空间 {} 的版本号失败！", namespace, e);
+            version = new Version(old == null ? 0 : old.value);
+        }
+        versions.put(namespace, version);
+        return version;
+    }
+
+    /**
+     * 本节点已加载的命名空间与版本号
+     */
+    public Map<String, Long> versions() {
+        Map<String, Long> map = new TreeMap<>();
+        versions.forEach((namespace, version) -> map.put(namespace, version.value));
+        return map;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String namespace = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (versions.containsKey(namespace)) {
+            load(namespace, versions.get(namespace));
+        }
+    }
+
+    private static class Version {
+        private final long value;
+        private final long loadedAt = System.currentTimeMillis();
+
+        private Version(long value) {
+            this.value = value;
+        }
+    }
+}
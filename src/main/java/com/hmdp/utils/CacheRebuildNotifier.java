@@ -0,0 +1,64 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.CACHE_REBUILT_CHANNEL;
+
+/**
+ * 缓存重建完成通知
+ * <p>
+ * 没抢到互斥锁的请求登记等待，持有锁的节点重建完成后通过发布订阅广播key，
+ * 等待方被唤醒后重新读缓存，代替原来的休眠轮询
+ */
+@Component
+public class CacheRebuildNotifier implements MessageListener {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    //同一个key的等待方共享一个future
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> waiters = new ConcurrentHashMap<>();
+
+    public CacheRebuildNotifier(StringRedisTemplate stringRedisTemplate,
+                                RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        listenerContainer.addMessageListener(this, new ChannelTopic(CACHE_REBUILT_CHANNEL));
+    }
+
+    /**
+     * 登记等待，必须在尝试获取锁之前调用，避免错过通知
+     */
+    public CompletableFuture<Void> await(String key) {
+        return waiters.computeIfAbsent(key, k -> new CompletableFuture<>());
+    }
+
+    /**
+     * 等待超时后放弃，下次重新登记
+     */
+    public void cancel(String key, CompletableFuture<Void> waiter) {
+        waiters.remove(key, waiter);
+    }
+
+    /**
+     * 广播重建完成
+     */
+    public void notifyRebuilt(String key) {
+        stringRedisTemplate.convertAndSend(CACHE_REBUILT_CHANNEL, key);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        CompletableFuture<Void> waiter = waiters.remove(new String(message.getBody(), StandardCharsets.UTF_8));
+        if (waiter != null) {
+            waiter.complete(null);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存重建调度器，代替原来无界队列的固定线程池
+ * <ul>
+ *     <li>队列有上限，满了以后按策略丢弃新任务或最冷的任务</li>
+ *     <li>同一个key排队中只保留一个任务，重复提交或排队期间的读取会提升它的热度</li>
+ *     <li>按热度出队，热度相同先到先得；读取只累加计数，出队时按最新热度批量重排，不逐个移出再放回</li>
+ *     <li>每个任务有截止时间，排队超时不再执行</li>
+ *     <li>任务异常会被记录和统计，不会丢进没人读取的Future里</li>
+ * </ul>
+ * 任务被丢弃时会执行提交方传入的回调（一般是释放重建锁），让后续请求可以重新触发重建
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+
+    //两次按最新热度重排队列的最小间隔
+    private static final long REORDER_INTERVAL_MILLIS = 100;
+
+    public enum OverflowPolicy {
+        /**
+         * 丢弃新提交的任务
+         */
+        DISCARD_NEW,
+        /**
+         * 丢弃队列中最冷的任务，为新任务腾出位置
+         */
+        DISCARD_COLDEST
+    }
+
+    private final CacheProperties.Rebuild properties;
+
+    private final PriorityBlockingQueue<RebuildTask> queue = new PriorityBlockingQueue<>();
+
+    //排队中的任务，key -> 任务，用于去重
+    private final ConcurrentHashMap<String, RebuildTask> pending = new ConcurrentHashMap<>();
+
+    private final ExecutorService workers;
+
+    private volatile boolean running = true;
+
+    //排队期间有任务的热度变化，需要重排
+    private final AtomicBoolean reorder = new AtomicBoolean();
+
+    private volatile long lastReorderTime;
+
+    //重排时队列中的任务暂时移出，与关闭时的清空互斥
+    private final Object reorderLock = new Object();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder merged = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder totalRebuildMillis = new LongAdder();
+    private final LongAdder totalWaitMillis = new LongAdder();
+    private final AtomicLong maxRebuildMillis = new AtomicLong();
+
+    public CacheRebuildScheduler(CacheProperties cacheProperties) {
+        this.properties = cacheProperties.getRebuild();
+        int threads = properties.getThreads();
+        this.workers = Executors.newFixedThreadPool(threads, new NamedThreadFactory("cache-rebuild-", false));
+        for (int i = 0; i < threads; i++) {
+            workers.execute(this::workLoop);
+        }
+    }
+
+    /**
+     * 提交重建任务
+     *
+     * @param key       缓存key，用于去重
+     * @param rebuild   重建逻辑
+     * @param onDiscard 任务没有执行就被丢弃时的回调，如释放锁
+     * @return 是否进入队列（与已有任务合并也算）
+     */
+    public boolean submit(String key, Runnable rebuild, Runnable onDiscard) {
+        if (!running) {
+            onDiscard.run();
+            return false;
+        }
+        // 1.已在排队：合并，提升热度
+        RebuildTask existing = pending.get(key);
+        if (existing != null) {
+            merged.increment();
+            bump(existing);
+            onDiscard.run();
+            return true;
+        }
+        // 2.队列已满：按策略丢弃
+        if (pending.size() >= properties.getQueueCapacity() && !makeRoom()) {
+            dropped.increment();
+            onDiscard.run();
+            return false;
+        }
+        RebuildTask task = new RebuildTask(key, rebuild, onDiscard, sequence.incrementAndGet(),
+                System.currentTimeMillis() + properties.getDeadline().toMillis());
+        if (pending.putIfAbsent(key, task) != null) {
+            // 并发提交了同一个key
+            merged.increment();
+            onDiscard.run();
+            return true;
+        }
+        submitted.increment();
+        queue.offer(task);
+        return true;
+    }
+
+    /**
+     * 记录一次对排队中key的读取，提升其热度
+     */
+    public void touch(String key) {
+        RebuildTask task = pending.get(key);
+        if (task != null) {
+            bump(task);
+        }
+    }
+
+    private void bump(RebuildTask task) {
+        // 只累加计数，优先队列中的顺序在出队前批量重排
+        task.hotness.incrementAndGet();
+        reorder.set(true);
+    }
+
+    /**
+     * 按任务最新的热度重排队列：取出全部任务，刷新排序用的热度后放回，O(n log n)，
+     * 有热度变化时最多每 REORDER_INTERVAL_MILLIS 执行一次
+     */
+    private void reorderIfNeeded() {
+        long now = System.currentTimeMillis();
+        if (!reorder.get() || now - lastReorderTime < REORDER_INTERVAL_MILLIS) {
+            return;
+        }
+        synchronized (reorderLock) {
+            if (!running || !reorder.compareAndSet(true, false)) {
+                return;
+            }
+            lastReorderTime = now;
+            List<RebuildTask> tasks = new ArrayList<>(queue.size());
+            queue.drainTo(tasks);
+            for (RebuildTask task : tasks) {
+                task.priority = task.hotness.get();
+            }
+            queue.addAll(tasks);
+        }
+    }
+
+    private boolean makeRoom() {
+        if (properties.getOverflowPolicy() != OverflowPolicy.DISCARD_COLDEST) {
+            return false;
+        }
+        RebuildTask coldest = null;
+        for (RebuildTask task : queue) {
+            if (coldest == null || task.compareTo(coldest) > 0) {
+                coldest = task;
+            }
+        }
+        if (coldest == null || !queue.remove(coldest)) {
+            return false;
+        }
+        discard(coldest);
+        dropped.increment();
+        return true;
+    }
+
+    private void workLoop() {
+        while (running) {
+            RebuildTask task;
+            try {
+                reorderIfNeeded();
+                task = queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (task == null) {
+                continue;
+            }
+            pending.remove(task.key, task);
+            long start = System.currentTimeMillis();
+            totalWaitMillis.add(start - task.submitTime);
+            // 排队超过截止时间，数据大概率已被其它节点重建，放弃执行
+            if (start > task.deadline) {
+                expired.increment();
+                task.onDiscard.run();
+                continue;
+            }
+            try {
+                task.rebuild.run();
+                succeeded.increment();
+            } catch (Exception e) {
+                failed.increment();
+                log.error("缓存重建失败，key：{}", task.key, e);
+            } finally {
+                long cost = System.currentTimeMillis() - start;
+                totalRebuildMillis.add(cost);
+                maxRebuildMillis.accumulateAndGet(cost, Math::max);
+            }
+        }
+    }
+
+    private void discard(RebuildTask task) {
+        pending.remove(task.key, task);
+        try {
+            task.onDiscard.run();
+        } catch (Exception e) {
+            log.error("丢弃缓存重建任务失败，key：{}", task.key, e);
+        }
+    }
+
+    /**
+     * 停止接收任务，丢弃排队中的任务（释放锁），等待执行中的任务完成
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        List<RebuildTask> remaining = new ArrayList<>();
+        synchronized (reorderLock) {
+            running = false;
+            queue.drainTo(remaining);
+        }
+        remaining.forEach(this::discard);
+        workers.shutdown();
+        if (!workers.awaitTermination(properties.getDeadline().toMillis(), TimeUnit.MILLISECONDS)) {
+            workers.shutdownNow();
+        }
+        log.info("缓存重建调度器已关闭，丢弃排队任务 {} 个", remaining.size());
+    }
+
+    public Map<String, Object> stats() {
+        long done = succeeded.sum() + failed.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", queue.size());
+        stats.put("queueCapacity", properties.getQueueCapacity());
+        stats.put("submitted", submitted.sum());
+        stats.put("merged", merged.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("expired", expired.sum());
+        stats.put("succeeded", succeeded.sum());
+        stats.put("failed", failed.sum());
+        stats.put("avgRebuildMillis", done == 0 ? 0 : totalRebuildMillis.sum() / done);
+        stats.put("maxRebuildMillis", maxRebuildMillis.get());
+        stats.put("avgWaitMillis", done == 0 ? 0 : totalWaitMillis.sum() / done);
+        return stats;
+    }
+
+    private static class RebuildTask implements Comparable<RebuildTask> {
+        private final String key;
+        private final Runnable rebuild;
+        private final Runnable onDiscard;
+        private final long sequence;
+        private final long submitTime = System.currentTimeMillis();
+        private final long deadline;
+        //读取累加的热度
+        private final AtomicInteger hotness = new AtomicInteger(1);
+        //在队列中排序用的热度，只在任务不在队列中时更新，保证堆的顺序不被破坏
+        private int priority = 1;
+
+        private RebuildTask(String key, Runnable rebuild, Runnable onDiscard, long sequence, long deadline) {
+            this.key = key;
+            this.rebuild = rebuild;
+            this.onDiscard = onDiscard;
+            this.sequence = sequence;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 热度高的排在前面，热度相同先提交的排在前面
+         */
+        @Override
+        public int compareTo(RebuildTask other) {
+            int result = Integer.compare(other.priority, priority);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.config.CacheProperties;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 缓存值的序列化，负责头部、压缩以及逻辑过期时间，具体编码交给 {@link CacheCodec}
+ * <p>
+ * 格式：魔数(1) 版本(1) 编码id(1) 标志位(1) [逻辑过期时间毫秒(8)] [重建耗时毫秒(4)] [压缩前长度(4)] 数据
+ * <p>
+ * 值为null（如重建时数据库中已删除）时带空值标志位、数据为空，不交给编码器处理
+ * <p>
+ * 第一个字节不是魔数的值按旧格式（纯JSON文本）解析，所以新旧格式的key可以共存：
+ * 先以 json 格式上线，所有节点都能读新格式后再切换为 smile
+ * <p>
+ * 压缩使用JDK自带的Deflate（BEST_SPEED、不带zlib头），没有引入LZ4：缓存值多为几百字节到几KB的JSON，
+ * 两者的压缩率接近，Deflate的耗时更高但不需要新的依赖；需要换算法时新增一个标志位即可，旧值仍按Deflate解压
+ */
+@Component
+public class CacheSerializer {
+
+    private static final byte MAGIC = (byte) 0xC7;
+    private static final byte VERSION = 1;
+
+    private static final byte FLAG_COMPRESSED = 1;
+    private static final byte FLAG_LOGICAL_EXPIRE = 1 << 1;
+    private static final byte FLAG_REBUILD_COST = 1 << 2;
+    private static final byte FLAG_NULL = 1 << 3;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final CacheCodec[] codecs = new CacheCodec[256];
+
+    private final CacheCodec writeCodec;
+
+    private final int compressThreshold;
+
+    public CacheSerializer(List<CacheCodec> codecList, CacheProperties cacheProperties) {
+        CacheProperties.Codec properties = cacheProperties.getCodec();
+        CacheCodec write = null;
+        for (CacheCodec codec : codecList) {
+            codecs[codec.id() & 0xFF] = codec;
+            if (codec.name().equals(properties.getFormat())) {
+                write = codec;
+            }
+        }
+        if (write == null) {
+            throw new IllegalStateException("未知的缓存编码格式：" + properties.getFormat());
+        }
+        this.writeCodec = write;
+        this.compressThreshold = properties.getCompressThreshold();
+    }
+
+    /**
+     * 序列化普通缓存值
+     */
+    public byte[] serialize(Object value) {
+        if (value == null) {
+            return pack(EMPTY, FLAG_NULL, 0, 0);
+        }
+        byte[] body = writeCodec.encode(value);
+        //json格式且不需要压缩时不加头部，与旧版本完全兼容
+        if (JsonCacheCodec.NAME.equals(writeCodec.name()) && !shouldCompress(body)) {
+            return body;
+        }
+        return pack(body, (byte) 0, 0, 0);
+    }
+
+    /**
+     * 序列化带逻辑过期时间的缓存值，过期时间写在头部，读取时只需解析一次
+     */
+    public byte[] serialize(Object value, LocalDateTime expireTime) {
+        return serialize(value, expireTime, 0);
+    }
+
+    /**
+     * 同上，并在头部记录重建耗时（毫秒），大于0时写入
+     */
+    public byte[] serialize(Object value, LocalDateTime expireTime, long rebuildCost) {
+        //json格式且不需要压缩时按旧的RedisData文本写入，与旧版本兼容
+        if (JsonCacheCodec.NAME.equals(writeCodec.name())) {
+            RedisData redisData = new RedisData();
+            redisData.setExpireTime(expireTime);
+            redisData.setData(value);
+            redisData.setRebuildCost(rebuildCost > 0 ? rebuildCost : null);
+            byte[] legacy = writeCodec.encode(redisData);
+            if (!shouldCompress(legacy)) {
+                return legacy;
+            }
+        }
+        long expireMillis = expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        byte flags = FLAG_LOGICAL_EXPIRE;
+        if (rebuildCost > 0) {
+            flags |= FLAG_REBUILD_COST;
+        }
+        if (value == null) {
+            return pack(EMPTY, (byte) (flags | FLAG_NULL), expireMillis, (int) Math.min(rebuildCost, Integer.MAX_VALUE));
+        }
+        return pack(writeCodec.encode(value), flags, expireMillis, (int) Math.min(rebuildCost, Integer.MAX_VALUE));
+    }
+
+    /**
+     * 反序列化普通缓存值，raw不能是空值标记
+     */
+    public <T> T deserialize(byte[] raw, Class<T> type) {
+        if (raw[0] != MAGIC) {
+            return JsonCacheCodec.fromJson(new String(raw, StandardCharsets.UTF_8), type);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        Header header = readHeader(buffer);
+        return decodeBody(header, buffer, type);
+    }
+
+    /**
+     * 反序列化逻辑过期的缓存值，返回的RedisData中data已经是目标类型
+     */
+    public <T> RedisData deserializeLogical(byte[] raw, Class<T> type) {
+        RedisData redisData = new RedisData();
+        if (raw[0] != MAGIC) {
+            // 旧格式：先解析为RedisData，再把data解析为目标类型
+            RedisData legacy = JSONUtil.toBean(new String(raw, StandardCharsets.UTF_8), RedisData.class);
+            redisData.setExpireTime(legacy.getExpireTime());
+            redisData.setRebuildCost(legacy.getRebuildCost());
+            // data为null时（重建时数据库中已删除）toJsonStr不输出该字段
+            redisData.setData(legacy.getData() == null ? null : JSONUtil.parse(legacy.getData()).toBean(type));
+            return redisData;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        Header header = readHeader(buffer);
+        if ((header.flags & FLAG_LOGICAL_EXPIRE) == 0) {
+            throw new IllegalStateException("缓存值没有逻辑过期时间");
+        }
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(header.expireMillis), ZoneId.systemDefault()));
+        if ((header.flags & FLAG_REBUILD_COST) != 0) {
+            redisData.setRebuildCost((long) header.rebuildCost);
+        }
+        redisData.setData(decodeBody(header, buffer, type));
+        return redisData;
+    }
+
+    //---------------------------------------------------------------------------------------------------------------------
+
+    private boolean shouldCompress(byte[] body) {
+        return compressThreshold > 0 && body.length > compressThreshold;
+    }
+
+    private byte[] pack(byte[] body, byte flags, long expireMillis, int rebuildCost) {
+        int originalLength = body.length;
+        if (shouldCompress(body)) {
+            byte[] compressed = compress(body);
+            //压缩后没变小就不压缩
+            if (compressed.length < body.length) {
+                body = compressed;
+                flags |= FLAG_COMPRESSED;
+            }
+        }
+        int size = 4 + ((flags & FLAG_LOGICAL_EXPIRE) != 0 ? 8 : 0) + ((flags & FLAG_REBUILD_COST) != 0 ? 4 : 0)
+                + ((flags & FLAG_COMPRESSED) != 0 ? 4 : 0);
+        ByteBuffer buffer = ByteBuffer.allocate(size + body.length);
+        buffer.put(MAGIC).put(VERSION).put(writeCodec.id()).put(flags);
+        if ((flags & FLAG_LOGICAL_EXPIRE) != 0) {
+            buffer.putLong(expireMillis);
+        }
+        if ((flags & FLAG_REBUILD_COST) != 0) {
+            buffer.putInt(rebuildCost);
+        }
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            buffer.putInt(originalLength);
+        }
+        buffer.put(body);
+        return buffer.array();
+    }
+
+    private Header readHeader(ByteBuffer buffer) {
+        Header header = new Header();
+        buffer.get();
+        byte version = buffer.get();
+        if (version > VERSION) {
+            throw new IllegalStateException("不支持的缓存格式版本：" + version);
+        }
+        header.codec = codecs[buffer.get() & 0xFF];
+        if (header.codec == null) {
+            throw new IllegalStateException("未知的缓存编码格式id");
+        }
+        header.flags = buffer.get();
+        if ((header.flags & FLAG_LOGICAL_EXPIRE) != 0) {
+            header.expireMillis = buffer.getLong();
+        }
+        if ((header.flags & FLAG_REBUILD_COST) != 0) {
+            header.rebuildCost = buffer.getInt();
+        }
+        if ((header.flags & FLAG_COMPRESSED) != 0) {
+            header.originalLength = buffer.getInt();
+        }
+        return header;
+    }
+
+    private <T> T decodeBody(Header header, ByteBuffer buffer, Class<T> type) {
+        if ((header.flags & FLAG_NULL) != 0) {
+            return null;
+        }
+        byte[] array = buffer.array();
+        int offset = buffer.position();
+        int length = buffer.remaining();
+        if ((header.flags & FLAG_COMPRESSED) != 0) {
+            byte[] body = decompress(array, offset, length, header.originalLength);
+            return header.codec.decode(body, 0, body.length, type);
+        }
+        return header.codec.decode(array, offset, length, type);
+    }
+
+    private static byte[] compress(byte[] data) {
+        //追求速度，使用最快的压缩级别
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+            byte[] chunk = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decompress(byte[] data, int offset, int length, int originalLength) {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data, offset, length);
+            byte[] result = new byte[originalLength];
+            int read = 0;
+            while (read < originalLength && !inflater.finished()) {
+                int n = inflater.inflate(result, read, originalLength - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("缓存值数据不完整");
+                }
+                read += n;
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("缓存值解压失败", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static class Header {
+        private CacheCodec codec;
+        private byte flags;
+        private long expireMillis;
+        private int rebuildCost;
+        private int originalLength;
+    }
+}
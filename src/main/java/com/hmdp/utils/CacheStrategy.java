@@ -0,0 +1,30 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存查询策略，对应 {@link CacheClient} 中的各个查询方法
+ */
+public enum CacheStrategy {
+    /**
+     * 缓存空对象，解决缓存穿透
+     */
+    PASS_THROUGH,
+    /**
+     * 互斥锁重建，解决缓存击穿
+     */
+    MUTEX,
+    /**
+     * 逻辑过期，过期后返回旧值并后台重建
+     */
+    LOGICAL_EXPIRE,
+    /**
+     * 逻辑过期 + 概率提前刷新
+     */
+    EARLY_REFRESH;
+
+    /**
+     * 是否为逻辑过期格式（值中带过期时间、redis中不设置过期时间）
+     */
+    public boolean isLogical() {
+        return this == LOGICAL_EXPIRE || this == EARLY_REFRESH;
+    }
+}
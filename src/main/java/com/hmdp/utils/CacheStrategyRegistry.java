@@ -0,0 +1,79 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.CACHE_STRATEGY_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_STRATEGY_KEY;
+
+/**
+ * 运行时按key前缀覆盖 {@link HmCached} 声明的缓存策略
+ * <p>
+ * 覆盖配置保存在redis的hash中，新节点启动时加载；修改后通过发布订阅通知所有节点重新加载
+ */
+@Slf4j
+@Component
+public class CacheStrategyRegistry implements MessageListener {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    //前缀 -> 覆盖的策略
+    private volatile Map<String, CacheStrategy> overrides = new ConcurrentHashMap<>();
+
+    public CacheStrategyRegistry(StringRedisTemplate stringRedisTemplate,
+                                 RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        reload();
+        listenerContainer.addMessageListener(this, new ChannelTopic(CACHE_STRATEGY_CHANNEL));
+    }
+
+    /**
+     * 获取前缀当前生效的策略，没有覆盖时返回注解上声明的策略
+     */
+    public CacheStrategy resolve(String keyPrefix, CacheStrategy declared) {
+        return overrides.getOrDefault(keyPrefix, declared);
+    }
+
+    /**
+     * 覆盖前缀的策略，strategy为null表示恢复注解上声明的策略
+     */
+    public void override(String keyPrefix, CacheStrategy strategy) {
+        if (strategy == null) {
+            stringRedisTemplate.opsForHash().delete(CACHE_STRATEGY_KEY, keyPrefix);
+        } else {
+            stringRedisTemplate.opsForHash().put(CACHE_STRATEGY_KEY, keyPrefix, strategy.name());
+        }
+        reload();
+        stringRedisTemplate.convertAndSend(CACHE_STRATEGY_CHANNEL, keyPrefix);
+    }
+
+    public Map<String, CacheStrategy> overrides() {
+        return new LinkedHashMap<>(overrides);
+    }
+
+    private void reload() {
+        try {
+            Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(CACHE_STRATEGY_KEY);
+            Map<String, CacheStrategy> loaded = new ConcurrentHashMap<>();
+            entries.forEach((prefix, strategy) -> loaded.put(prefix.toString(), CacheStrategy.valueOf(strategy.toString())));
+            overrides = loaded;
+        } catch (Exception e) {
+            // 加载失败时保留原有配置，使用注解上声明的策略
+            log.error("加载缓存策略配置失败！", e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        reload();
+    }
+}
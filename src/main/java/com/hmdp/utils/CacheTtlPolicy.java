@@ -0,0 +1,84 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 按key前缀计算缓存过期时间，把同一批写入的key打散到不同时刻过期，避免缓存雪崩
+ * <ul>
+ *     <li>JITTER：在基础过期时间上随机浮动 ±N%</li>
+ *     <li>BUCKET：按key的哈希分到若干个桶，第i个桶多存活 i·窗口/桶数，同一个key每次落在同一个桶</li>
+ * </ul>
+ * 没有配置策略的前缀沿用调用方传入的过期时间
+ */
+@Component
+public class CacheTtlPolicy {
+
+    public enum Mode {
+        NONE,
+        JITTER,
+        BUCKET
+    }
+
+    //按前缀长度倒序，优先匹配更具体的前缀
+    private final List<CacheProperties.TtlPolicy> policies;
+
+    public CacheTtlPolicy(CacheProperties cacheProperties) {
+        this.policies = new ArrayList<>(cacheProperties.getTtlPolicies());
+        this.policies.sort(Comparator.comparingInt((CacheProperties.TtlPolicy p) -> p.getPrefix().length()).reversed());
+    }
+
+    /**
+     * 计算key的过期秒数，前缀配置了基础过期时间时以配置为准
+     *
+     * @param defaultSeconds 调用方给出的基础过期秒数
+     */
+    public long ttlSeconds(String key, long defaultSeconds) {
+        CacheProperties.TtlPolicy policy = find(key);
+        if (policy == null) {
+            return defaultSeconds;
+        }
+        long base = policy.getTtl() != null ? policy.getTtl().getSeconds() : defaultSeconds;
+        return apply(policy, key, base);
+    }
+
+    /**
+     * 只做打散，不替换基础过期时间，用于空值等有单独过期时间的场景
+     */
+    public long spreadSeconds(String key, long seconds) {
+        CacheProperties.TtlPolicy policy = find(key);
+        return policy == null ? seconds : apply(policy, key, seconds);
+    }
+
+    private long apply(CacheProperties.TtlPolicy policy, String key, long base) {
+        switch (policy.getMode()) {
+            case JITTER:
+                long delta = base * policy.getJitterPercent() / 100;
+                if (delta <= 0) {
+                    return base;
+                }
+                // 至少保留1秒
+                return Math.max(1, base + ThreadLocalRandom.current().nextLong(-delta, delta + 1));
+            case BUCKET:
+                int buckets = Math.max(1, policy.getBuckets());
+                long bucket = (key.hashCode() & Integer.MAX_VALUE) % buckets;
+                return base + bucket * policy.getBucketWindow().getSeconds() / buckets;
+            default:
+                return base;
+        }
+    }
+
+    private CacheProperties.TtlPolicy find(String key) {
+        for (CacheProperties.TtlPolicy policy : policies) {
+            if (key.startsWith(policy.getPrefix())) {
+                return policy;
+            }
+        }
+        return null;
+    }
+}
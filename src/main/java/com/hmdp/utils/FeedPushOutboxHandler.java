@@ -0,0 +1,59 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FollowMapper;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.FEED_KEY;
+
+/**
+ * 发件箱事件：把新笔记推送到作者所有粉丝的收件箱（feed:{userId}），分数为发布时间，重复推送不影响结果
+ */
+@Component
+public class FeedPushOutboxHandler implements OutboxHandler {
+
+    public static final String TYPE = "blog.feed";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final FollowMapper followMapper;
+
+    public FeedPushOutboxHandler(StringRedisTemplate stringRedisTemplate, FollowMapper followMapper) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.followMapper = followMapper;
+    }
+
+    @Override
+    public String type() {
+        return TYPE;
+    }
+
+    @Override
+    public void handle(List<JSONObject> payloads) {
+        for (JSONObject payload : payloads) {
+            // 1.查询笔记作者的所有粉丝
+            // select user_id from tb_follow where follow_user_id = ?
+            List<Follow> follows = followMapper.selectList(new QueryWrapper<Follow>()
+                    .select("user_id").eq("follow_user_id", payload.getLong("userId")));
+            if (follows.isEmpty()) {
+                continue;
+            }
+            // 2.管道推送笔记id给所有粉丝
+            byte[] blogId = payload.getStr("blogId").getBytes(StandardCharsets.UTF_8);
+            double time = payload.getLong("time");
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Follow follow : follows) {
+                    connection.zAdd((FEED_KEY + follow.getUserId()).getBytes(StandardCharsets.UTF_8), time, blogId);
+                }
+                return null;
+            });
+        }
+    }
+}
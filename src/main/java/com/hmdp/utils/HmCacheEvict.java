@@ -0,0 +1,28 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 方法执行成功后删除缓存（并通知各节点清理本地缓存）
+ * <p>
+ * 切面在事务之外执行，事务提交后才删除；返回失败的Result或抛出异常时不删除
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmCacheEvict {
+
+    /**
+     * key前缀，如 cache:shop:
+     */
+    String prefix();
+
+    /**
+     * SpEL，计算拼接在前缀后的部分，默认取第一个参数；结果为null时不删除
+     */
+    String key() default "";
+}
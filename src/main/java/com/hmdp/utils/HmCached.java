@@ -0,0 +1,58 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 声明式缓存，由 {@link CacheAspect} 基于 {@link CacheClient} 实现
+ * <p>
+ * 方法返回 {@link com.hmdp.dto.Result} 时只缓存成功结果中的data，失败结果原样返回且不缓存；
+ * 数据不存在时返回 Result.fail(nullMessage)，nullMessage为空则返回 Result.ok()
+ * <pre>
+ * &#64;HmCached(prefix = CACHE_SHOP_KEY, key = "#id", type = Shop.class, strategy = CacheStrategy.MUTEX)
+ * public Result queryById(Long id)
+ * </pre>
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmCached {
+
+    /**
+     * key前缀，如 cache:shop:
+     */
+    String prefix();
+
+    /**
+     * SpEL，计算拼接在前缀后的部分，默认取第一个参数
+     */
+    String key() default "";
+
+    /**
+     * 缓存的数据类型；collection为true时是列表的元素类型。方法直接返回对象时可以不填
+     */
+    Class<?> type() default Void.class;
+
+    /**
+     * 数据是否为列表，方法直接返回List时自动识别
+     */
+    boolean collection() default false;
+
+    long ttl() default 30L;
+
+    TimeUnit unit() default TimeUnit.MINUTES;
+
+    /**
+     * 默认策略，可以在运行时按前缀切换，见 {@link CacheStrategyRegistry}
+     */
+    CacheStrategy strategy() default CacheStrategy.PASS_THROUGH;
+
+    /**
+     * 数据不存在时的错误信息，仅对返回Result的方法有效
+     */
+    String nullMessage() default "";
+}
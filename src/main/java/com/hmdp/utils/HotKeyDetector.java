@@ -0,0 +1,207 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热点key探测：对经过redis访问层的key按采样率计数，计数结构为 Count-Min Sketch，每个窗口整体减半衰减
+ * <p>
+ * 估计访问次数超过阈值的key被标记为热点，{@link CacheClient} 对热点key在本地保留一份短期副本，
+ * 把对单个redis key的读压力分摊到各个节点；持续一段时间没有再达到阈值的key自动降级
+ * <p>
+ * 计数表大小固定，不随key的数量增长，热路径只有几次数组自增，不分配对象
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    //每个key映射到的行数
+    private static final int DEPTH = 4;
+
+    //各行哈希使用的奇数乘数
+    private static final int[] SEEDS = {0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F};
+
+    private final boolean enabled;
+
+    private final double sampleRate;
+
+    //采样后每次计数代表的访问次数
+    private final long sampleWeight;
+
+    private final long threshold;
+
+    private final long windowNanos;
+
+    private final long hotTtlMillis;
+
+    private final long replicaTtlMillis;
+
+    private final int maxHotKeys;
+
+    //每行的宽度为2的幂，取哈希的高位作为下标
+    private final int widthBits;
+
+    private final AtomicIntegerArray table;
+
+    //上一次衰减的时间
+    private final AtomicLong lastDecay = new AtomicLong(System.nanoTime());
+
+    //key -> 热点信息
+    private final ConcurrentHashMap<String, HotKey> hotKeys = new ConcurrentHashMap<>();
+
+    private final LongAdder sampled = new LongAdder();
+
+    private final LongAdder promotions = new LongAdder();
+
+    public HotKeyDetector(CacheProperties cacheProperties) {
+        CacheProperties.HotKey properties = cacheProperties.getHotKey();
+        this.enabled = properties.isEnabled();
+        this.sampleRate = Math.min(1D, Math.max(properties.getSampleRate(), 0.0001));
+        this.sampleWeight = Math.round(1 / sampleRate);
+        this.threshold = properties.getThreshold();
+        this.windowNanos = properties.getWindow().toNanos();
+        this.hotTtlMillis = properties.getHotTtl().toMillis();
+        this.replicaTtlMillis = properties.getReplicaTtl().toMillis();
+        this.maxHotKeys = properties.getMaxHotKeys();
+        this.widthBits = 32 - Integer.numberOfLeadingZeros(Math.max(properties.getSketchWidth(), 2) - 1);
+        this.table = new AtomicIntegerArray(DEPTH << widthBits);
+    }
+
+    /**
+     * 记录一次访问，达到阈值时标记为热点
+     */
+    public void record(String key) {
+        if (!enabled || (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            return;
+        }
+        sampled.increment();
+        decayIfNeeded();
+        // 1.各行计数加一，取最小值作为估计
+        int hash = spread(key.hashCode());
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, table.incrementAndGet(index(i, hash)));
+        }
+        long estimate = min * sampleWeight;
+        if (estimate < threshold) {
+            return;
+        }
+        // 2.达到阈值，标记或续期热点
+        HotKey hotKey = hotKeys.get(key);
+        if (hotKey == null) {
+            if (hotKeys.size() >= maxHotKeys) {
+                // 先清理已降级的key，仍然满了就不再标记新的热点
+                long now = System.currentTimeMillis();
+                hotKeys.values().removeIf(h -> now - h.lastSeen > hotTtlMillis);
+                if (hotKeys.size() >= maxHotKeys) {
+                    return;
+                }
+            }
+            hotKey = hotKeys.computeIfAbsent(key, k -> {
+                promotions.increment();
+                log.info("发现热点key：{}，估计访问次数 {}", k, estimate);
+                return new HotKey();
+            });
+        }
+        hotKey.lastSeen = System.currentTimeMillis();
+        hotKey.estimate = estimate;
+    }
+
+    /**
+     * 是否为热点key，超过 hot-ttl 没有再达到阈值的自动降级
+     */
+    public boolean isHot(String key) {
+        if (!enabled) {
+            return false;
+        }
+        HotKey hotKey = hotKeys.get(key);
+        if (hotKey == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - hotKey.lastSeen > hotTtlMillis) {
+            hotKeys.remove(key, hotKey);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 热点key本地副本的存活时间
+     */
+    public long getReplicaTtlMillis() {
+        return replicaTtlMillis;
+    }
+
+    //每个窗口把所有计数减半，旧的访问逐渐失去权重
+    private void decayIfNeeded() {
+        long last = lastDecay.get();
+        long now = System.nanoTime();
+        if (now - last < windowNanos || !lastDecay.compareAndSet(last, now)) {
+            return;
+        }
+        for (int i = 0; i < table.length(); i++) {
+            int value = table.get(i);
+            if (value != 0) {
+                // 与并发自增竞争时丢掉个别计数可以接受
+                table.set(i, value >>> 1);
+            }
+        }
+    }
+
+    private int index(int row, int hash) {
+        return (row << widthBits) | ((hash * SEEDS[row]) >>> (32 - widthBits));
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    public Map<String, Object> stats() {
+        List<Map.Entry<String, HotKey>> entries = new ArrayList<>();
+        hotKeys.forEach((key, hotKey) -> {
+            if (isHot(key)) {
+                entries.add(new AbstractMap.SimpleEntry<>(key, hotKey));
+            }
+        });
+        entries.sort(Comparator.comparingLong((Map.Entry<String, HotKey> e) -> e.getValue().estimate).reversed());
+        List<Map<String, Object>> list = new ArrayList<>(entries.size());
+        for (Map.Entry<String, HotKey> entry : entries) {
+            HotKey hotKey = entry.getValue();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("key", entry.getKey());
+            map.put("estimate", hotKey.estimate);
+            map.put("since", Instant.ofEpochMilli(hotKey.since).toString());
+            map.put("lastSeen", Instant.ofEpochMilli(hotKey.lastSeen).toString());
+            list.add(map);
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("sampleRate", sampleRate);
+        stats.put("threshold", threshold);
+        stats.put("sketchWidth", 1 << widthBits);
+        stats.put("sampled", sampled.sum());
+        stats.put("promotions", promotions.sum());
+        stats.put("hotKeys", list);
+        return stats;
+    }
+
+    private static class HotKey {
+        private final long since = System.currentTimeMillis();
+        private volatile long lastSeen = since;
+        private volatile long estimate;
+    }
+}
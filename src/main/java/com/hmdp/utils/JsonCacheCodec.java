@@ -0,0 +1,42 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 文本JSON格式，与原先直接写入的JSON字符串一致
+ */
+@Component
+public class JsonCacheCodec implements CacheCodec {
+
+    public static final String NAME = "json";
+
+    @Override
+    public byte id() {
+        return 1;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, int offset, int length, Class<T> type) {
+        return fromJson(new String(bytes, offset, length, StandardCharsets.UTF_8), type);
+    }
+
+    /**
+     * 解析JSON文本，支持对象与数组（type为数组类型时）
+     */
+    static <T> T fromJson(String json, Class<T> type) {
+        return JSONUtil.parse(json).toBean(type);
+    }
+}
@@ -0,0 +1,138 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.impl.LRUCache;
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * 进程内的一级缓存（L1），位于redis（L2）之前
+ * <p>
+ * 容量与存活时间有限，按LRU淘汰；某个节点删除缓存时通过redis发布订阅通知所有节点清理本地副本
+ */
+@Slf4j
+@Component
+public class LocalCache implements MessageListener {
+
+    private final CacheProperties.Local properties;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final LRUCache<String, Object> cache;
+
+    //清空全部的失效消息
+    private static final String CLEAR_ALL = "*";
+
+    //批量失效消息中key的分隔符
+    private static final String KEY_SEPARATOR = "\n";
+
+    //收到的失效通知次数
+    private final LongAdder invalidateCount = new LongAdder();
+
+    public LocalCache(CacheProperties cacheProperties, StringRedisTemplate stringRedisTemplate,
+                      RedisMessageListenerContainer listenerContainer) {
+        this.properties = cacheProperties.getLocal();
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.cache = new LRUCache<>(properties.getMaxSize(), properties.getTtl().toMillis());
+        //订阅失效频道
+        listenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 该前缀的key是否走本地缓存
+     */
+    public boolean isEnabled(String keyPrefix) {
+        return properties.isEnabled() && properties.getPrefixes().contains(keyPrefix);
+    }
+
+    /**
+     * 读取本地缓存，未命中返回null
+     */
+    public <R> R get(String key, Class<R> type) {
+        //不刷新访问时间，保证条目最迟在ttl后回源redis
+        Object value = cache.get(key, false);
+        return type.isInstance(value) ? type.cast(value) : null;
+    }
+
+    public void put(String key, Object value) {
+        if (value != null) {
+            cache.put(key, value);
+        }
+    }
+
+    /**
+     * 指定存活时间写入，用于热点key的短期副本，不受前缀配置限制
+     */
+    public void put(String key, Object value, long ttlMillis) {
+        if (value != null) {
+            cache.put(key, value, ttlMillis);
+        }
+    }
+
+    /**
+     * 只清理当前节点
+     */
+    public void invalidate(String key) {
+        cache.remove(key);
+    }
+
+    /**
+     * 清理当前节点，并通知其它节点清理
+     */
+    public void broadcastInvalidate(String key) {
+        invalidate(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 批量清理，多个key合并为一条消息，以换行分隔
+     */
+    public void broadcastInvalidate(Collection<String> keys) {
+        keys.forEach(this::invalidate);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, String.join(KEY_SEPARATOR, keys));
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        invalidateCount.increment();
+        if (CLEAR_ALL.equals(body)) {
+            cache.clear();
+            return;
+        }
+        for (String key : body.split(KEY_SEPARATOR)) {
+            invalidate(key);
+        }
+    }
+
+    /**
+     * 命中统计
+     */
+    public Map<String, Object> stats() {
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", properties.isEnabled());
+        stats.put("prefixes", properties.getPrefixes());
+        stats.put("size", cache.size());
+        stats.put("capacity", cache.capacity());
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRate", hits + misses == 0 ? 0D : (double) hits / (hits + misses));
+        stats.put("invalidations", invalidateCount.sum());
+        return stats;
+    }
+}
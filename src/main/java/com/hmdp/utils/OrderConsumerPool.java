@@ -0,0 +1,444 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_LEASE_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_NODES_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM;
+
+/**
+ * 秒杀订单的消费者池：每个分区同一时间只由一个节点消费，节点通过租约（seckill:order:lease:{分区}）认领分区，
+ * 每个认领的分区一个消费线程
+ * <p>
+ * 各节点定时心跳并续约，按存活节点数计算自己应负责的分区数：多了交还（消费线程处理完当前一批后退出再释放租约），
+ * 少了从空闲分区中认领；节点宕机后租约过期，分区由其它节点接手。
+ * 认领分区时先把其它消费者名下未确认的消息转到自己名下，保证交接后不丢消息
+ * <p>
+ * 分区之前的单个 stream.orders 作为额外的分区 -1 继续消费：存在时由一个节点认领，接手旧消费者未确认的消息，
+ * 读完并全部确认后交还；最后一次写入超过10分钟后删除，滚动升级期间旧版本节点仍可能写入
+ */
+@Slf4j
+@Component
+public class OrderConsumerPool {
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("lease_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+        // 比较持有者后删除，与释放锁相同
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    //每次转移的未确认消息数
+    private static final int CLAIM_BATCH = 1000;
+
+    //分区之前的 stream.orders 使用的分区号
+    private static final int LEGACY_PARTITION = -1;
+
+    //stream.orders 最后一次写入后空闲超过这个时间才删除
+    private static final Duration LEGACY_IDLE = Duration.ofMinutes(10);
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final OrderStreamRouter router;
+
+    //本节点的消费者名，各节点唯一
+    private final String consumerName;
+
+    private final long leaseTtlMillis;
+
+    private final int maxConsumers;
+
+    //分区 -> 本节点持有的租约，消费线程退出后才移除
+    private final Map<Integer, PartitionLease> leases = new ConcurrentHashMap<>();
+
+    private Function<PartitionLease, Runnable> consumerFactory;
+
+    private ExecutorService consumerExecutor;
+
+    private ScheduledExecutorService rebalancer;
+
+    public OrderConsumerPool(StringRedisTemplate stringRedisTemplate, OrderStreamRouter router,
+                             SeckillProperties seckillProperties) {
+        SeckillProperties.OrderConsumer properties = seckillProperties.getOrderConsumer();
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.router = router;
+        // 默认为 进程号@主机名
+        this.consumerName = StrUtil.isNotBlank(properties.getConsumerName())
+                ? properties.getConsumerName() : ManagementFactory.getRuntimeMXBean().getName();
+        this.leaseTtlMillis = properties.getLeaseTtl().toMillis();
+        this.maxConsumers = properties.getMaxConsumers() > 0 ? properties.getMaxConsumers() : router.partitions();
+    }
+
+    /**
+     * 创建各分区的消费者组，开始心跳与再平衡
+     *
+     * @param consumerFactory 为认领的分区创建消费任务，任务应在 {@link PartitionLease#isActive()} 变为false后尽快返回
+     */
+    public synchronized void start(Function<PartitionLease, Runnable> consumerFactory) {
+        if (this.consumerFactory != null) {
+            return;
+        }
+        this.consumerFactory = consumerFactory;
+        for (int partition = 0; partition < router.partitions(); partition++) {
+            createGroup(router.streamKey(partition));
+        }
+        consumerExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("seckill-order-consumer-", true));
+        rebalancer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("seckill-order-rebalance-", true));
+        rebalancer.scheduleWithFixedDelay(this::rebalance, 0, Math.max(100, leaseTtlMillis / 3), TimeUnit.MILLISECONDS);
+        log.info("秒杀订单消费者 {} 启动，共 {} 个分区", consumerName, router.partitions());
+    }
+
+    //XGROUP CREATE stream.orders:{分区} g1 0 MKSTREAM，已存在时忽略
+    private void createGroup(String streamKey) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(streamKey.getBytes(StandardCharsets.UTF_8), SECKILL_ORDER_GROUP, ReadOffset.from("0"), true));
+        } catch (DataAccessException e) {
+            if (!String.valueOf(e.getMessage()).contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    private void rebalance() {
+        try {
+            // 1.心跳，清理超过一个租约时间没有心跳的节点
+            long now = System.currentTimeMillis();
+            stringRedisTemplate.opsForZSet().add(SECKILL_ORDER_NODES_KEY, consumerName, now);
+            stringRedisTemplate.opsForZSet().removeRangeByScore(SECKILL_ORDER_NODES_KEY, 0, now - leaseTtlMillis);
+            Long alive = stringRedisTemplate.opsForZSet().zCard(SECKILL_ORDER_NODES_KEY);
+            int nodes = alive == null ? 1 : (int) Math.max(1, alive);
+            // 2.续约，续约失败说明租约已过期、可能被其它节点认领，停止消费
+            List<Integer> active = new ArrayList<>();
+            for (PartitionLease lease : leases.values()) {
+                if (!lease.isActive()) {
+                    continue;
+                }
+                if (renew(lease)) {
+                    // 旧的stream不计入负责的分区数
+                    if (lease.partition != LEGACY_PARTITION) {
+                        active.add(lease.partition);
+                    }
+                } else {
+                    log.warn("分区 {} 的租约已失效，停止消费", lease.partition);
+                    lease.lost = true;
+                }
+            }
+            // 3.旧的stream没有消费完时认领，消费完后交还
+            drainLegacy();
+            // 4.每个节点负责的分区数
+            int target = Math.min(maxConsumers, (router.partitions() + nodes - 1) / nodes);
+            if (active.size() > target) {
+                // 4.1.多了，交还编号最大的几个
+                Collections.sort(active);
+                for (int partition : active.subList(target, active.size())) {
+                    log.info("节点数变为 {}，交还分区 {}", nodes, partition);
+                    leases.get(partition).stopping = true;
+                }
+                return;
+            }
+            // 4.2.少了，从空闲分区中认领，起点按节点名打散，减少节点之间的冲突
+            int start = Math.floorMod(consumerName.hashCode(), router.partitions());
+            for (int i = 0; i < router.partitions() && active.size() < target; i++) {
+                int partition = (start + i) % router.partitions();
+                if (!leases.containsKey(partition) && acquire(partition, router.streamKey(partition))) {
+                    active.add(partition);
+                }
+            }
+        } catch (Exception e) {
+            log.error("秒杀订单消费者再平衡失败！", e);
+        }
+    }
+
+    /**
+     * 分区之前的 stream.orders：有未读或未确认的消息时认领并消费，读完后交还；
+     * 读完且最后一次写入超过 LEGACY_IDLE 后，持有租约删除
+     */
+    private void drainLegacy() {
+        String streamKey = SECKILL_ORDER_STREAM;
+        PartitionLease owned = leases.get(LEGACY_PARTITION);
+        if (owned != null) {
+            if (owned.isActive() && isDrained(streamKey)) {
+                log.info("{} 中的消息已全部处理，交还", streamKey);
+                owned.stopping = true;
+            }
+            return;
+        }
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(streamKey))) {
+            return;
+        }
+        // 旧版本节点在stream被删除后重新写入时没有消费者组，从头读取
+        createGroup(streamKey);
+        if (!isDrained(streamKey)) {
+            acquire(LEGACY_PARTITION, streamKey);
+            return;
+        }
+        RecordId last = RecordId.of(stringRedisTemplate.opsForStream().info(streamKey).lastGeneratedId());
+        if (System.currentTimeMillis() - last.getTimestamp() < LEGACY_IDLE.toMillis() || !tryLease(LEGACY_PARTITION)) {
+            return;
+        }
+        PartitionLease lease = new PartitionLease(LEGACY_PARTITION, streamKey, consumerName);
+        try {
+            if (isDrained(streamKey)) {
+                stringRedisTemplate.delete(streamKey);
+                log.info("{} 已消费完且空闲超过 {}，删除", streamKey, LEGACY_IDLE);
+            }
+        } finally {
+            release(lease);
+        }
+    }
+
+    private boolean renew(PartitionLease lease) {
+        Long result = stringRedisTemplate.execute(RENEW_SCRIPT,
+                Collections.singletonList(SECKILL_ORDER_LEASE_KEY + lease.partition),
+                consumerName, String.valueOf(leaseTtlMillis));
+        return result != null && result == 1;
+    }
+
+    private boolean tryLease(int partition) {
+        Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(
+                SECKILL_ORDER_LEASE_KEY + partition, consumerName, leaseTtlMillis, TimeUnit.MILLISECONDS);
+        return Boolean.TRUE.equals(success);
+    }
+
+    private boolean acquire(int partition, String streamKey) {
+        if (!tryLease(partition)) {
+            return false;
+        }
+        PartitionLease lease = new PartitionLease(partition, streamKey, consumerName);
+        try {
+            claimPending(lease.streamKey);
+        } catch (Exception e) {
+            log.error("接手分区 {} 未确认的消息失败！", partition, e);
+            release(lease);
+            return false;
+        }
+        leases.put(partition, lease);
+        Runnable task = consumerFactory.apply(lease);
+        consumerExecutor.execute(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("分区 {} 的消费者异常退出！", partition, e);
+            } finally {
+                if (!lease.lost) {
+                    release(lease);
+                }
+                leases.remove(partition, lease);
+            }
+        });
+        log.info("认领分区 {}，消费 {}", partition, lease.streamKey);
+        return true;
+    }
+
+    private void release(PartitionLease lease) {
+        try {
+            stringRedisTemplate.execute(RELEASE_SCRIPT,
+                    Collections.singletonList(SECKILL_ORDER_LEASE_KEY + lease.partition), consumerName);
+        } catch (Exception e) {
+            // 释放失败等租约自然过期
+            log.warn("释放分区 {} 的租约失败", lease.partition, e);
+        }
+    }
+
+    //XPENDING 找出其它消费者名下未确认的消息，XCLAIM 转到自己名下，之后由消费线程从pending list中读取处理
+    private void claimPending(String streamKey) {
+        byte[] rawKey = streamKey.getBytes(StandardCharsets.UTF_8);
+        String from = "-";
+        while (true) {
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(streamKey, SECKILL_ORDER_GROUP, Range.closed(from, "+"), CLAIM_BATCH);
+            if (pending == null || pending.isEmpty()) {
+                return;
+            }
+            List<RecordId> ids = new ArrayList<>();
+            for (PendingMessage message : pending) {
+                if (!consumerName.equals(message.getConsumerName())) {
+                    ids.add(message.getId());
+                }
+            }
+            if (!ids.isEmpty()) {
+                stringRedisTemplate.execute((RedisCallback<List<RecordId>>) connection -> connection.streamCommands()
+                        .xClaimJustId(rawKey, SECKILL_ORDER_GROUP, consumerName,
+                                RedisStreamCommands.XClaimOptions.minIdle(Duration.ZERO).ids(ids)));
+                log.info("从其它消费者接手 {} 条未确认的消息：{}", ids.size(), streamKey);
+            }
+            if (pending.size() < CLAIM_BATCH) {
+                return;
+            }
+            // 下一页从最后一条之后开始
+            RecordId last = pending.get(pending.size() - 1).getId();
+            from = last.getTimestamp() + "-" + (last.getSequence() + 1);
+        }
+    }
+
+    /**
+     * 所有分区与分区之前的 stream.orders 的消息都已消费并确认
+     */
+    public boolean isDrained() {
+        for (int partition = 0; partition < router.partitions(); partition++) {
+            if (!isDrained(router.streamKey(partition))) {
+                return false;
+            }
+        }
+        return isDrained(SECKILL_ORDER_STREAM);
+    }
+
+    /**
+     * 所有分区与 stream.orders 中写入时间不晚于 millis 的消息都已消费并确认，之后写入的消息不影响结果：
+     * stream的消息id以写入时的毫秒时间戳开头，消费组读到了该时刻之前的最后一条，且pending list中没有该时刻之前的消息
+     */
+    public boolean isDrainedBefore(long millis) {
+        for (int partition = 0; partition < router.partitions(); partition++) {
+            if (!isDrainedBefore(router.streamKey(partition), millis)) {
+                return false;
+            }
+        }
+        return isDrainedBefore(SECKILL_ORDER_STREAM, millis);
+    }
+
+    private boolean isDrainedBefore(String streamKey, long millis) {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(streamKey))) {
+            return true;
+        }
+        Range<String> before = Range.closed("-", String.valueOf(millis));
+        // 1.pending list中没有该时刻之前的消息
+        PendingMessages pending = stringRedisTemplate.opsForStream().pending(streamKey, SECKILL_ORDER_GROUP, before, 1L);
+        if (pending != null && !pending.isEmpty()) {
+            return false;
+        }
+        // 2.消费组读到了该时刻之前的最后一条：XREVRANGE key millis - COUNT 1
+        List<MapRecord<String, Object, Object>> last = stringRedisTemplate.opsForStream()
+                .reverseRange(streamKey, before, RedisZSetCommands.Limit.limit().count(1));
+        if (last == null || last.isEmpty()) {
+            return true;
+        }
+        RecordId lastId = last.get(0).getId();
+        return stringRedisTemplate.opsForStream().groups(streamKey).stream()
+                .filter(group -> SECKILL_ORDER_GROUP.equals(group.groupName()))
+                .anyMatch(group -> compare(RecordId.of(group.lastDeliveredId()), lastId) >= 0);
+    }
+
+    private static int compare(RecordId a, RecordId b) {
+        int result = Long.compare(a.getTimestamp(), b.getTimestamp());
+        return result != 0 ? result : Long.compare(a.getSequence(), b.getSequence());
+    }
+
+    //消费组读到了stream的最后一条消息，且pending list为空；stream不存在时视为已消费完
+    private boolean isDrained(String streamKey) {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(streamKey))) {
+            return true;
+        }
+        String lastId = stringRedisTemplate.opsForStream().info(streamKey).lastGeneratedId();
+        return stringRedisTemplate.opsForStream().groups(streamKey).stream()
+                .noneMatch(group -> SECKILL_ORDER_GROUP.equals(group.groupName())
+                        && (group.pendingCount() > 0 || !lastId.equals(group.lastDeliveredId())));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("consumerName", consumerName);
+        stats.put("partitions", router.partitions());
+        stats.put("owned", new TreeSet<>(leases.keySet()));
+        stats.put("nodes", stringRedisTemplate.opsForZSet().range(SECKILL_ORDER_NODES_KEY, 0, -1));
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (rebalancer == null) {
+            return;
+        }
+        rebalancer.shutdownNow();
+        // 消费线程处理完当前一批后退出并释放租约，其它节点在下一次再平衡时接手
+        leases.values().forEach(lease -> lease.stopping = true);
+        consumerExecutor.shutdown();
+        consumerExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        stringRedisTemplate.opsForZSet().remove(SECKILL_ORDER_NODES_KEY, consumerName);
+    }
+
+    /**
+     * 本节点对一个分区的租约
+     */
+    public static class PartitionLease {
+
+        private final int partition;
+
+        private final String streamKey;
+
+        private final String consumerName;
+
+        //主动交还
+        private volatile boolean stopping;
+
+        //续约失败
+        private volatile boolean lost;
+
+        private PartitionLease(int partition, String streamKey, String consumerName) {
+            this.partition = partition;
+            this.streamKey = streamKey;
+            this.consumerName = consumerName;
+        }
+
+        /**
+         * 是否仍应继续消费
+         */
+        public boolean isActive() {
+            return !stopping && !lost;
+        }
+
+        public int getPartition() {
+            return partition;
+        }
+
+        public String getStreamKey() {
+            return streamKey;
+        }
+
+        public String getConsumerName() {
+            return consumerName;
+        }
+    }
+}
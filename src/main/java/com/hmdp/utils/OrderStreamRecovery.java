@@ -0,0 +1,274 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+
+/**
+ * 订单消息的失败恢复，由各分区的消费线程定时调用：
+ * <ol>
+ *     <li>XPENDING 找出其它消费者名下空闲超过 claim-idle 的消息（消费者已下线），XCLAIM 转到自己名下</li>
+ *     <li>按页重新读取自己的pending list，每条消息的投递次数取自XPENDING，超过 max-deliveries 的
+ *     连同最后一次失败原因转入死信队列 stream.orders.dlq 并确认，不再阻塞分区</li>
+ *     <li>其余消息整批重试，失败时逐条重试，找出导致失败的消息，其它消息照常落库</li>
+ * </ol>
+ * 失败的消息留在pending list中，等下一次恢复再重试，不会在一个循环里反复重试。
+ * 死信中的订单在redis中已有购买记录，库存核对会按 missing-order 策略补建
+ */
+@Slf4j
+@Component
+public class OrderStreamRecovery {
+
+    //每页读取与转移的消息数
+    private static final int PAGE_SIZE = 1000;
+
+    //最后一次失败原因最多保留的消息数
+    private static final int MAX_ERRORS = 10_000;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final OrderStreamRouter router;
+
+    private final int maxDeliveries;
+
+    private final Duration claimIdle;
+
+    //消息id -> 最后一次处理失败的原因
+    private final Map<String, String> lastErrors = new ConcurrentHashMap<>();
+
+    private final LongAdder claimed = new LongAdder();
+    private final LongAdder recovered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+
+    public OrderStreamRecovery(StringRedisTemplate stringRedisTemplate, OrderStreamRouter router,
+                               SeckillProperties seckillProperties) {
+        SeckillProperties.OrderConsumer properties = seckillProperties.getOrderConsumer();
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.router = router;
+        this.maxDeliveries = Math.max(1, properties.getMaxDeliveries());
+        this.claimIdle = properties.getClaimIdle();
+    }
+
+    /**
+     * 处理一批消息，成功后由处理者确认
+     */
+    @FunctionalInterface
+    public interface BatchHandler {
+        void handle(List<MapRecord<String, Object, Object>> records);
+    }
+
+    /**
+     * 恢复一个分区：接手下线消费者的消息，再把自己pending list中的消息重试一遍
+     *
+     * @param pageSize 每次重试的消息数，与正常消费的批大小相同
+     */
+    public void recover(OrderConsumerPool.PartitionLease lease, int pageSize, BatchHandler handler) {
+        // 1.接手其它消费者空闲的消息
+        claimIdle(lease);
+        // 2.按页读取自己的pending list，XREADGROUP 指定id时返回pending list中id更大的消息，并把投递次数加一
+        String from = "0";
+        while (lease.isActive()) {
+            //XREADGROUP GROUP g1 {消费者} COUNT n STREAMS stream.orders:{分区} {上一页最后的id}
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                    Consumer.from(SECKILL_ORDER_GROUP, lease.getConsumerName()),
+                    StreamReadOptions.empty().count(pageSize),
+                    StreamOffset.create(lease.getStreamKey(), ReadOffset.from(from)));
+            if (records == null || records.isEmpty()) {
+                return;
+            }
+            // 3.超过投递次数的转入死信队列
+            Map<RecordId, Long> deliveries = deliveryCounts(lease, records);
+            List<MapRecord<String, Object, Object>> retry = new ArrayList<>(records.size());
+            for (MapRecord<String, Object, Object> record : records) {
+                long count = deliveries.getOrDefault(record.getId(), 1L);
+                if (count > maxDeliveries) {
+                    deadLetter(lease, record, count);
+                } else {
+                    retry.add(record);
+                }
+            }
+            // 4.其余的重试
+            handle(retry, handler);
+            from = records.get(records.size() - 1).getId().getValue();
+        }
+    }
+
+    //整批处理，失败时逐条处理，记录每条消息失败的原因
+    private void handle(List<MapRecord<String, Object, Object>> records, BatchHandler handler) {
+        if (records.isEmpty()) {
+            return;
+        }
+        try {
+            handler.handle(records);
+            succeeded(records);
+            return;
+        } catch (Exception e) {
+            if (records.size() == 1) {
+                failed(records.get(0), e);
+                return;
+            }
+        }
+        for (MapRecord<String, Object, Object> record : records) {
+            List<MapRecord<String, Object, Object>> single = Collections.singletonList(record);
+            try {
+                handler.handle(single);
+                succeeded(single);
+            } catch (Exception e) {
+                failed(record, e);
+            }
+        }
+    }
+
+    private void succeeded(List<MapRecord<String, Object, Object>> records) {
+        recovered.add(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            lastErrors.remove(record.getId().getValue());
+        }
+    }
+
+    private void failed(MapRecord<String, Object, Object> record, Exception e) {
+        failed.increment();
+        if (lastErrors.size() >= MAX_ERRORS) {
+            lastErrors.clear();
+        }
+        lastErrors.put(record.getId().getValue(), e.toString());
+        log.warn("订单消息 {} {} 处理失败，稍后重试：{}", record.getStream(), record.getId(), e.toString());
+    }
+
+    //XPENDING stream.orders:{分区} g1 {第一条} {最后一条} n {消费者}，取出每条消息的投递次数
+    private Map<RecordId, Long> deliveryCounts(OrderConsumerPool.PartitionLease lease,
+                                               List<MapRecord<String, Object, Object>> records) {
+        PendingMessages pending = stringRedisTemplate.opsForStream().pending(lease.getStreamKey(),
+                Consumer.from(SECKILL_ORDER_GROUP, lease.getConsumerName()),
+                Range.closed(records.get(0).getId().getValue(), records.get(records.size() - 1).getId().getValue()),
+                records.size());
+        Map<RecordId, Long> deliveries = new HashMap<>(records.size() * 2);
+        if (pending != null) {
+            for (PendingMessage message : pending) {
+                deliveries.put(message.getId(), message.getTotalDeliveryCount());
+            }
+        }
+        return deliveries;
+    }
+
+    //XADD stream.orders.dlq 原消息的字段 + 来源、次数与原因，再XACK原消息
+    private void deadLetter(OrderConsumerPool.PartitionLease lease, MapRecord<String, Object, Object> record, long deliveries) {
+        String error = lastErrors.remove(record.getId().getValue());
+        String reason = "超过最大投递次数 " + maxDeliveries + (error == null ? "" : "，最后一次失败：" + error);
+        Map<String, String> fields = new LinkedHashMap<>();
+        record.getValue().forEach((k, v) -> fields.put(String.valueOf(k), String.valueOf(v)));
+        fields.put("stream", lease.getStreamKey());
+        fields.put("messageId", record.getId().getValue());
+        fields.put("deliveries", String.valueOf(deliveries));
+        fields.put("reason", reason);
+        fields.put("deadAt", String.valueOf(System.currentTimeMillis()));
+        stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DLQ, fields);
+        stringRedisTemplate.opsForStream().acknowledge(lease.getStreamKey(), SECKILL_ORDER_GROUP, record.getId());
+        deadLettered.increment();
+        log.error("订单消息 {} {} 转入死信队列：{}，{}", lease.getStreamKey(), record.getId(), fields, reason);
+    }
+
+    //XPENDING 找出其它消费者名下空闲超过 claim-idle 的消息，XCLAIM（同样带min-idle，避免抢走刚投递的消息）转到自己名下
+    private void claimIdle(OrderConsumerPool.PartitionLease lease) {
+        byte[] rawKey = lease.getStreamKey().getBytes(StandardCharsets.UTF_8);
+        String from = "-";
+        while (true) {
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(lease.getStreamKey(), SECKILL_ORDER_GROUP, Range.closed(from, "+"), PAGE_SIZE);
+            if (pending == null || pending.isEmpty()) {
+                return;
+            }
+            List<RecordId> ids = new ArrayList<>();
+            for (PendingMessage message : pending) {
+                if (!lease.getConsumerName().equals(message.getConsumerName())
+                        && message.getElapsedTimeSinceLastDelivery().compareTo(claimIdle) >= 0) {
+                    ids.add(message.getId());
+                }
+            }
+            if (!ids.isEmpty()) {
+                List<RecordId> claimedIds = stringRedisTemplate.execute((RedisCallback<List<RecordId>>) connection ->
+                        connection.streamCommands().xClaimJustId(rawKey, SECKILL_ORDER_GROUP, lease.getConsumerName(),
+                                RedisStreamCommands.XClaimOptions.minIdle(claimIdle).ids(ids)));
+                int n = claimedIds == null ? 0 : claimedIds.size();
+                claimed.add(n);
+                log.info("从下线的消费者接手 {} 条未确认的消息：{}", n, lease.getStreamKey());
+            }
+            if (pending.size() < PAGE_SIZE) {
+                return;
+            }
+            RecordId last = pending.get(pending.size() - 1).getId();
+            from = last.getTimestamp() + "-" + (last.getSequence() + 1);
+        }
+    }
+
+    /**
+     * 各分区pending list的大小、最早一条消息的时长与所属消费者，以及接手、重试与死信的次数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> partitions = new LinkedHashMap<>();
+        long total = 0;
+        long oldestAge = 0;
+        for (int partition = 0; partition < router.partitions(); partition++) {
+            String streamKey = router.streamKey(partition);
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(streamKey))) {
+                continue;
+            }
+            //XPENDING stream.orders:{分区} g1
+            PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(streamKey, SECKILL_ORDER_GROUP);
+            Map<String, Object> stat = new LinkedHashMap<>();
+            long size = summary == null ? 0 : summary.getTotalPendingMessages();
+            long age = 0;
+            if (size > 0) {
+                // 消息id的前半部分是写入时的毫秒时间戳
+                String minId = summary.minMessageId();
+                age = Math.max(0, System.currentTimeMillis() - RecordId.of(minId).getTimestamp());
+                stat.put("consumers", summary.getPendingMessagesPerConsumer());
+            }
+            stat.put("pending", size);
+            stat.put("oldestAgeMillis", age);
+            partitions.put(streamKey, stat);
+            total += size;
+            oldestAge = Math.max(oldestAge, age);
+        }
+        Long dlqSize = stringRedisTemplate.opsForStream().size(SECKILL_ORDER_DLQ);
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", total);
+        stats.put("oldestAgeMillis", oldestAge);
+        stats.put("partitions", partitions);
+        stats.put("claimed", claimed.sum());
+        stats.put("recovered", recovered.sum());
+        stats.put("failed", failed.sum());
+        stats.put("deadLettered", deadLettered.sum());
+        stats.put("deadLetterQueue", dlqSize == null ? 0 : dlqSize);
+        stats.put("maxDeliveries", maxDeliveries);
+        return stats;
+    }
+}
@@ -0,0 +1,50 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import org.springframework.stereotype.Component;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM;
+
+/**
+ * 秒杀订单消息的分区：按用户id或优惠券id取模，分散到 stream.orders:0 ~ stream.orders:{K-1} 共K个stream
+ * <p>
+ * 同一用户对同一优惠券的订单总是落在同一分区，分区内由一个消费者按顺序处理，一人一单的去重在分区内即可完成
+ */
+@Component
+public class OrderStreamRouter {
+
+    private final int partitions;
+
+    private final boolean byUser;
+
+    public OrderStreamRouter(SeckillProperties seckillProperties) {
+        SeckillProperties.OrderConsumer properties = seckillProperties.getOrderConsumer();
+        this.partitions = Math.max(1, properties.getPartitions());
+        this.byUser = properties.getPartitionBy() == SeckillProperties.PartitionBy.USER;
+    }
+
+    public int partitions() {
+        return partitions;
+    }
+
+    /**
+     * 订单所在的分区
+     */
+    public int partitionOf(Long voucherId, Long userId) {
+        return (int) Math.floorMod(byUser ? userId : voucherId, (long) partitions);
+    }
+
+    /**
+     * 分区对应的stream
+     */
+    public String streamKey(int partition) {
+        return SECKILL_ORDER_STREAM + ":" + partition;
+    }
+
+    /**
+     * 订单应写入的stream
+     */
+    public String streamKey(Long voucherId, Long userId) {
+        return streamKey(partitionOf(voucherId, userId));
+    }
+}
@@ -0,0 +1,235 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.Outbox;
+import com.hmdp.mapper.OutboxMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 发件箱事件的投递：按类型分组交给 {@link OutboxHandler} 批量处理，成功的删除，失败的按指数退避推迟重试，
+ * 超过最大次数的标记为失败，不再投递
+ * <p>
+ * 事务提交后由 {@link OutboxWriter} 提交到投递线程；节点宕机、投递线程排满等情况由定时轮询兜底，
+ * 轮询只处理到达 next_retry_time 的事件，新事件的该时间为写入时间加 poll-delay，避免与提交后的投递重复。
+ * 多个节点同时轮询时，按读到的 next_retry_time 逐条认领（条件更新推迟 claim-timeout），只投递认领成功的事件
+ */
+@Slf4j
+@Component
+public class OutboxDispatcher {
+
+    private final OutboxMapper outboxMapper;
+
+    //事件类型 -> 处理器
+    private final Map<String, OutboxHandler> handlers = new HashMap<>();
+
+    private final CacheProperties.Outbox properties;
+
+    //提交后投递的线程，排满时丢弃，交给轮询
+    private final ThreadPoolExecutor dispatchExecutor;
+
+    private ScheduledExecutorService poller;
+
+    private final LongAdder dispatched = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    public OutboxDispatcher(OutboxMapper outboxMapper, List<OutboxHandler> handlerList, CacheProperties cacheProperties) {
+        this.outboxMapper = outboxMapper;
+        this.properties = cacheProperties.getOutbox();
+        for (OutboxHandler handler : handlerList) {
+            handlers.put(handler.type(), handler);
+        }
+        this.dispatchExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, properties.getQueueCapacity())),
+                new NamedThreadFactory("outbox-dispatch-", true),
+                (r, executor) -> log.warn("发件箱投递队列已满，交给轮询处理"));
+    }
+
+    @PostConstruct
+    public void start() {
+        long interval = properties.getPollInterval().toMillis();
+        if (interval <= 0) {
+            return;
+        }
+        poller = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("outbox-poller-", true));
+        poller.scheduleWithFixedDelay(this::poll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 异步投递，用于事务提交之后，不阻塞请求线程
+     */
+    public void dispatchAsync(List<Outbox> events) {
+        if (!events.isEmpty()) {
+            dispatchExecutor.execute(() -> dispatch(events));
+        }
+    }
+
+    /**
+     * 投递一批事件，同一类型的事件合并为一次处理；无法解析的事件单独记为失败，不影响同组的其它事件
+     */
+    public void dispatch(List<Outbox> events) {
+        Map<String, List<Outbox>> byType = events.stream()
+                .collect(Collectors.groupingBy(Outbox::getType, LinkedHashMap::new, Collectors.toList()));
+        byType.forEach((type, all) -> {
+            OutboxHandler handler = handlers.get(type);
+            if (handler == null) {
+                fail(all, "没有类型为 " + type + " 的处理器");
+                return;
+            }
+            // 1.逐条解析
+            List<Outbox> group = new ArrayList<>(all.size());
+            List<JSONObject> payloads = new ArrayList<>(all.size());
+            for (Outbox event : all) {
+                try {
+                    payloads.add(JSONUtil.parseObj(event.getPayload()));
+                    group.add(event);
+                } catch (Exception e) {
+                    log.warn("发件箱事件 {} 无法解析：{}", event.getId(), e.toString());
+                    fail(Collections.singletonList(event), e.toString());
+                }
+            }
+            if (group.isEmpty()) {
+                return;
+            }
+            // 2.整组处理，成功后删除
+            try {
+                handler.handle(payloads);
+                outboxMapper.deleteBatchIds(group.stream().map(Outbox::getId).collect(Collectors.toList()));
+                dispatched.add(group.size());
+            } catch (Exception e) {
+                log.warn("发件箱事件投递失败，类型 {}，共 {} 条", type, group.size(), e);
+                fail(group, e.toString());
+            }
+        });
+    }
+
+    /**
+     * 轮询一次到期的事件
+     *
+     * @return 本次投递的条数
+     */
+    public int pollOnce() {
+        // SELECT * FROM tb_outbox WHERE status = 0 AND next_retry_time <= ? ORDER BY id LIMIT ?
+        List<Outbox> events = outboxMapper.selectList(new QueryWrapper<Outbox>()
+                .eq("status", Outbox.STATUS_PENDING)
+                .le("next_retry_time", LocalDateTime.now())
+                .orderByAsc("id")
+                .last("LIMIT " + properties.getBatchSize()));
+        if (events.isEmpty()) {
+            return 0;
+        }
+        List<Outbox> claimed = claim(events);
+        if (!claimed.isEmpty()) {
+            dispatch(claimed);
+        }
+        // 按读到的条数判断是否还有积压，被其它节点认领的也算在内
+        return events.size();
+    }
+
+    /**
+     * 逐条认领：next_retry_time 仍是读到的值时推迟 claim-timeout，其它节点的轮询不会再读到；
+     * 更新失败说明已被其它节点认领或已处理
+     */
+    private List<Outbox> claim(List<Outbox> events) {
+        LocalDateTime claimUntil = LocalDateTime.now().plus(properties.getClaimTimeout());
+        List<Outbox> claimed = new ArrayList<>(events.size());
+        for (Outbox event : events) {
+            // UPDATE tb_outbox SET next_retry_time = ? WHERE id = ? AND status = 0 AND next_retry_time = ?
+            int updated = outboxMapper.update(null, new UpdateWrapper<Outbox>()
+                    .set("next_retry_time", claimUntil)
+                    .eq("id", event.getId())
+                    .eq("status", Outbox.STATUS_PENDING)
+                    .eq("next_retry_time", event.getNextRetryTime()));
+            if (updated == 1) {
+                claimed.add(event);
+            }
+        }
+        return claimed;
+    }
+
+    private void poll() {
+        try {
+            // 一批满了说明可能还有积压，继续轮询
+            while (pollOnce() >= properties.getBatchSize()) {
+                log.debug("发件箱仍有积压，继续轮询");
+            }
+        } catch (Exception e) {
+            log.error("轮询发件箱失败！", e);
+        }
+    }
+
+    //失败次数在数据库中加一并推迟重试，超过最大次数的不再投递；内存中的次数可能已过时，只用于计算退避与日志
+    private void fail(List<Outbox> events, String error) {
+        failed.add(events.size());
+        LocalDateTime now = LocalDateTime.now();
+        int maxAttempts = properties.getMaxAttempts();
+        for (Outbox event : events) {
+            int attempts = event.getAttempts() == null ? 1 : event.getAttempts() + 1;
+            if (attempts >= maxAttempts) {
+                log.error("发件箱事件 {} 重试 {} 次仍失败，不再投递：{}", event.getId(), attempts, event.getPayload());
+            }
+            // status 写在 attempts 之前：MySQL 按顺序赋值，后面的表达式会读到已加一的 attempts
+            // UPDATE tb_outbox SET status = CASE WHEN attempts + 1 >= ? THEN 1 ELSE 0 END, attempts = attempts + 1,
+            //   next_retry_time = ?, last_error = ? WHERE id = ?
+            outboxMapper.update(null, new UpdateWrapper<Outbox>()
+                    .setSql("status = CASE WHEN attempts + 1 >= " + maxAttempts + " THEN " + Outbox.STATUS_DEAD
+                            + " ELSE " + Outbox.STATUS_PENDING + " END")
+                    .setSql("attempts = attempts + 1")
+                    .set("next_retry_time", now.plusNanos(backoffMillis(attempts) * 1_000_000))
+                    .set("last_error", StrUtil.maxLength(error, 250))
+                    .eq("id", event.getId()));
+        }
+    }
+
+    //指数退避：base * 2^(n-1)，不超过上限
+    private long backoffMillis(int attempts) {
+        long base = properties.getRetryBackoff().toMillis();
+        long max = properties.getMaxRetryBackoff().toMillis();
+        return Math.min(max, base << Math.min(attempts - 1, 30));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", outboxMapper.selectCount(new QueryWrapper<Outbox>().eq("status", Outbox.STATUS_PENDING)));
+        stats.put("dead", outboxMapper.selectCount(new QueryWrapper<Outbox>().eq("status", Outbox.STATUS_DEAD)));
+        stats.put("dispatched", dispatched.sum());
+        stats.put("failed", failed.sum());
+        stats.put("queued", dispatchExecutor.getQueue().size());
+        stats.put("handlers", new ArrayList<>(handlers.keySet()));
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+        // 已提交的事件尽量投递完，来不及的由其它节点或重启后的轮询处理
+        dispatchExecutor.shutdown();
+        dispatchExecutor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+}
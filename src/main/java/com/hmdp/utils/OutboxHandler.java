@@ -0,0 +1,25 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * 发件箱事件的处理器，每种事件类型一个
+ * <p>
+ * 同一事件可能被投递多次（提交后投递与轮询兜底重叠、部分失败后重试），处理必须是幂等的
+ */
+public interface OutboxHandler {
+
+    /**
+     * 处理的事件类型
+     */
+    String type();
+
+    /**
+     * 批量处理同一类型的事件，按写入顺序排列；抛出异常表示整批失败，稍后重试
+     *
+     * @param payloads 各事件的内容
+     */
+    void handle(List<JSONObject> payloads);
+}
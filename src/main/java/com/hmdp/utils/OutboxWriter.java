@@ -0,0 +1,125 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Outbox;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.OutboxMapper;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 写入发件箱：事件与业务数据在同一个事务中写入，事务回滚时事件一起回滚；
+ * 事务提交后把本事务的事件一次性交给 {@link OutboxDispatcher} 投递，没有事务时写入后立即投递
+ */
+@Component
+public class OutboxWriter {
+
+    private final OutboxMapper outboxMapper;
+
+    private final OutboxDispatcher dispatcher;
+
+    private final Duration pollDelay;
+
+    public OutboxWriter(OutboxMapper outboxMapper, OutboxDispatcher dispatcher, CacheProperties cacheProperties) {
+        this.outboxMapper = outboxMapper;
+        this.dispatcher = dispatcher;
+        this.pollDelay = cacheProperties.getOutbox().getPollDelay();
+    }
+
+    /**
+     * 删除缓存（同时清理各节点的本地缓存）
+     */
+    public void evictCache(String keyPrefix, Object id) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("prefix", keyPrefix);
+        payload.put("id", id);
+        write(CacheEvictOutboxHandler.TYPE, payload);
+    }
+
+    /**
+     * 写入或更新店铺在地理位置索引中的坐标
+     */
+    public void addShopGeo(Shop shop) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("op", ShopGeoOutboxHandler.ADD);
+        payload.put("typeId", shop.getTypeId());
+        payload.put("shopId", shop.getId());
+        payload.put("x", shop.getX());
+        payload.put("y", shop.getY());
+        write(ShopGeoOutboxHandler.TYPE, payload);
+    }
+
+    /**
+     * 从某个类型的地理位置索引中移除店铺
+     */
+    public void removeShopGeo(Long typeId, Long shopId) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("op", ShopGeoOutboxHandler.REMOVE);
+        payload.put("typeId", typeId);
+        payload.put("shopId", shopId);
+        write(ShopGeoOutboxHandler.TYPE, payload);
+    }
+
+    /**
+     * 把笔记推送到作者所有粉丝的收件箱
+     */
+    public void pushFeed(Blog blog, long time) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("userId", blog.getUserId());
+        payload.put("blogId", blog.getId());
+        payload.put("time", time);
+        write(FeedPushOutboxHandler.TYPE, payload);
+    }
+
+    public void write(String type, Map<String, Object> payload) {
+        LocalDateTime now = LocalDateTime.now();
+        Outbox event = new Outbox()
+                .setType(type)
+                .setPayload(JSONUtil.toJsonStr(payload))
+                .setStatus(Outbox.STATUS_PENDING)
+                .setAttempts(0)
+                // 提交后投递失败或没有投递时，轮询在这之后兜底
+                .setNextRetryTime(now.plus(pollDelay))
+                .setCreateTime(now);
+        outboxMapper.insert(event);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            dispatcher.dispatchAsync(Collections.singletonList(event));
+            return;
+        }
+        eventsOfTransaction().add(event);
+    }
+
+    //当前事务写入的事件，第一次写入时注册事务完成的回调
+    @SuppressWarnings("unchecked")
+    private List<Outbox> eventsOfTransaction() {
+        List<Outbox> events = (List<Outbox>) TransactionSynchronizationManager.getResource(this);
+        if (events != null) {
+            return events;
+        }
+        List<Outbox> created = new ArrayList<>();
+        TransactionSynchronizationManager.bindResource(this, created);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(OutboxWriter.this);
+                // 此时连接仍属于原事务，不能在当前线程里更新发件箱，交给投递线程
+                if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                    dispatcher.dispatchAsync(created);
+                }
+            }
+        });
+        return created;
+    }
+}
@@ -0,0 +1,217 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 基于redis位图的布隆过滤器，可选在本地保留一份位图副本
+ * <p>
+ * 位数 m = -n·ln(p) / (ln2)²，哈希次数 k = m/n·ln2，n为预计元素数量，p为期望误判率。
+ * 第i个哈希位置由murmur3的两个64位结果组合得到：h1 + i·h2
+ */
+public class RedisBloomFilter {
+
+    private final String redisKey;
+    private final long expectedInsertions;
+    private final double fpp;
+    private final long numBits;
+    private final int numHashes;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    //本地位图副本，为null表示每次判断都查redis
+    private final AtomicLongArray localBits;
+
+    //全量加载完成前不能拦截任何请求，否则新数据会被误判为不存在
+    private volatile boolean ready = false;
+
+    public RedisBloomFilter(String redisKey, long expectedInsertions, double fpp, boolean localCopy,
+                            StringRedisTemplate stringRedisTemplate) {
+        this.redisKey = redisKey;
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        this.stringRedisTemplate = stringRedisTemplate;
+        long bits = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        //本地副本以long数组保存，位数限制在int范围内
+        this.numBits = Math.max(64, Math.min(bits, Integer.MAX_VALUE));
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+        this.localBits = localCopy ? new AtomicLongArray((int) ((numBits + 63) >>> 6)) : null;
+    }
+
+    /**
+     * 计算元素对应的k个位
+     */
+    long[] offsets(Object value) {
+        long[] hash = MurmurHash.hash128(value.toString());
+        long[] offsets = new long[numHashes];
+        long combined = hash[0];
+        for (int i = 0; i < numHashes; i++) {
+            //取非负后再取模
+            offsets[i] = (combined & Long.MAX_VALUE) % numBits;
+            combined += hash[1];
+        }
+        return offsets;
+    }
+
+    /**
+     * 判断元素是否可能存在，返回false则一定不存在
+     */
+    public boolean mightContain(Object value) {
+        if (!ready) {
+            return true;
+        }
+        long[] offsets = offsets(value);
+        if (localBits != null) {
+            for (long offset : offsets) {
+                if (!getLocal(offset)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        // 管道批量 GETBIT
+        List<Object> bits = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] key = rawKey();
+            for (long offset : offsets) {
+                connection.getBit(key, offset);
+            }
+            return null;
+        });
+        for (Object bit : bits) {
+            if (!Boolean.TRUE.equals(bit)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 添加元素，同时写redis与本地副本
+     */
+    public void add(Object value) {
+        long[] offsets = offsets(value);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] key = rawKey();
+            for (long offset : offsets) {
+                connection.setBit(key, offset, true);
+            }
+            return null;
+        });
+        addLocal(offsets);
+    }
+
+    /**
+     * 只写本地副本，用于接收其它节点的新增通知
+     */
+    public void addLocal(Object value) {
+        addLocal(offsets(value));
+    }
+
+    private void addLocal(long[] offsets) {
+        if (localBits == null) {
+            return;
+        }
+        for (long offset : offsets) {
+            int index = (int) (offset >>> 6);
+            long mask = 1L << (offset & 63);
+            long old;
+            do {
+                old = localBits.get(index);
+            } while ((old & mask) == 0 && !localBits.compareAndSet(index, old, old | mask));
+        }
+    }
+
+    private boolean getLocal(long offset) {
+        return (localBits.get((int) (offset >>> 6)) & (1L << (offset & 63))) != 0;
+    }
+
+    /**
+     * 全量加载一批元素
+     * <p>
+     * 先在内存中算好位图，整体写入临时key，再用 BITOP OR 合并到正式key，
+     * 避免覆盖加载期间其它节点新增的数据；合并后再把redis中的位图拉回本地
+     */
+    public void loadAll(Collection<?> values) {
+        byte[] bitmap = new byte[(int) ((numBits + 7) >>> 3)];
+        for (Object value : values) {
+            for (long offset : offsets(value)) {
+                // redis位图的第0位是第一个字节的最高位
+                bitmap[(int) (offset >>> 3)] |= (byte) (0x80 >>> (offset & 7));
+            }
+        }
+        byte[] key = rawKey();
+        byte[] tmpKey = (redisKey + ":tmp:" + System.nanoTime()).getBytes(StandardCharsets.UTF_8);
+        byte[] merged = stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> {
+            connection.set(tmpKey, bitmap);
+            connection.bitOp(RedisStringCommands.BitOperation.OR, key, key, tmpKey);
+            connection.del(tmpKey);
+            return localBits == null ? null : connection.get(key);
+        });
+        if (merged != null) {
+            loadLocal(merged);
+        }
+        ready = true;
+    }
+
+    private void loadLocal(byte[] bitmap) {
+        for (int index = 0; index < localBits.length(); index++) {
+            long word = 0;
+            for (int bit = 0; bit < 64; bit++) {
+                long offset = ((long) index << 6) + bit;
+                int byteIndex = (int) (offset >>> 3);
+                if (byteIndex < bitmap.length && (bitmap[byteIndex] & (0x80 >>> (offset & 7))) != 0) {
+                    word |= 1L << bit;
+                }
+            }
+            if (word != 0) {
+                long old;
+                do {
+                    old = localBits.get(index);
+                } while (!localBits.compareAndSet(index, old, old | word));
+            }
+        }
+    }
+
+    /**
+     * 容量、内存与当前误判率
+     */
+    public Map<String, Object> stats() {
+        long bitCount;
+        if (localBits != null) {
+            bitCount = 0;
+            for (int i = 0; i < localBits.length(); i++) {
+                bitCount += Long.bitCount(localBits.get(i));
+            }
+        } else {
+            Long count = stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.bitCount(rawKey()));
+            bitCount = count == null ? 0 : count;
+        }
+        double fillRatio = (double) bitCount / numBits;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("redisKey", redisKey);
+        stats.put("ready", ready);
+        stats.put("expectedInsertions", expectedInsertions);
+        stats.put("expectedFpp", fpp);
+        stats.put("numBits", numBits);
+        stats.put("numHashes", numHashes);
+        stats.put("memoryBytes", (numBits + 7) >>> 3);
+        stats.put("localCopy", localBits != null);
+        stats.put("bitCount", bitCount);
+        // 按置位比例估算已插入的元素个数与当前误判率
+        stats.put("approximateElements", Math.round(-(double) numBits / numHashes * Math.log(1 - fillRatio)));
+        stats.put("currentFpp", Math.pow(fillRatio, numHashes));
+        return stats;
+    }
+
+    private byte[] rawKey() {
+        return redisKey.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -8,15 +8,64 @@ public class RedisConstants {
 
     public static final Long CACHE_NULL_TTL = 2L;
 
-    public static final Long CACHE_SHOP_TTL = 30L;
+    public static final long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    public static final long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    public static final long CACHE_VOUCHER_TTL = 10L;
+    public static final String CACHE_VOUCHER_SHOP_KEY = "cache:voucher:shop:";
+
+    public static final long CACHE_SHOP_TYPE_TTL = 60L;
+    public static final String CACHE_SHOP_TYPE_KEY = "cache:shop-type:";
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_REBUILT_CHANNEL = "cache:rebuilt";
+
+    public static final String BLOOM_KEY = "bloom:";
+    public static final String BLOOM_ADD_CHANNEL = "bloom:add";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
+    //缓存重建锁，拼接完整的缓存key，如 lock:cache:shop:1
+    public static final String LOCK_CACHE_KEY = "lock:";
+    public static final Long LOCK_CACHE_TTL = 10L;
+
+    public static final String CACHE_STRATEGY_KEY = "cache:strategy";
+    public static final String CACHE_STRATEGY_CHANNEL = "cache:strategy:changed";
+
+    //命名空间的版本号，拼接命名空间，如 cache:ns:cache:shop:
+    public static final String CACHE_NS_KEY = "cache:ns:";
+    public static final String CACHE_NS_CHANNEL = "cache:ns-changed";
+    //单个key重建中的版本号，拼接命名空间
+    public static final String CACHE_NS_BUILDING_KEY = "cache:ns-building:";
+
     public static final String LOCK_ORDER_KEY="lock:order:";
 
+    //秒杀订单的消息队列与消费者组，消息队列按分区拼接，如 stream.orders:0
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    //超过最大投递次数的订单消息，所有分区共用
+    public static final String SECKILL_ORDER_DLQ = "stream.orders.dlq";
+    //分区的租约与消费节点的心跳
+    public static final String SECKILL_ORDER_LEASE_KEY = "seckill:order:lease:";
+    public static final String SECKILL_ORDER_NODES_KEY = "seckill:order:nodes";
+
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    //秒杀券的购买者集合与库存分桶数
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_BUCKETS_KEY = "seckill:buckets:";
+    //预热的秒杀时间窗口（hash，begin/end 为毫秒时间戳），以及已预热的秒杀券（zset，分数为结束时间）
+    public static final String SECKILL_VOUCHER_KEY = "seckill:voucher:";
+    public static final String SECKILL_PREHEATED_KEY = "seckill:preheated";
+    //秒杀优惠券售罄与补货的通知
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:sold-out";
+    //秒杀库存核对的租约，同一时间只有一个节点核对
+    public static final String SECKILL_RECONCILE_LEASE_KEY = "seckill:reconcile:lease";
+    //秒杀接口滑动窗口的计数，seckill:limit:{优惠券id}:{窗口} 与 seckill:limit:{优惠券id}:{用户id}:{窗口}
+    public static final String SECKILL_LIMIT_KEY = "seckill:limit:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FOLLOWS_KEY = "follows:";
     public static final String FEED_KEY = "feed:";
@@ -27,6 +27,8 @@ public class RedisIdWorker {
      */
     private static final int COUNT_BITS = 32;
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
     private StringRedisTemplate stringRedisTemplate;
 
     public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
@@ -36,14 +38,25 @@ public class RedisIdWorker {
     public long nextId(String keyPrefix) {
         //1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
-        long timestamp = nowSecond - BEGIN_TIMESTAMP;
+        long timestamp = timestamp(now);
         //2.生成序列号
-        //2.1.获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        //2.2.自增长（Redis Incr 命令将 key 中储存的数字值增一。）
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        //2.1.自增长（Redis Incr 命令将 key 中储存的数字值增一。）
+        long count = stringRedisTemplate.opsForValue().increment(countKey(keyPrefix, now));
         //3.拼接时间戳和序列号
         return timestamp << COUNT_BITS | count;
     }
+
+    /**
+     * ID的时间戳部分，供在lua脚本中自增序列号、拼接ID的调用方使用
+     */
+    public long timestamp(LocalDateTime now) {
+        return now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+    }
+
+    /**
+     * 序列号的key，按天区分，如 icr:order:2022:01:01
+     */
+    public String countKey(String keyPrefix, LocalDateTime now) {
+        return "icr:" + keyPrefix + ":" + now.format(DATE_FORMATTER);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,206 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_LIMIT_KEY;
+
+/**
+ * 秒杀接口的准入控制，请求依次经过两道限流：
+ * <ol>
+ *     <li>本节点每个优惠券一个令牌桶，超出节点容量的请求不访问redis直接拒绝</li>
+ *     <li>redis中按优惠券与用户的滑动窗口计数，限制所有节点合计放行的请求数</li>
+ * </ol>
+ * 被拒绝的请求由 {@link SeckillAdmissionInterceptor} 返回429，提示稍后重试。
+ * redis异常时放行，准入控制只是保护措施，不应成为下单的单点
+ */
+@Slf4j
+@Component
+public class SeckillAdmission {
+
+    private static final DefaultRedisScript<Long> LIMIT_SCRIPT;
+    static {
+        LIMIT_SCRIPT = new DefaultRedisScript<>();
+        LIMIT_SCRIPT.setLocation(new ClassPathResource("seckill_limit.lua"));
+        LIMIT_SCRIPT.setResultType(Long.class);
+    }
+
+    //令牌桶超过这个数量时清理闲置（已满）的桶，新建的桶同样是满的，清理不影响限流结果
+    private static final int MAX_IDLE_BUCKETS = 4096;
+
+    public enum Decision {
+        ADMITTED, LOCAL_LIMITED, VOUCHER_LIMITED, USER_LIMITED
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillProperties.Admission properties;
+
+    private final long windowMillis;
+
+    //优惠券id -> 本节点的令牌桶
+    private final Map<Long, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder localLimited = new LongAdder();
+    private final LongAdder voucherLimited = new LongAdder();
+    private final LongAdder userLimited = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    public SeckillAdmission(StringRedisTemplate stringRedisTemplate, SeckillProperties seckillProperties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.properties = seckillProperties.getAdmission();
+        this.windowMillis = Math.max(1, properties.getWindow().toMillis());
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * 建议客户端等待的秒数，一个窗口
+     */
+    public long retryAfterSeconds() {
+        return (windowMillis + 999) / 1000;
+    }
+
+    /**
+     * 判断是否放行用户对优惠券的秒杀请求
+     */
+    public Decision admit(Long voucherId, Long userId) {
+        SeckillProperties.Limit limit = properties.limitOf(voucherId);
+        // 1.本节点令牌桶
+        if (!bucket(voucherId, limit).tryAcquire()) {
+            localLimited.increment();
+            return Decision.LOCAL_LIMITED;
+        }
+        // 2.全局滑动窗口
+        Decision decision = checkWindow(voucherId, userId, limit);
+        switch (decision) {
+            case VOUCHER_LIMITED:
+                voucherLimited.increment();
+                break;
+            case USER_LIMITED:
+                userLimited.increment();
+                break;
+            default:
+                admitted.increment();
+        }
+        return decision;
+    }
+
+    private Decision checkWindow(Long voucherId, Long userId, SeckillProperties.Limit limit) {
+        int voucherLimit = limit.getVoucherLimit() == null ? 0 : limit.getVoucherLimit();
+        int userLimit = limit.getUserLimit() == null ? 0 : limit.getUserLimit();
+        if (voucherLimit <= 0 && userLimit <= 0) {
+            return Decision.ADMITTED;
+        }
+        long now = System.currentTimeMillis();
+        long window = now / windowMillis;
+        // 上一窗口还有多少比例落在滑动窗口内
+        double weight = 1 - (double) (now % windowMillis) / windowMillis;
+        String voucherKey = SECKILL_LIMIT_KEY + voucherId + ":";
+        String userKey = voucherKey + userId + ":";
+        Long result;
+        try {
+            result = stringRedisTemplate.execute(LIMIT_SCRIPT,
+                    Arrays.asList(voucherKey + window, voucherKey + (window - 1), userKey + window, userKey + (window - 1)),
+                    String.valueOf(voucherLimit), String.valueOf(userLimit),
+                    String.valueOf(weight), String.valueOf(windowMillis * 2));
+        } catch (Exception e) {
+            errors.increment();
+            log.warn("秒杀限流脚本执行失败，放行请求：{}", e.toString());
+            return Decision.ADMITTED;
+        }
+        if (result == null || result == 0) {
+            return Decision.ADMITTED;
+        }
+        return result == 1 ? Decision.VOUCHER_LIMITED : Decision.USER_LIMITED;
+    }
+
+    private TokenBucket bucket(Long voucherId, SeckillProperties.Limit limit) {
+        TokenBucket bucket = buckets.get(voucherId);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (buckets.size() >= MAX_IDLE_BUCKETS) {
+            buckets.values().removeIf(TokenBucket::isFull);
+        }
+        int rate = limit.getLocalRate() == null ? 0 : limit.getLocalRate();
+        int burst = limit.getLocalBurst() == null ? rate : limit.getLocalBurst();
+        return buckets.computeIfAbsent(voucherId, id -> new TokenBucket(rate, Math.max(1, burst)));
+    }
+
+    /**
+     * 放行与拒绝的次数
+     */
+    public Map<String, Object> stats() {
+        long shed = localLimited.sum() + voucherLimited.sum() + userLimited.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", properties.isEnabled());
+        stats.put("window", properties.getWindow().toString());
+        stats.put("admitted", admitted.sum());
+        stats.put("shed", shed);
+        stats.put("localLimited", localLimited.sum());
+        stats.put("voucherLimited", voucherLimited.sum());
+        stats.put("userLimited", userLimited.sum());
+        stats.put("errors", errors.sum());
+        stats.put("limit", properties.getLimit());
+        stats.put("vouchers", properties.getVouchers());
+        return stats;
+    }
+
+    /**
+     * 非阻塞的令牌桶，按时间补充令牌
+     */
+    private static class TokenBucket {
+
+        private final double nanosPerToken;
+
+        private final double capacity;
+
+        private double tokens;
+
+        private long lastRefill = System.nanoTime();
+
+        private TokenBucket(int permitsPerSecond, int capacity) {
+            this.nanosPerToken = permitsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / (double) permitsPerSecond : 0;
+            this.capacity = capacity;
+            this.tokens = capacity;
+        }
+
+        private synchronized boolean tryAcquire() {
+            if (nanosPerToken <= 0) {
+                return true;
+            }
+            refill();
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        private synchronized boolean isFull() {
+            refill();
+            return tokens >= capacity;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = nanosPerToken <= 0 ? capacity : Math.min(capacity, tokens + (now - lastRefill) / nanosPerToken);
+            lastRefill = now;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 秒杀接口的准入拦截器，排在登录拦截器之后，超出容量时直接返回429，不再进入下单逻辑
+ */
+public class SeckillAdmissionInterceptor implements HandlerInterceptor {
+
+    private final SeckillAdmission seckillAdmission;
+
+    public SeckillAdmissionInterceptor(SeckillAdmission seckillAdmission) {
+        this.seckillAdmission = seckillAdmission;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!seckillAdmission.isEnabled()) {
+            return true;
+        }
+        // 1.取出优惠券id与用户，解析不了的交给后面处理
+        Long voucherId = voucherId(request);
+        UserDTO user = UserHolder.getUser();
+        if (voucherId == null || user == null) {
+            return true;
+        }
+        // 2.判断是否放行
+        SeckillAdmission.Decision decision = seckillAdmission.admit(voucherId, user.getId());
+        if (decision == SeckillAdmission.Decision.ADMITTED) {
+            return true;
+        }
+        // 3.拒绝，提示客户端稍后重试
+        String message = decision == SeckillAdmission.Decision.USER_LIMITED ? "请求过于频繁，请稍后重试" : "系统繁忙，请稍后重试";
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader("Retry-After", String.valueOf(seckillAdmission.retryAfterSeconds()));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(JSONUtil.toJsonStr(Result.fail(message)));
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Long voucherId(HttpServletRequest request) {
+        Map<String, String> variables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String id = variables == null ? null : variables.get("id");
+        try {
+            return id == null ? null : Long.valueOf(id);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_PREHEATED_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_VOUCHER_KEY;
+
+/**
+ * 秒杀券预热：定时把即将开始（lead 之内）与进行中的秒杀券写入redis，包括库存与时间窗口 seckill:voucher:{id}，
+ * 秒杀脚本据此判断是否在秒杀时间内，下单的资格判断不再访问数据库
+ * <p>
+ * 库存已存在时不覆盖，重复预热只会刷新时间窗口（数据库中修改的时间在下一轮生效）；redis数据丢失后下一轮重新写入，
+ * 购买者集合由 {@link SeckillReconciler} 按数据库中的订单补回。
+ * 预热过的秒杀券按结束时间记录在 seckill:preheated，结束超过 retention 后删除redis中的相关数据
+ */
+@Slf4j
+@Component
+public class SeckillPreheater {
+
+    private final ISeckillVoucherService seckillVoucherService;
+
+    private final SeckillStockBuckets seckillStockBuckets;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillProperties seckillProperties;
+
+    private final AtomicLong preheated = new AtomicLong();
+
+    private final AtomicLong stockLoaded = new AtomicLong();
+
+    private final AtomicLong cleaned = new AtomicLong();
+
+    private volatile long lastRunTime;
+
+    private ScheduledExecutorService scheduler;
+
+    public SeckillPreheater(ISeckillVoucherService seckillVoucherService, SeckillStockBuckets seckillStockBuckets,
+                            StringRedisTemplate stringRedisTemplate, SeckillProperties seckillProperties) {
+        this.seckillVoucherService = seckillVoucherService;
+        this.seckillStockBuckets = seckillStockBuckets;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillProperties = seckillProperties;
+    }
+
+    @PostConstruct
+    public void start() {
+        SeckillProperties.Preheat properties = seckillProperties.getPreheat();
+        long interval = properties.getInterval().toMillis();
+        if (!properties.isEnabled() || interval <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("seckill-preheat-", true));
+        // 启动时立即执行一次，重启或redis恢复后尽快补齐
+        scheduler.scheduleWithFixedDelay(this::run, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void run() {
+        try {
+            preheatUpcoming();
+            cleanExpired();
+            lastRunTime = System.currentTimeMillis();
+        } catch (Exception e) {
+            log.error("秒杀券预热失败", e);
+        }
+    }
+
+    /**
+     * 预热 lead 之内开始、尚未结束的秒杀券
+     */
+    private void preheatUpcoming() {
+        SeckillProperties.Preheat properties = seckillProperties.getPreheat();
+        LocalDateTime now = LocalDateTime.now();
+        long lastId = 0;
+        while (true) {
+            // SELECT * FROM tb_seckill_voucher WHERE begin_time <= ? AND end_time >= ? AND voucher_id > ? ORDER BY voucher_id LIMIT ?
+            List<SeckillVoucher> batch = seckillVoucherService.query()
+                    .le("begin_time", now.plus(properties.getLead())).ge("end_time", now)
+                    .gt("voucher_id", lastId).orderByAsc("voucher_id")
+                    .last("LIMIT " + properties.getBatchSize()).list();
+            if (batch.isEmpty()) {
+                return;
+            }
+            batch.forEach(this::preheat);
+            lastId = batch.get(batch.size() - 1).getVoucherId();
+        }
+    }
+
+    /**
+     * 是否需要在创建时立即预热：lead 之内开始的秒杀券，或关闭了定时预热
+     */
+    public boolean isDue(SeckillVoucher voucher) {
+        SeckillProperties.Preheat properties = seckillProperties.getPreheat();
+        return !properties.isEnabled() || !voucher.getBeginTime().isAfter(LocalDateTime.now().plus(properties.getLead()));
+    }
+
+    /**
+     * 写入一个秒杀券：先写库存与清理记录，最后写时间窗口，时间窗口写入后才能下单
+     */
+    public void preheat(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        long begin = toMillis(voucher.getBeginTime());
+        long end = toMillis(voucher.getEndTime());
+        // 1.库存，已存在时不覆盖
+        if (seckillStockBuckets.init(voucherId, voucher.getStock())) {
+            stockLoaded.incrementAndGet();
+        }
+        // 2.按结束时间登记，到期后清理
+        stringRedisTemplate.opsForZSet().add(SECKILL_PREHEATED_KEY, voucherId.toString(), end);
+        // 3.时间窗口
+        Map<String, String> window = new HashMap<>(2);
+        window.put("begin", String.valueOf(begin));
+        window.put("end", String.valueOf(end));
+        stringRedisTemplate.opsForHash().putAll(SECKILL_VOUCHER_KEY + voucherId, window);
+        preheated.incrementAndGet();
+    }
+
+    /**
+     * 删除结束超过 retention 的秒杀券在redis中的数据
+     */
+    private void cleanExpired() {
+        long deadline = System.currentTimeMillis() - seckillProperties.getPreheat().getRetention().toMillis();
+        Set<String> expired = stringRedisTemplate.opsForZSet().rangeByScore(SECKILL_PREHEATED_KEY, 0, deadline);
+        if (expired == null) {
+            return;
+        }
+        for (String id : expired) {
+            Long voucherId = Long.valueOf(id);
+            // 先删时间窗口，之后的请求都按未开始拒绝
+            stringRedisTemplate.delete(SECKILL_VOUCHER_KEY + voucherId);
+            seckillStockBuckets.delete(voucherId);
+            stringRedisTemplate.opsForZSet().remove(SECKILL_PREHEATED_KEY, id);
+            cleaned.incrementAndGet();
+            log.info("秒杀券 {} 已结束，清理redis中的库存与购买者", voucherId);
+        }
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", seckillProperties.getPreheat().isEnabled());
+        stats.put("loaded", stringRedisTemplate.opsForZSet().zCard(SECKILL_PREHEATED_KEY));
+        stats.put("preheated", preheated.get());
+        stats.put("stockLoaded", stockLoaded.get());
+        stats.put("cleaned", cleaned.get());
+        stats.put("lastRunTime", lastRunTime);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
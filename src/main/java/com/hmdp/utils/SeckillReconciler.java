@@ -0,0 +1,440 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_RECONCILE_LEASE_KEY;
+
+/**
+ * 秒杀库存核对：定时比较最近结束的秒杀券在redis（库存、购买者集合）与数据库（库存、订单）中是否一致。
+ * 进行中的秒杀券库存随时在扣减，不核对；各节点通过租约（seckill:reconcile:lease）保证同一时间只有一个节点核对
+ * <p>
+ * 每次先比较两边的总数，一致即结束，开销是几次SCARD与一次COUNT。不一致时订单可能还在途中，
+ * 只有相邻两次核对的总数完全相同、且订单消息都已消费时才逐个用户比对：按用户id取模分成若干轮，
+ * 每轮用SSCAN与按主键分页读取两边属于这一轮的用户，内存中最多保留 maxUsersInMemory 个用户。
+ * 发现的差异按 hmdp.seckill.reconcile 中的策略修复或只记录，库存的调整在脚本中比较读到的库存后执行，
+ * 最近一次的结果通过 /admin/seckill/reconcile 查看
+ */
+@Slf4j
+@Component
+public class SeckillReconciler {
+
+    private final ISeckillVoucherService seckillVoucherService;
+
+    private final IVoucherOrderService voucherOrderService;
+
+    private final SeckillStockBuckets seckillStockBuckets;
+
+    private final OrderConsumerPool orderConsumerPool;
+
+    private final SoldOutFlags soldOutFlags;
+
+    private final RedisIdWorker redisIdWorker;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillProperties seckillProperties;
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("lease_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    //秒杀结束超过这个时间才核对，容忍应用与redis之间的时钟偏差（秒杀脚本以redis的时间判断是否结束）
+    private static final Duration CLOSE_MARGIN = Duration.ofMinutes(1);
+
+    //本节点在核对租约中的标识
+    private final String owner = UUID.randomUUID().toString(true);
+
+    //优惠券id -> 最近一次核对的结果，只保留仍在核对范围内的秒杀券
+    private final Map<Long, Report> reports = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    public SeckillReconciler(ISeckillVoucherService seckillVoucherService, IVoucherOrderService voucherOrderService,
+                             SeckillStockBuckets seckillStockBuckets, OrderConsumerPool orderConsumerPool,
+                             SoldOutFlags soldOutFlags, RedisIdWorker redisIdWorker,
+                             StringRedisTemplate stringRedisTemplate, SeckillProperties seckillProperties) {
+        this.seckillVoucherService = seckillVoucherService;
+        this.voucherOrderService = voucherOrderService;
+        this.seckillStockBuckets = seckillStockBuckets;
+        this.orderConsumerPool = orderConsumerPool;
+        this.soldOutFlags = soldOutFlags;
+        this.redisIdWorker = redisIdWorker;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillProperties = seckillProperties;
+    }
+
+    @PostConstruct
+    public void start() {
+        SeckillProperties.Reconcile properties = seckillProperties.getReconcile();
+        long interval = properties.getInterval().toMillis();
+        if (!properties.isEnabled() || interval <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("seckill-reconcile-", true));
+        scheduler.scheduleWithFixedDelay(this::reconcileActive, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 核对已结束、且结束不超过 grace 的秒杀券。进行中的秒杀券库存随时在变，不核对
+     */
+    private void reconcileActive() {
+        SeckillProperties.Reconcile properties = seckillProperties.getReconcile();
+        // 所有节点都在定时核对，同一时间只有拿到租约的节点执行
+        if (!tryAcquireLease()) {
+            return;
+        }
+        try {
+            LocalDateTime closed = LocalDateTime.now().minus(CLOSE_MARGIN);
+            Set<Long> active = new HashSet<>();
+            long lastId = 0;
+            while (true) {
+                // SELECT voucher_id FROM tb_seckill_voucher WHERE end_time < ? AND end_time >= ? AND voucher_id > ? ORDER BY voucher_id LIMIT ?
+                List<SeckillVoucher> batch = seckillVoucherService.query().select("voucher_id")
+                        .lt("end_time", closed).ge("end_time", closed.minus(properties.getGrace()))
+                        .gt("voucher_id", lastId).orderByAsc("voucher_id")
+                        .last("LIMIT " + properties.getBatchSize()).list();
+                if (batch.isEmpty()) {
+                    break;
+                }
+                for (SeckillVoucher voucher : batch) {
+                    // 每核对一个秒杀券续约一次，续约失败说明租约已过期、可能被其它节点拿到，停止核对
+                    if (!renewLease()) {
+                        log.warn("秒杀库存核对的租约已失效，停止本轮核对");
+                        return;
+                    }
+                    active.add(voucher.getVoucherId());
+                    doReconcile(voucher.getVoucherId(), false);
+                }
+                lastId = batch.get(batch.size() - 1).getVoucherId();
+            }
+            reports.keySet().retainAll(active);
+        } catch (Exception e) {
+            log.error("秒杀库存核对失败", e);
+        } finally {
+            releaseLease();
+        }
+    }
+
+    /**
+     * 核对一个秒杀券
+     *
+     * @param force 为true时不等待第二次核对确认，订单消息仍需全部消费完
+     * @return 核对结果，秒杀券不存在时返回null
+     */
+    public Report reconcile(Long voucherId, boolean force) {
+        if (!tryAcquireLease()) {
+            Report report = new Report();
+            report.setVoucherId(voucherId);
+            report.setTime(LocalDateTime.now());
+            report.setState(State.BUSY);
+            return report;
+        }
+        try {
+            return doReconcile(voucherId, force);
+        } finally {
+            releaseLease();
+        }
+    }
+
+    private synchronized Report doReconcile(Long voucherId, boolean force) {
+        // 1.两边的总数：先读数据库再读redis，期间新下的单只会多出现在redis一侧
+        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+        if (voucher == null) {
+            return null;
+        }
+        Report report = new Report();
+        report.setVoucherId(voucherId);
+        report.setTime(LocalDateTime.now());
+        if (!voucher.getEndTime().isBefore(LocalDateTime.now().minus(CLOSE_MARGIN))) {
+            // 秒杀进行中，redis库存随时在扣减，核对结果不可靠
+            report.setState(State.OPEN);
+            return report;
+        }
+        // 本券的订单消息都在结束时间（加上余量）之前写入，只要求这之前的消息已消费完，其它券的新订单不影响；
+        // 在读取总数之前判断，已消费的订单此时都已落库
+        long closedMillis = voucher.getEndTime().plus(CLOSE_MARGIN).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        boolean drained = orderConsumerPool.isDrainedBefore(closedMillis);
+        report.setDbStock(voucher.getStock());
+        report.setDbOrders(voucherOrderService.query().eq("voucher_id", voucherId).count());
+        report.setRedisStock(seckillStockBuckets.remainingStock(voucherId));
+        report.setRedisBuyers(seckillStockBuckets.buyers(voucherId));
+        Report last = reports.put(voucherId, report);
+        if (report.getRedisBuyers() == report.getDbOrders() && report.getRedisStock() == report.getDbStock()) {
+            report.setState(State.OK);
+            return report;
+        }
+        // 2.不一致时订单可能还在途中（消息未消费、一人一单的名额刚占住），确认差异稳定后再比对
+        boolean settled = force || (last != null && last.sameCounts(report));
+        if (!settled || !drained) {
+            report.setState(State.SETTLING);
+            return report;
+        }
+        // 3.逐个用户比对并修复，最后对齐库存
+        compareBuyers(voucherId, report);
+        alignStock(voucherId, report);
+        boolean unrepaired = report.getMissingOrders() > report.getReplayed()
+                || report.getOrphanOrders() > report.getRestored()
+                || report.getDuplicateOrders() > report.getRemoved()
+                || report.getStockDrift() != report.getStockAdjusted();
+        report.setState(unrepaired ? State.DRIFT : State.REPAIRED);
+        log.warn("秒杀券 {} 库存核对发现差异：{}", voucherId, report);
+        return report;
+    }
+
+    //SET seckill:reconcile:lease {节点} NX PX ttl
+    private boolean tryAcquireLease() {
+        Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(SECKILL_RECONCILE_LEASE_KEY, owner,
+                seckillProperties.getReconcile().getLeaseTtl().toMillis(), TimeUnit.MILLISECONDS);
+        return Boolean.TRUE.equals(success);
+    }
+
+    private boolean renewLease() {
+        Long result = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(SECKILL_RECONCILE_LEASE_KEY),
+                owner, String.valueOf(seckillProperties.getReconcile().getLeaseTtl().toMillis()));
+        return result != null && result == 1;
+    }
+
+    //比较持有者后删除，与释放锁相同
+    private void releaseLease() {
+        try {
+            stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(SECKILL_RECONCILE_LEASE_KEY), owner);
+        } catch (Exception e) {
+            // 释放失败等租约自然过期
+            log.warn("释放秒杀库存核对的租约失败", e);
+        }
+    }
+
+    private void compareBuyers(Long voucherId, Report report) {
+        SeckillProperties.Reconcile properties = seckillProperties.getReconcile();
+        long users = Math.max(report.getRedisBuyers(), report.getDbOrders());
+        long maxUsers = Math.max(1, properties.getMaxUsersInMemory());
+        int rounds = (int) Math.max(1, (users + maxUsers - 1) / maxUsers);
+        for (int round = 0; round < rounds; round++) {
+            // 1.两边属于这一轮的用户
+            Set<Long> buyers = scanBuyers(voucherId, rounds, round);
+            Map<Long, List<Long>> orders = scanOrders(voucherId, rounds, round);
+            // 2.比对
+            List<Long> missing = new ArrayList<>();
+            for (Long userId : buyers) {
+                if (!orders.containsKey(userId)) {
+                    missing.add(userId);
+                }
+            }
+            List<Long> orphans = new ArrayList<>();
+            List<Long> duplicates = new ArrayList<>();
+            orders.forEach((userId, orderIds) -> {
+                if (!buyers.contains(userId)) {
+                    orphans.add(userId);
+                }
+                // 保留id最小（最早）的订单
+                duplicates.addAll(orderIds.subList(1, orderIds.size()));
+            });
+            report.setMissingOrders(report.getMissingOrders() + missing.size());
+            report.setOrphanOrders(report.getOrphanOrders() + orphans.size());
+            report.setDuplicateOrders(report.getDuplicateOrders() + duplicates.size());
+            // 3.按策略修复
+            if (properties.getMissingOrder() == SeckillProperties.Repair.FIX) {
+                report.setReplayed(report.getReplayed() + replay(voucherId, missing, properties.getBatchSize()));
+            }
+            if (properties.getOrphanOrder() == SeckillProperties.Repair.FIX && !orphans.isEmpty()) {
+                seckillStockBuckets.restore(voucherId, orphans);
+                report.setRestored(report.getRestored() + orphans.size());
+            }
+            if (properties.getDuplicateOrder() == SeckillProperties.Repair.FIX && !duplicates.isEmpty()) {
+                report.setRemoved(report.getRemoved() + voucherOrderService.cancelVoucherOrders(voucherId, duplicates));
+            }
+        }
+    }
+
+    //SSCAN各桶的购买者集合，只保留 userId % rounds == round 的用户
+    private Set<Long> scanBuyers(Long voucherId, int rounds, int round) {
+        Set<Long> buyers = new HashSet<>();
+        ScanOptions options = ScanOptions.scanOptions().count(seckillProperties.getReconcile().getBatchSize()).build();
+        for (String key : seckillStockBuckets.orderKeys(voucherId)) {
+            try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(key, options)) {
+                while (cursor.hasNext()) {
+                    long userId = Long.parseLong(cursor.next());
+                    if (Math.floorMod(userId, rounds) == round) {
+                        buyers.add(userId);
+                    }
+                }
+            }
+        }
+        return buyers;
+    }
+
+    //按主键分页读取订单，只保留 userId % rounds == round 的用户，用户 -> 订单id（升序）
+    private Map<Long, List<Long>> scanOrders(Long voucherId, int rounds, int round) {
+        int batchSize = seckillProperties.getReconcile().getBatchSize();
+        Map<Long, List<Long>> orders = new HashMap<>();
+        long lastId = Long.MIN_VALUE;
+        while (true) {
+            // SELECT id, user_id FROM tb_voucher_order WHERE voucher_id = ? AND id > ? ORDER BY id LIMIT ?
+            List<VoucherOrder> batch = voucherOrderService.query().select("id", "user_id")
+                    .eq("voucher_id", voucherId).gt("id", lastId)
+                    .orderByAsc("id").last("LIMIT " + batchSize).list();
+            for (VoucherOrder order : batch) {
+                if (Math.floorMod(order.getUserId(), rounds) == round) {
+                    orders.computeIfAbsent(order.getUserId(), k -> new ArrayList<>(1)).add(order.getId());
+                }
+            }
+            if (batch.size() < batchSize) {
+                return orders;
+            }
+            lastId = batch.get(batch.size() - 1).getId();
+        }
+    }
+
+    //为redis中有购买记录的用户补建订单，createVoucherOrders会跳过已有订单的用户并扣减数据库库存
+    private int replay(Long voucherId, List<Long> userIds, int batchSize) {
+        int created = 0;
+        for (int from = 0; from < userIds.size(); from += batchSize) {
+            List<VoucherOrder> orders = new ArrayList<>();
+            for (Long userId : userIds.subList(from, Math.min(userIds.size(), from + batchSize))) {
+                orders.add(new VoucherOrder().setId(redisIdWorker.nextId("order"))
+                        .setUserId(userId).setVoucherId(voucherId));
+            }
+            created += voucherOrderService.createVoucherOrders(orders);
+        }
+        return created;
+    }
+
+    //购买者对齐后，redis库存应等于数据库库存，以数据库为准；在脚本中确认redis库存仍是读到的值才调整
+    private void alignStock(Long voucherId, Report report) {
+        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+        long redisStock = seckillStockBuckets.remainingStock(voucherId);
+        long drift = voucher.getStock() - redisStock;
+        report.setStockDrift(drift);
+        if (drift == 0 || seckillProperties.getReconcile().getStockDrift() != SeckillProperties.Repair.FIX) {
+            return;
+        }
+        if (!seckillStockBuckets.adjustStock(voucherId, redisStock, drift)) {
+            log.warn("秒杀券 {} 的redis库存在核对期间发生变化，放弃调整", voucherId);
+            return;
+        }
+        report.setStockAdjusted(drift);
+        if (drift > 0) {
+            // 补回了库存，清除各节点的售罄标记
+            soldOutFlags.clear(voucherId);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", seckillProperties.getReconcile().isEnabled());
+        stats.put("vouchers", new TreeMap<>(reports));
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public enum State {
+        /**
+         * 两边一致
+         */
+        OK,
+        /**
+         * 秒杀进行中（或刚结束），不核对
+         */
+        OPEN,
+        /**
+         * 其它节点正在核对
+         */
+        BUSY,
+        /**
+         * 总数不一致，等待在途的订单处理完后再比对
+         */
+        SETTLING,
+        /**
+         * 有差异，已全部修复
+         */
+        REPAIRED,
+        /**
+         * 有差异，按策略只记录或未能全部修复
+         */
+        DRIFT
+    }
+
+    @Data
+    public static class Report {
+        private Long voucherId;
+        private LocalDateTime time;
+        private State state;
+        private long redisStock;
+        private long redisBuyers;
+        private long dbStock;
+        private long dbOrders;
+        /**
+         * redis有购买记录、数据库没有订单的用户数，以及补建的订单数
+         */
+        private long missingOrders;
+        private long replayed;
+        /**
+         * 数据库有订单、redis没有购买记录的用户数，以及写回的用户数
+         */
+        private long orphanOrders;
+        private long restored;
+        /**
+         * 同一用户多出的订单数，以及删除的订单数
+         */
+        private long duplicateOrders;
+        private long removed;
+        /**
+         * 数据库库存减redis库存，以及对redis库存的调整量
+         */
+        private long stockDrift;
+        private long stockAdjusted;
+
+        private boolean sameCounts(Report other) {
+            return redisStock == other.redisStock && redisBuyers == other.redisBuyers
+                    && dbStock == other.dbStock && dbOrders == other.dbOrders;
+        }
+    }
+}
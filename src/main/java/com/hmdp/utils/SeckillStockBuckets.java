@@ -0,0 +1,231 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_BUCKETS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 秒杀库存分桶：把一个优惠券的库存拆成N个桶，每个桶有自己的库存key（seckill:stock:{id}:{桶}）
+ * 与一部分购买者集合（seckill:order:{id}:{桶}）
+ * <p>
+ * 秒杀脚本在一次调用中还会访问消息队列分区、订单id序列号与时间窗口，这些key不在同一个slot，
+ * 不能在redis cluster下执行，秒杀使用单个redis实例（可带从节点）。单实例上脚本本来就串行执行，
+ * 分桶不会提高吞吐，本桶售罄后访问相邻桶还会多出往返；分桶带来的只是把几十万成员的购买者集合拆成N个小集合，
+ * 避免大key：核对时的SSCAN、结束后的删除与主从同步都按较小的key进行，不会长时间阻塞redis。
+ * 因此默认不分桶，只有单个秒杀券的购买者很多时才调大
+ * <p>
+ * 用户按id取模落到自己的桶，购买记录只写在自己的桶里，一人一单只需检查这一个集合；
+ * 自己的桶卖完后先在集合中占住名额，再依次到相邻的桶扣减库存，都没有库存时释放名额
+ * <p>
+ * 桶数在创建秒杀券时确定，记录在 seckill:buckets:{id}，本地缓存一段时间；没有记录的优惠券只有一个桶，
+ * 使用原来的 seckill:stock:{id} 与 seckill:order:{id}，尚未预热时不缓存桶数
+ */
+@Component
+public class SeckillStockBuckets {
+
+    private static final DefaultRedisScript<Long> ADJUST_SCRIPT;
+    static {
+        ADJUST_SCRIPT = new DefaultRedisScript<>();
+        ADJUST_SCRIPT.setLocation(new ClassPathResource("seckill_stock_adjust.lua"));
+        ADJUST_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    //新建秒杀券的桶数
+    private final int count;
+
+    private final long refreshMillis;
+
+    //优惠券id -> 桶数
+    private final Map<Long, Buckets> buckets = new ConcurrentHashMap<>();
+
+    public SeckillStockBuckets(StringRedisTemplate stringRedisTemplate, SeckillProperties seckillProperties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        SeckillProperties.StockBuckets properties = seckillProperties.getStockBuckets();
+        this.count = Math.max(1, properties.getCount());
+        this.refreshMillis = properties.getRefreshInterval().toMillis();
+    }
+
+    /**
+     * 写入秒杀券的库存：按配置的桶数平均拆分，除不尽的部分分给前面的桶。
+     * redis中已有库存时（秒杀进行中重新预热）不覆盖，避免把已扣减的库存改回去
+     *
+     * @return 是否写入
+     */
+    public boolean init(Long voucherId, int stock) {
+        Boolean written;
+        if (count <= 1) {
+            written = stringRedisTemplate.opsForValue().setIfAbsent(SECKILL_STOCK_KEY + voucherId, String.valueOf(stock));
+        } else {
+            Map<String, String> stocks = new HashMap<>(count + 1);
+            for (int bucket = 0; bucket < count; bucket++) {
+                stocks.put(stockKey(voucherId, bucket, count), String.valueOf(stock / count + (bucket < stock % count ? 1 : 0)));
+            }
+            stocks.put(SECKILL_BUCKETS_KEY + voucherId, String.valueOf(count));
+            // MSETNX，任一key已存在时都不写
+            written = stringRedisTemplate.opsForValue().multiSetIfAbsent(stocks);
+        }
+        if (!Boolean.TRUE.equals(written)) {
+            return false;
+        }
+        buckets.put(voucherId, new Buckets(count));
+        return true;
+    }
+
+    /**
+     * 删除秒杀券的库存、购买者集合与桶数（秒杀结束后清理）
+     */
+    public void delete(Long voucherId) {
+        int n = buckets(voucherId);
+        List<String> keys = new ArrayList<>(n * 2 + 1);
+        for (int bucket = 0; bucket < n; bucket++) {
+            keys.add(stockKey(voucherId, bucket, n));
+            keys.add(orderKey(voucherId, bucket, n));
+        }
+        keys.add(SECKILL_BUCKETS_KEY + voucherId);
+        stringRedisTemplate.delete(keys);
+        buckets.remove(voucherId);
+    }
+
+    /**
+     * 优惠券的桶数。只缓存确定的结果：redis中记录的桶数，或存在不分桶的库存key（桶数为1）；
+     * 两者都没有说明还没有预热，按1个桶返回但不缓存，否则预热写入N个桶后，本节点在刷新前仍会到不存在的
+     * seckill:stock:{id} 扣减，得到库存不足并向所有节点广播售罄
+     */
+    public int buckets(Long voucherId) {
+        Buckets cached = buckets.get(voucherId);
+        if (cached != null && System.currentTimeMillis() - cached.loadTime < refreshMillis) {
+            return cached.count;
+        }
+        // MGET seckill:buckets:{id} seckill:stock:{id}
+        List<String> values = stringRedisTemplate.opsForValue()
+                .multiGet(Arrays.asList(SECKILL_BUCKETS_KEY + voucherId, SECKILL_STOCK_KEY + voucherId));
+        String count = values == null ? null : values.get(0);
+        if (count != null) {
+            int n = Math.max(1, Integer.parseInt(count));
+            buckets.put(voucherId, new Buckets(n));
+            return n;
+        }
+        if (values != null && values.get(1) != null) {
+            buckets.put(voucherId, new Buckets(1));
+        } else {
+            buckets.remove(voucherId);
+        }
+        return 1;
+    }
+
+    /**
+     * 用户所在的桶，购买记录写在这个桶里
+     */
+    public int homeBucket(Long userId, int buckets) {
+        return (int) Math.floorMod(userId, (long) buckets);
+    }
+
+    public String stockKey(Long voucherId, int bucket, int buckets) {
+        return buckets <= 1 ? SECKILL_STOCK_KEY + voucherId : SECKILL_STOCK_KEY + voucherId + ":" + bucket;
+    }
+
+    public String orderKey(Long voucherId, int bucket, int buckets) {
+        return buckets <= 1 ? SECKILL_ORDER_KEY + voucherId : SECKILL_ORDER_KEY + voucherId + ":" + bucket;
+    }
+
+    /**
+     * 释放用户在自己桶里占住的名额（所有桶都没有库存时）
+     */
+    public void release(Long voucherId, Long userId, int buckets) {
+        stringRedisTemplate.opsForSet().remove(orderKey(voucherId, homeBucket(userId, buckets), buckets), userId.toString());
+    }
+
+    /**
+     * 购买者集合的key，每个桶一个
+     */
+    public List<String> orderKeys(Long voucherId) {
+        int n = buckets(voucherId);
+        List<String> keys = new ArrayList<>(n);
+        for (int bucket = 0; bucket < n; bucket++) {
+            keys.add(orderKey(voucherId, bucket, n));
+        }
+        return keys;
+    }
+
+    /**
+     * redis中的购买者数，各桶集合大小之和
+     */
+    public long buyers(Long voucherId) {
+        long total = 0;
+        for (String key : orderKeys(voucherId)) {
+            Long size = stringRedisTemplate.opsForSet().size(key);
+            total += size == null ? 0 : size;
+        }
+        return total;
+    }
+
+    /**
+     * 把用户写回各自桶的购买者集合（库存核对发现数据库有订单、redis没有购买记录时）
+     */
+    public void restore(Long voucherId, List<Long> userIds) {
+        int n = buckets(voucherId);
+        Map<Integer, List<String>> byBucket = new HashMap<>();
+        for (Long userId : userIds) {
+            byBucket.computeIfAbsent(homeBucket(userId, n), k -> new ArrayList<>()).add(userId.toString());
+        }
+        byBucket.forEach((bucket, members) ->
+                stringRedisTemplate.opsForSet().add(orderKey(voucherId, bucket, n), members.toArray(new String[0])));
+    }
+
+    /**
+     * 调整redis中的库存：增加时平均分到各桶，减少时依次从有库存的桶扣减。
+     * 在脚本中比较各桶库存之和，只有仍等于计算调整量时读到的 expected 才调整
+     *
+     * @param expected 计算调整量时读到的库存总数
+     * @return 是否调整，期间库存有变化时返回false
+     */
+    public boolean adjustStock(Long voucherId, long expected, long delta) {
+        int n = buckets(voucherId);
+        List<String> keys = new ArrayList<>(n);
+        for (int bucket = 0; bucket < n; bucket++) {
+            keys.add(stockKey(voucherId, bucket, n));
+        }
+        Long result = stringRedisTemplate.execute(ADJUST_SCRIPT, keys, String.valueOf(expected), String.valueOf(delta));
+        return result != null && result == 1;
+    }
+
+    /**
+     * redis中的剩余库存，各桶之和
+     */
+    public long remainingStock(Long voucherId) {
+        int n = buckets(voucherId);
+        List<String> keys = new ArrayList<>(n);
+        for (int bucket = 0; bucket < n; bucket++) {
+            keys.add(stockKey(voucherId, bucket, n));
+        }
+        long total = 0;
+        for (String value : stringRedisTemplate.opsForValue().multiGet(keys)) {
+            total += value == null ? 0 : Long.parseLong(value);
+        }
+        return total;
+    }
+
+    private static class Buckets {
+        private final int count;
+        private final long loadTime = System.currentTimeMillis();
+
+        private Buckets(int count) {
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 启动时预热店铺缓存（cache:shop:{id}）与地理位置索引（shop:geo:{typeId}），均写入命名空间当前的版本
+ * <p>
+ * 按id区间切分给若干线程，每个线程在自己的区间内按主键分批扫描，每批用管道写入缓存并GEOADD；
+ * 所有线程共享一个按行数计的限速器，避免预热压垮数据库。
+ * <p>
+ * ApplicationRunner执行完之前应用不会进入 ACCEPTING_TRAFFIC 状态，开启 hold-readiness 时
+ * 在这里等到预热比例达标（或超时）再返回，其余部分在后台继续
+ */
+@Slf4j
+@Component
+public class ShopCacheWarmUp implements ApplicationRunner {
+
+    private final IShopService shopService;
+
+    private final CacheClient cacheClient;
+
+    private final CacheStrategyRegistry strategyRegistry;
+
+    private final CacheNamespaces cacheNamespaces;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final CacheProperties cacheProperties;
+
+    private volatile long total;
+
+    private final AtomicLong warmed = new AtomicLong();
+
+    private final AtomicLong geoAdded = new AtomicLong();
+
+    private volatile long beginTime;
+
+    private volatile long endTime;
+
+    private volatile String state = "NOT_STARTED";
+
+    public ShopCacheWarmUp(IShopService shopService, CacheClient cacheClient, CacheStrategyRegistry strategyRegistry,
+                           CacheNamespaces cacheNamespaces, StringRedisTemplate stringRedisTemplate,
+                           CacheProperties cacheProperties) {
+        this.shopService = shopService;
+        this.cacheClient = cacheClient;
+        this.strategyRegistry = strategyRegistry;
+        this.cacheNamespaces = cacheNamespaces;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheProperties = cacheProperties;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        CacheProperties.WarmUp properties = cacheProperties.getWarmUp();
+        if (!properties.isEnabled()) {
+            return;
+        }
+        beginTime = System.currentTimeMillis();
+        state = "RUNNING";
+        // 1.统计总数与id范围
+        total = shopService.count();
+        Shop first = shopService.query().select("id").orderByAsc("id").last("LIMIT 1").one();
+        Shop last = shopService.query().select("id").orderByDesc("id").last("LIMIT 1").one();
+        if (first == null || last == null) {
+            finish("DONE");
+            return;
+        }
+        // 2.按id区间切分，每个线程负责一段 (lo, hi]
+        int concurrency = Math.max(1, properties.getConcurrency());
+        long minId = first.getId() - 1;
+        long step = (last.getId() - minId + concurrency - 1) / concurrency;
+        RateLimiter rateLimiter = new RateLimiter(properties.getRowsPerSecond());
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency, new NamedThreadFactory("cache-warm-up-", true));
+        CompletableFuture<?>[] futures = new CompletableFuture[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            long lo = minId + i * step;
+            long hi = Math.min(lo + step, last.getId());
+            futures[i] = CompletableFuture.runAsync(() -> warmRange(lo, hi, properties.getBatchSize(), rateLimiter), pool);
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(futures).whenComplete((r, e) -> {
+            pool.shutdown();
+            if (e != null) {
+                log.error("店铺缓存预热失败！已预热 {}/{}", warmed.get(), total, e);
+                finish("FAILED");
+            } else {
+                finish("DONE");
+                log.info("店铺缓存预热完成，共 {} 条，写入地理位置 {} 条，耗时 {} ms",
+                        warmed.get(), geoAdded.get(), endTime - beginTime);
+            }
+        });
+        // 3.需要时阻塞到预热比例达标
+        if (properties.isHoldReadiness()) {
+            long deadline = System.currentTimeMillis() + properties.getMaxHold().toMillis();
+            while (!all.isDone() && fraction() < properties.getReadyFraction()
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            log.info("店铺缓存预热比例 {}，开始接收流量", String.format("%.2f", fraction()));
+        }
+    }
+
+    private void warmRange(long lo, long hi, int batchSize, RateLimiter rateLimiter) {
+        long lastId = lo;
+        while (lastId < hi) {
+            rateLimiter.acquire(batchSize);
+            // SELECT * FROM tb_shop WHERE id > ? AND id <= ? ORDER BY id LIMIT ?
+            long begin = System.currentTimeMillis();
+            List<Shop> batch = shopService.query().gt("id", lastId).le("id", hi)
+                    .orderByAsc("id").last("LIMIT " + batchSize).list();
+            if (batch.isEmpty()) {
+                break;
+            }
+            write(batch, System.currentTimeMillis() - begin);
+            lastId = batch.get(batch.size() - 1).getId();
+            reportProgress(warmed.addAndGet(batch.size()), batch.size());
+        }
+    }
+
+    private void write(List<Shop> batch, long loadCost) {
+        // 1.店铺缓存，格式与当前生效的策略一致（ShopServiceImpl.queryById声明的是PASS_THROUGH）
+        Map<String, Shop> values = new LinkedHashMap<>(batch.size());
+        Map<Long, List<Shop>> byType = new HashMap<>();
+        for (Shop shop : batch) {
+            values.put(cacheClient.key(CACHE_SHOP_KEY, shop.getId()), shop);
+            if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+                byType.computeIfAbsent(shop.getTypeId(), k -> new ArrayList<>()).add(shop);
+            }
+        }
+        CacheStrategy strategy = strategyRegistry.resolve(CACHE_SHOP_KEY, CacheStrategy.PASS_THROUGH);
+        cacheClient.setAll(values, CACHE_SHOP_TTL, TimeUnit.MINUTES, strategy.isLogical(), loadCost);
+        // 2.地理位置，按类型分组后管道GEOADD，写入各类型当前版本（以及重建中的版本）的key
+        Map<Long, List<String>> geoKeys = new HashMap<>(byType.size());
+        byType.keySet().forEach(typeId -> geoKeys.put(typeId, cacheNamespaces.keys(SHOP_GEO_KEY + typeId)));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byType.forEach((typeId, shops) -> {
+                Map<byte[], Point> locations = new HashMap<>(shops.size());
+                for (Shop shop : shops) {
+                    locations.put(shop.getId().toString().getBytes(StandardCharsets.UTF_8),
+                            new Point(shop.getX(), shop.getY()));
+                }
+                geoKeys.get(typeId).forEach(key -> connection.geoAdd(key.getBytes(StandardCharsets.UTF_8), locations));
+            });
+            return null;
+        });
+        byType.values().forEach(shops -> geoAdded.addAndGet(shops.size()));
+    }
+
+    //每跨过10%打印一次进度
+    private void reportProgress(long done, int batchSize) {
+        if (total <= 0 || done * 10 / total == (done - batchSize) * 10 / total) {
+            return;
+        }
+        long cost = Math.max(1, System.currentTimeMillis() - beginTime);
+        log.info("店铺缓存预热进度 {}/{}（{}%），{} 条/秒", done, total, done * 100 / total, done * 1000 / cost);
+    }
+
+    private void finish(String state) {
+        this.endTime = System.currentTimeMillis();
+        this.state = state;
+    }
+
+    private double fraction() {
+        return total <= 0 ? 1D : (double) warmed.get() / total;
+    }
+
+    /**
+     * 预热进度
+     */
+    public Map<String, Object> stats() {
+        long end = endTime > 0 ? endTime : System.currentTimeMillis();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", state);
+        stats.put("total", total);
+        stats.put("warmed", warmed.get());
+        stats.put("geoAdded", geoAdded.get());
+        stats.put("fraction", fraction());
+        stats.put("costMillis", beginTime > 0 ? end - beginTime : 0);
+        return stats;
+    }
+
+    /**
+     * 简单的匀速限速器：按行数预约时间片，超出速率时休眠
+     */
+    private static class RateLimiter {
+
+        private final double nanosPerPermit;
+
+        private long nextFree = System.nanoTime();
+
+        private RateLimiter(int permitsPerSecond) {
+            this.nanosPerPermit = permitsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / (double) permitsPerSecond : 0;
+        }
+
+        private void acquire(int permits) {
+            if (nanosPerPermit <= 0) {
+                return;
+            }
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long start = Math.max(now, nextFree);
+                nextFree = start + (long) (permits * nanosPerPermit);
+                wait = start - now;
+            }
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("预热被中断", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+
+/**
+ * 发件箱事件：维护店铺地理位置索引（shop:geo:{typeId}），一批事件按顺序在一个管道中执行；
+ * 索引正在重建时同时写入重建中的新版本，切换后不会丢失重建期间的变更
+ */
+@Component
+public class ShopGeoOutboxHandler implements OutboxHandler {
+
+    public static final String TYPE = "shop.geo";
+
+    public static final String ADD = "add";
+
+    public static final String REMOVE = "remove";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final CacheNamespaces namespaces;
+
+    public ShopGeoOutboxHandler(StringRedisTemplate stringRedisTemplate, CacheNamespaces namespaces) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.namespaces = namespaces;
+    }
+
+    @Override
+    public String type() {
+        return TYPE;
+    }
+
+    @Override
+    public void handle(List<JSONObject> payloads) {
+        // 管道外先解析出各类型需要写入的key（当前版本，以及重建中的版本）
+        Map<Long, List<byte[]>> keysByType = new HashMap<>();
+        List<List<byte[]>> keys = new ArrayList<>(payloads.size());
+        for (JSONObject payload : payloads) {
+            keys.add(keysByType.computeIfAbsent(payload.getLong("typeId"), typeId -> {
+                List<byte[]> typeKeys = new ArrayList<>(2);
+                namespaces.keys(SHOP_GEO_KEY + typeId).forEach(key -> typeKeys.add(key.getBytes(StandardCharsets.UTF_8)));
+                return typeKeys;
+            }));
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < payloads.size(); i++) {
+                JSONObject payload = payloads.get(i);
+                byte[] member = payload.getStr("shopId").getBytes(StandardCharsets.UTF_8);
+                for (byte[] key : keys.get(i)) {
+                    if (ADD.equals(payload.getStr("op"))) {
+                        connection.geoAdd(key, new Point(payload.getDouble("x"), payload.getDouble("y")), member);
+                    } else {
+                        connection.zRem(key, member);
+                    }
+                }
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,126 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 秒杀优惠券的本地售罄标记：秒杀脚本返回库存不足后在本地标记，并通过发布订阅通知其它节点，
+ * 之后对该优惠券的秒杀请求直接返回库存不足，不再访问redis；补充库存时清除
+ * <p>
+ * 消息格式为 +优惠券id（售罄）或 -优惠券id（补货）。标记在 ttl 后自动失效，
+ * 丢失补货通知的节点最多在这段时间内误报售罄，之后重新执行脚本确认
+ */
+@Slf4j
+@Component
+public class SoldOutFlags implements MessageListener {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final boolean enabled;
+
+    private final long ttlMillis;
+
+    //优惠券id -> 标记失效的时间
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    public SoldOutFlags(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer,
+                        SeckillProperties seckillProperties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.enabled = seckillProperties.getSoldOut().isEnabled();
+        this.ttlMillis = seckillProperties.getSoldOut().getTtl().toMillis();
+        listenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    /**
+     * 本节点是否已标记售罄
+     */
+    public boolean isSoldOut(Long voucherId) {
+        if (!enabled) {
+            return false;
+        }
+        Long expireAt = soldOut.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt < System.currentTimeMillis()) {
+            soldOut.remove(voucherId, expireAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记售罄并通知其它节点
+     */
+    public void markSoldOut(Long voucherId) {
+        if (!enabled) {
+            return;
+        }
+        if (soldOut.put(voucherId, System.currentTimeMillis() + ttlMillis) == null) {
+            log.info("优惠券 {} 已售罄", voucherId);
+            publish("+" + voucherId);
+        }
+    }
+
+    /**
+     * 补充库存后清除标记，通知所有节点
+     */
+    public void clear(Long voucherId) {
+        soldOut.remove(voucherId);
+        publish("-" + voucherId);
+    }
+
+    private void publish(String message) {
+        try {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, message);
+        } catch (Exception e) {
+            // 通知失败时其它节点照常执行脚本，不影响正确性
+            log.warn("发布售罄标记失败：{}", message, e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            Long voucherId = Long.valueOf(body.substring(1));
+            if (body.charAt(0) == '+') {
+                if (enabled) {
+                    soldOut.put(voucherId, System.currentTimeMillis() + ttlMillis);
+                }
+            } else {
+                soldOut.remove(voucherId);
+            }
+        } catch (RuntimeException e) {
+            log.warn("无法解析售罄标记消息：{}", body);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        long now = System.currentTimeMillis();
+        TreeSet<Long> vouchers = new TreeSet<>();
+        soldOut.forEach((voucherId, expireAt) -> {
+            if (expireAt >= now) {
+                vouchers.add(voucherId);
+            }
+        });
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("soldOut", vouchers);
+        return stats;
+    }
+}
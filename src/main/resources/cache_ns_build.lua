@@ -0,0 +1,15 @@
+-- 为单个key的重建分配新的版本号
+-- KEYS[1] 当前版本号 cache:ns:{key}，KEYS[2] 重建中的版本号 cache:ns-building:{key}
+-- ARGV[1] 命名空间的key，ARGV[2] 重建超时毫秒
+local current = tonumber(redis.call('get', KEYS[1]) or '0')
+-- 在独立的计数器上加一，并发的重建拿到不同的版本号
+local version = redis.call('incr', KEYS[2])
+if version <= current then
+    -- 计数器已过期或落后于当前版本
+    version = current + 1
+    redis.call('set', KEYS[2], version)
+end
+redis.call('pexpire', KEYS[2], ARGV[2])
+-- 清理同一版本号上次失败残留的数据
+redis.call('del', ARGV[1] .. ':v' .. version)
+return version
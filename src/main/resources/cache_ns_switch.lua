@@ -0,0 +1,18 @@
+-- 结束单个key的重建：新版本号大于当前版本号时才切换，切换后返回原来的版本号，否则返回-1
+-- KEYS[1] 当前版本号 cache:ns:{key}，KEYS[2] 重建中的版本号 cache:ns-building:{key}
+-- ARGV[1] 重建的版本号，ARGV[2] 1切换 0放弃
+local version = tonumber(ARGV[1])
+-- 没有更新的重建时清除重建中的版本号，之后的增量不再写入
+if tonumber(redis.call('get', KEYS[2]) or '0') == version then
+    redis.call('del', KEYS[2])
+end
+if ARGV[2] ~= '1' then
+    return -1
+end
+local current = tonumber(redis.call('get', KEYS[1]) or '0')
+if version <= current then
+    -- 更新的重建已经切换过
+    return -1
+end
+redis.call('set', KEYS[1], version)
+return current
@@ -0,0 +1,30 @@
+-- 已有数据库升级：tb_voucher_order 增加 (voucher_id, user_id) 唯一键，新建的数据库直接使用 hmdp.sql
+-- 建立唯一键之前先清理同一用户的重复订单：保留id最小（最早）的订单，删除其余的订单并归还秒杀库存
+-- 执行前请停止订单消费者；第1步执行后必须接着执行第2步，单独重复执行第1步会重复归还库存
+
+-- ----------------------------
+-- 1.归还重复订单占用的秒杀库存
+-- ----------------------------
+UPDATE `tb_seckill_voucher` sv
+JOIN (
+  SELECT `voucher_id`, COUNT(*) - COUNT(DISTINCT `user_id`) AS `duplicates`
+  FROM `tb_voucher_order`
+  GROUP BY `voucher_id`
+  HAVING `duplicates` > 0
+) d ON d.`voucher_id` = sv.`voucher_id`
+SET sv.`stock` = sv.`stock` + d.`duplicates`;
+
+-- ----------------------------
+-- 2.删除重复订单，每个用户保留最早的一个
+-- ----------------------------
+DELETE o FROM `tb_voucher_order` o
+JOIN `tb_voucher_order` k
+  ON k.`voucher_id` = o.`voucher_id` AND k.`user_id` = o.`user_id` AND k.`id` < o.`id`;
+
+-- ----------------------------
+-- 3.增加唯一键，唯一键以 voucher_id 开头，同时用于按优惠券统计与分页读取订单
+-- ----------------------------
+ALTER TABLE `tb_voucher_order` ADD UNIQUE INDEX `uk_voucher_user`(`voucher_id`, `user_id`) USING BTREE;
+
+-- 使用过库存核对版本的 hmdp.sql 建表时还有非唯一索引 idx_voucher_user，唯一键已覆盖，可以删除：
+-- ALTER TABLE `tb_voucher_order` DROP INDEX `idx_voucher_user`;
@@ -0,0 +1,6 @@
+-- 比较租约中的持有者与当前节点是否一致
+if(redis.call('get', KEYS[1]) == ARGV[1]) then
+    -- 续约 pexpire key ttl
+    return redis.call('pexpire', KEYS[1], ARGV[2])
+end
+return 0
@@ -1,32 +1,67 @@
 -- 1.参数列表
--- 1.1.优惠券id
+-- 1.1.库存key，不分桶时为 seckill:stock:{id}，分桶时为 seckill:stock:{id}:{桶}
+local stockKey = KEYS[1]
+-- 1.2.用户所在桶的购买者集合，不分桶时为 seckill:order:{id}
+local orderKey = KEYS[2]
+-- 1.3.订单所在分区的消息队列
+local streamKey = KEYS[3]
+-- 1.4.订单id序列号的key
+local countKey = KEYS[4]
+-- 1.5.预热写入的秒杀时间窗口 seckill:voucher:{id}，begin/end 为毫秒时间戳
+local voucherKey = KEYS[5]
+-- 1.6.优惠券id
 local voucherId = ARGV[1]
--- 1.2.用户id
+-- 1.7.用户id
 local userId = ARGV[2]
--- 1.3.订单id
-local orderId = ARGV[3]
+-- 1.8.订单id的时间戳部分
+local timestamp = tonumber(ARGV[3])
+-- 1.9.模式：0 在自己的桶下单；1 在自己的桶下单，没有库存时占住名额，由调用方到相邻的桶扣减；2 已占住名额，只扣减库存
+local mode = ARGV[4]
 
--- 2.数据key
--- 2.1.库存key
-local stockKey = 'seckill:stock:' .. voucherId
--- 2.2.订单key
-local orderKey = 'seckill:order:' .. voucherId
-
--- 3.脚本业务
--- 3.1.判断库存是否充足 get stockKey
-if(tonumber(redis.call('get', stockKey)) <= 0) then
-    -- 3.2.库存不足，返回1
-    return 1
+-- 2.脚本业务
+-- 2.1.判断是否在秒杀时间内，以redis服务器的时间为准，未预热（或已清理）的秒杀券视为未开始
+local window = redis.call('hmget', voucherKey, 'begin', 'end')
+local beginTime = tonumber(window[1])
+local endTime = tonumber(window[2])
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+if(beginTime == nil or now < beginTime) then
+    -- 尚未开始，返回4
+    return {4}
+end
+if(endTime ~= nil and now > endTime) then
+    -- 已经结束，返回5
+    return {5}
 end
--- 3.2.判断用户是否下单 SISMEMBER orderKey userId
-if(redis.call('sismember', orderKey, userId) == 1) then
-    -- 3.3.存在，说明是重复下单，返回2
-    return 2
+-- 2.2.判断用户是否下单 SISMEMBER orderKey userId
+if(mode ~= '2' and redis.call('sismember', orderKey, userId) == 1) then
+    -- 2.3.存在，说明是重复下单，返回2
+    return {2}
 end
--- 3.4.扣库存 incrby stockKey -1
+-- 2.4.判断库存是否充足 get stockKey
+if((tonumber(redis.call('get', stockKey)) or 0) <= 0) then
+    if(mode == '1') then
+        -- 2.5.本桶库存不足，先占住一人一单的名额，返回3
+        redis.call('sadd', orderKey, userId)
+        return {3}
+    end
+    -- 2.6.库存不足，返回1
+    return {1}
+end
+-- 2.7.扣库存 incrby stockKey -1
 redis.call('incrby', stockKey, -1)
--- 3.5.下单（保存用户）sadd orderKey userId
-redis.call('sadd', orderKey, userId)
--- 3.6.发送消息到队列中， XADD stream.orders * k1 v1 k2 v2 ...
-redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
-return 0
\ No newline at end of file
+-- 2.8.下单（保存用户）sadd orderKey userId
+if(mode ~= '2') then
+    redis.call('sadd', orderKey, userId)
+end
+-- 2.9.生成订单id：时间戳 << 32 | 序列号，与 RedisIdWorker 的格式相同，只有下单成功才消耗序列号
+-- lua的数字是双精度浮点数，超过2^53会丢失精度，按 2^32 = 4294 * 10^6 + 967296 拆成高低两段分别计算再拼接
+local count = redis.call('incr', countKey)
+local low = timestamp * 967296 + count
+local high = timestamp * 4294 + math.floor(low / 1000000)
+low = low % 1000000
+local orderId = string.format('%d%06d', high, low)
+-- 2.10.发送消息到队列中， XADD stream.orders:{分区} * k1 v1 k2 v2 ...
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+-- 2.11.返回0与订单id
+return {0, orderId}
@@ -0,0 +1,35 @@
+-- 秒杀接口的全局滑动窗口限流，用上一窗口与当前窗口的计数按时间加权近似滑动窗口
+-- KEYS[1] 优惠券当前窗口计数，KEYS[2] 优惠券上一窗口计数
+-- KEYS[3] 用户当前窗口计数，KEYS[4] 用户上一窗口计数
+-- ARGV[1] 优惠券限额，ARGV[2] 用户限额（<=0 不限），ARGV[3] 上一窗口的权重，ARGV[4] 计数的过期时间（毫秒）
+-- 返回 0 放行，1 超出优惠券限额，2 超出用户限额
+local weight = tonumber(ARGV[3])
+
+-- 1.估算滑动窗口内的请求数是否已达到限额
+local function exceeded(current, previous, limit)
+    if limit <= 0 then
+        return false
+    end
+    local count = tonumber(redis.call('get', current) or '0')
+    local last = tonumber(redis.call('get', previous) or '0')
+    return last * weight + count >= limit
+end
+
+local voucherLimit = tonumber(ARGV[1])
+local userLimit = tonumber(ARGV[2])
+if exceeded(KEYS[1], KEYS[2], voucherLimit) then
+    return 1
+end
+if exceeded(KEYS[3], KEYS[4], userLimit) then
+    return 2
+end
+-- 2.放行，计入当前窗口
+if voucherLimit > 0 then
+    redis.call('incr', KEYS[1])
+    redis.call('pexpire', KEYS[1], ARGV[4])
+end
+if userLimit > 0 then
+    redis.call('incr', KEYS[3])
+    redis.call('pexpire', KEYS[3], ARGV[4])
+end
+return 0
@@ -0,0 +1,45 @@
+-- 1.参数列表
+-- 1.1.KEYS：秒杀券各桶的库存key
+-- 1.2.计算差异时读到的库存总数
+local expected = tonumber(ARGV[1])
+-- 1.3.调整量，正数平均分到各桶，负数依次从有库存的桶扣减
+local delta = tonumber(ARGV[2])
+
+-- 2.脚本业务
+-- 2.1.库存总数与计算差异时不同，说明期间库存有变化，放弃调整，返回0
+local stocks = {}
+local total = 0
+for i, key in ipairs(KEYS) do
+    stocks[i] = tonumber(redis.call('get', key)) or 0
+    total = total + stocks[i]
+end
+if(total ~= expected) then
+    return 0
+end
+-- 2.2.增加：平均分到各桶，除不尽的部分分给前面的桶
+local n = #KEYS
+if(delta > 0) then
+    for i, key in ipairs(KEYS) do
+        local share = math.floor(delta / n)
+        if(i - 1 < delta % n) then
+            share = share + 1
+        end
+        if(share > 0) then
+            redis.call('incrby', key, share)
+        end
+    end
+    return 1
+end
+-- 2.3.减少：依次从有库存的桶扣减
+local remain = -delta
+for i, key in ipairs(KEYS) do
+    if(remain <= 0) then
+        break
+    end
+    local take = math.min(remain, math.max(0, stocks[i]))
+    if(take > 0) then
+        redis.call('decrby', key, take)
+        remain = remain - take
+    end
+end
+return 1
@@ -0,0 +1,245 @@
+package com.hmdp;
+
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheRebuildScheduler;
+import com.hmdp.utils.CacheSerializer;
+import com.hmdp.utils.CacheTtlPolicy;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.RedisData;
+import com.hmdp.utils.SmileCacheCodec;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 缓存组件的单元测试，不启动Spring容器，也不需要redis与数据库。
+ * 对应的耗时压测在 HmDianPingApplicationTests 中，标记为 bench，默认不执行
+ */
+class CacheComponentsTest {
+
+    /**
+     * 各编码格式与压缩阈值下，普通值与逻辑过期值都能还原为相同的对象
+     */
+    @Test
+    void testCodecRoundTrip() {
+        Shop shop = newShop("101茶餐厅");
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(30).truncatedTo(ChronoUnit.MILLIS);
+        for (String format : Arrays.asList(JsonCacheCodec.NAME, SmileCacheCodec.NAME)) {
+            for (int threshold : new int[]{0, 64}) {
+                CacheSerializer serializer = newSerializer(format, threshold);
+                assertEquals(shop, serializer.deserialize(serializer.serialize(shop), Shop.class));
+                RedisData redisData = serializer.deserializeLogical(serializer.serialize(shop, expireTime, 120), Shop.class);
+                assertEquals(shop, redisData.getData());
+                assertEquals(expireTime, redisData.getExpireTime());
+                assertEquals(120L, redisData.getRebuildCost());
+            }
+        }
+    }
+
+    /**
+     * 数据库中已删除的实体重建时写入null：各编码格式与压缩阈值下都能写入，读出的data为null，过期时间与重建耗时不变
+     */
+    @Test
+    void testCodecNullValue() {
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(30).truncatedTo(ChronoUnit.MILLIS);
+        for (String format : Arrays.asList(JsonCacheCodec.NAME, SmileCacheCodec.NAME)) {
+            for (int threshold : new int[]{0, 1}) {
+                CacheSerializer serializer = newSerializer(format, threshold);
+                assertNull(serializer.deserialize(serializer.serialize(null), Shop.class));
+                for (long cost : new long[]{0, 120}) {
+                    RedisData redisData = serializer.deserializeLogical(serializer.serialize(null, expireTime, cost), Shop.class);
+                    assertNull(redisData.getData(), format + " " + threshold);
+                    assertEquals(expireTime, redisData.getExpireTime());
+                    assertEquals(cost > 0 ? cost : null, redisData.getRebuildCost());
+                }
+            }
+        }
+    }
+
+    /**
+     * 超过阈值的值压缩后写入，重复内容较多的值至少缩小一半；不压缩的json值与旧格式相同，旧版本也能读取
+     */
+    @Test
+    void testCodecCompression() {
+        char[] repeated = new char[4096];
+        Arrays.fill(repeated, '图');
+        Shop shop = newShop(new String(repeated));
+        for (String format : Arrays.asList(JsonCacheCodec.NAME, SmileCacheCodec.NAME)) {
+            byte[] plain = newSerializer(format, 0).serialize(shop);
+            CacheSerializer serializer = newSerializer(format, 64);
+            byte[] compressed = serializer.serialize(shop);
+            assertTrue(compressed.length * 2 < plain.length, format + " 压缩后 " + compressed.length + " 字节");
+            assertEquals(shop, serializer.deserialize(compressed, Shop.class));
+        }
+        byte[] legacy = newSerializer(JsonCacheCodec.NAME, 0).serialize(shop);
+        assertEquals('{', legacy[0]);
+    }
+
+    /**
+     * 同一时刻写入的10万个店铺key：不打散时在同一秒过期；±10%浮动把过期时间分散到300秒以上，
+     * 每秒回源的峰值降到1%以下；分桶时落在固定的10个时刻，同一个key每次的过期时间相同
+     */
+    @Test
+    void testTtlJitterSpread() {
+        int keys = 100_000;
+        long baseSeconds = TimeUnit.MINUTES.toSeconds(CACHE_SHOP_TTL);
+        Map<CacheTtlPolicy.Mode, Map<Long, Integer>> expiries = new EnumMap<>(CacheTtlPolicy.Mode.class);
+        for (CacheTtlPolicy.Mode mode : CacheTtlPolicy.Mode.values()) {
+            CacheTtlPolicy ttlPolicy = newTtlPolicy(mode);
+            Map<Long, Integer> perSecond = new HashMap<>();
+            for (int i = 0; i < keys; i++) {
+                long ttl = ttlPolicy.ttlSeconds(CACHE_SHOP_KEY + i, baseSeconds);
+                assertTrue(ttl >= baseSeconds * 9 / 10 && ttl <= baseSeconds + 300, mode + " 过期时间 " + ttl);
+                perSecond.merge(ttl, 1, Integer::sum);
+            }
+            expiries.put(mode, perSecond);
+        }
+        assertEquals(Collections.singletonMap(baseSeconds, keys), expiries.get(CacheTtlPolicy.Mode.NONE));
+        Map<Long, Integer> jitter = expiries.get(CacheTtlPolicy.Mode.JITTER);
+        assertTrue(jitter.size() > 300, "过期时间分布在 " + jitter.size() + " 秒内");
+        assertTrue(Collections.max(jitter.values()) < keys / 100, "峰值 " + Collections.max(jitter.values()));
+        assertEquals(10, expiries.get(CacheTtlPolicy.Mode.BUCKET).size());
+        CacheTtlPolicy bucket = newTtlPolicy(CacheTtlPolicy.Mode.BUCKET);
+        assertEquals(bucket.ttlSeconds(CACHE_SHOP_KEY + 1, baseSeconds), bucket.ttlSeconds(CACHE_SHOP_KEY + 1, baseSeconds));
+    }
+
+    /**
+     * Zipf分布（s=1.1）的10万个key上访问100万次，阈值取第20名的期望访问次数：
+     * 全量计数与10%采样下，前10名都被识别为热点，第200名之后的冷key不会被误判
+     */
+    @Test
+    void testHotKeyDetectorZipf() {
+        int keys = 100_000;
+        int accesses = 1_000_000;
+        int top = 20;
+        double[] cdf = new double[keys];
+        double sum = 0;
+        for (int i = 0; i < keys; i++) {
+            sum += 1 / Math.pow(i + 1, 1.1);
+            cdf[i] = sum;
+        }
+        long threshold = (long) (accesses / Math.pow(top, 1.1) / sum);
+        for (double sampleRate : new double[]{1.0, 0.1}) {
+            CacheProperties properties = new CacheProperties();
+            properties.getHotKey().setSampleRate(sampleRate);
+            properties.getHotKey().setThreshold(threshold);
+            properties.getHotKey().setWindow(Duration.ofHours(1));
+            properties.getHotKey().setHotTtl(Duration.ofHours(1));
+            HotKeyDetector detector = new HotKeyDetector(properties);
+            Random random = new Random(42);
+            for (int i = 0; i < accesses; i++) {
+                int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+                detector.record(CACHE_SHOP_KEY + (index >= 0 ? index : -index - 1));
+            }
+            for (int i = 0; i < top / 2; i++) {
+                assertTrue(detector.isHot(CACHE_SHOP_KEY + i), "采样率 " + sampleRate + " 未识别第" + (i + 1) + "名");
+            }
+            for (int i = top * 10; i < keys; i++) {
+                assertFalse(detector.isHot(CACHE_SHOP_KEY + i), "采样率 " + sampleRate + " 误判第" + (i + 1) + "名");
+            }
+        }
+    }
+
+    /**
+     * 单个重建线程被占住时排队3个任务：8个线程并发读取同一个任务各1000次，计数不丢失，
+     * 比顺序读取7999次的任务先出队；没有读取的任务最后执行
+     */
+    @Test
+    void testRebuildSchedulerHotness() throws InterruptedException {
+        CacheProperties properties = new CacheProperties();
+        properties.getRebuild().setThreads(1);
+        properties.getRebuild().setDeadline(Duration.ofMinutes(1));
+        CacheRebuildScheduler scheduler = new CacheRebuildScheduler(properties);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch blocking = new CountDownLatch(1);
+        List<String> executed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(3);
+        try {
+            scheduler.submit("blocking", () -> {
+                started.countDown();
+                try {
+                    blocking.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, () -> { });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            for (String key : Arrays.asList("cold", "warm", "hot")) {
+                scheduler.submit(key, () -> {
+                    executed.add(key);
+                    done.countDown();
+                }, () -> { });
+            }
+            for (int i = 0; i < 7999; i++) {
+                scheduler.touch("warm");
+            }
+            ExecutorService readers = Executors.newFixedThreadPool(8);
+            for (int t = 0; t < 8; t++) {
+                readers.execute(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        scheduler.touch("hot");
+                    }
+                });
+            }
+            readers.shutdown();
+            assertTrue(readers.awaitTermination(10, TimeUnit.SECONDS));
+            blocking.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("hot", "warm", "cold"), executed);
+        } finally {
+            blocking.countDown();
+            scheduler.shutdown();
+        }
+    }
+
+    private static CacheTtlPolicy newTtlPolicy(CacheTtlPolicy.Mode mode) {
+        CacheProperties properties = new CacheProperties();
+        CacheProperties.TtlPolicy policy = new CacheProperties.TtlPolicy();
+        policy.setPrefix(CACHE_SHOP_KEY);
+        policy.setMode(mode);
+        policy.setJitterPercent(10);
+        policy.setBuckets(10);
+        policy.setBucketWindow(Duration.ofMinutes(5));
+        properties.getTtlPolicies().add(policy);
+        return new CacheTtlPolicy(properties);
+    }
+
+    private static Shop newShop(String images) {
+        LocalDateTime time = LocalDateTime.of(2021, 12, 22, 10, 30, 15);
+        return new Shop().setId(1L).setName("101茶餐厅").setTypeId(1L).setImages(images).setArea("大关")
+                .setAddress("金华路锦昌文华苑29号").setX(120.149192).setY(30.316078).setAvgPrice(80L)
+                .setSold(4215).setComments(3035).setScore(37).setOpenHours("10:00-22:00")
+                .setCreateTime(time).setUpdateTime(time);
+    }
+
+    private static CacheSerializer newSerializer(String format, int threshold) {
+        CacheProperties properties = new CacheProperties();
+        properties.getCodec().setFormat(format);
+        properties.getCodec().setCompressThreshold(threshold);
+        return new CacheSerializer(Arrays.asList(new JsonCacheCodec(), new SmileCacheCodec()), properties);
+    }
+}
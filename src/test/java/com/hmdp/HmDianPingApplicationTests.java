@@ -1,18 +1,54 @@
 package com.hmdp;
 
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IShopService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheSerializer;
+import com.hmdp.utils.CacheTtlPolicy;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.SmileCacheCodec;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillAdmission;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 
 import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 @SpringBootTest
 class HmDianPingApplicationTests {
@@ -29,6 +65,15 @@ class HmDianPingApplicationTests {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
     private ExecutorService es = Executors.newFixedThreadPool(500);
 
 //    void testSaveShop(){
@@ -95,4 +140,283 @@ class HmDianPingApplicationTests {
         Long size = stringRedisTemplate.opsForHyperLogLog().size("hll1");
         System.out.println("size = " + size);
     }
+
+    /**
+     * 热点店铺缓存过期的瞬间，1000个并发请求同时未命中（缓存击穿）
+     * 只允许查库一次，并统计请求耗时分布
+     */
+    @Test
+    void testQueryWithMutexHerd() throws InterruptedException {
+        Long shopId = 1L;
+        int threads = 1000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        // 删除当前命名空间版本下的key，同时清理本地缓存
+        cacheClient.delete(cacheClient.key(CACHE_SHOP_KEY, shopId));
+        AtomicInteger dbCount = new AtomicInteger();
+        long[] costs = new long[threads];
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            int index = i;
+            pool.submit(() -> {
+                ready.countDown();
+                try {
+                    start.await();
+                    long begin = System.nanoTime();
+                    cacheClient.queryWithMutex(CACHE_SHOP_KEY, shopId, Shop.class, id -> {
+                        dbCount.incrementAndGet();
+                        //模拟较慢的重建
+                        try {
+                            Thread.sleep(200);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return shopService.getById(id);
+                    }, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+                    costs[index] = System.nanoTime() - begin;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        ready.await();
+        start.countDown();
+        done.await();
+        pool.shutdown();
+        Arrays.sort(costs);
+        assertEquals(1, dbCount.get());
+        System.out.println("p50(ms) = " + costs[threads / 2] / 1_000_000.0);
+        System.out.println("p99(ms) = " + costs[threads * 99 / 100] / 1_000_000.0);
+        System.out.println("max(ms) = " + costs[threads - 1] / 1_000_000.0);
+    }
+
+    /**
+     * 对比店铺对象在原JSONUtil文本与各缓存编码格式下的体积和编解码耗时，只输出结果，
+     * 正确性由 CacheComponentsTest 校验
+     */
+    @Test
+    @Tag("bench")
+    void testCacheCodecBenchmark() {
+        Shop shop = shopService.getById(1L);
+        int rounds = 200_000;
+        System.out.println("JSONUtil 字节数 = " + JSONUtil.toJsonStr(shop).length());
+        long begin = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            JSONUtil.toBean(JSONUtil.toJsonStr(shop), Shop.class);
+        }
+        System.out.println("JSONUtil ns/op = " + (System.nanoTime() - begin) / rounds);
+        for (String format : Arrays.asList(JsonCacheCodec.NAME, SmileCacheCodec.NAME)) {
+            for (int threshold : new int[]{0, 64}) {
+                CacheProperties properties = new CacheProperties();
+                properties.getCodec().setFormat(format);
+                properties.getCodec().setCompressThreshold(threshold);
+                CacheSerializer serializer = new CacheSerializer(
+                        Arrays.asList(new JsonCacheCodec(), new SmileCacheCodec()), properties);
+                // 预热
+                for (int i = 0; i < rounds / 10; i++) {
+                    serializer.deserialize(serializer.serialize(shop), Shop.class);
+                }
+                begin = System.nanoTime();
+                for (int i = 0; i < rounds; i++) {
+                    serializer.deserialize(serializer.serialize(shop), Shop.class);
+                }
+                long cost = (System.nanoTime() - begin) / rounds;
+                begin = System.nanoTime();
+                for (int i = 0; i < rounds; i++) {
+                    serializer.deserializeLogical(serializer.serialize(shop, LocalDateTime.now()), Shop.class);
+                }
+                long logicalCost = (System.nanoTime() - begin) / rounds;
+                System.out.println(format + (threshold > 0 ? "+压缩" : "")
+                        + " 字节数 = " + serializer.serialize(shop).length
+                        + "，ns/op = " + cost + "，逻辑过期 ns/op = " + logicalCost);
+            }
+        }
+    }
+
+    /**
+     * 模拟预热后大批key同时写入：每个key在过期后的下一秒被读到并回源查库，
+     * 对比不同过期策略下每秒查库次数的峰值，分布范围与峰值的断言见 CacheComponentsTest
+     */
+    @Test
+    @Tag("bench")
+    void testTtlJitterSimulation() {
+        int keys = 100_000;
+        long baseSeconds = TimeUnit.MINUTES.toSeconds(CACHE_SHOP_TTL);
+        for (CacheTtlPolicy.Mode mode : CacheTtlPolicy.Mode.values()) {
+            CacheProperties properties = new CacheProperties();
+            CacheProperties.TtlPolicy policy = new CacheProperties.TtlPolicy();
+            policy.setPrefix(CACHE_SHOP_KEY);
+            policy.setMode(mode);
+            policy.setJitterPercent(10);
+            policy.setBuckets(10);
+            policy.setBucketWindow(Duration.ofMinutes(5));
+            properties.getTtlPolicies().add(policy);
+            CacheTtlPolicy ttlPolicy = new CacheTtlPolicy(properties);
+            // 第t秒回源查库的次数
+            Map<Long, Integer> dbPerSecond = new HashMap<>();
+            for (int i = 0; i < keys; i++) {
+                dbPerSecond.merge(ttlPolicy.ttlSeconds(CACHE_SHOP_KEY + i, baseSeconds), 1, Integer::sum);
+            }
+            int peak = Collections.max(dbPerSecond.values());
+            System.out.println(mode + "：过期时间分布在 " + dbPerSecond.size() + " 秒内，峰值查库QPS = " + peak);
+        }
+    }
+
+    /**
+     * Zipf分布（s=1.1）的10万个店铺key上压测热点探测：多线程记录访问的吞吐，
+     * 以及探测出的热点与真实访问量前20的key的重合度，识别结果的断言见 CacheComponentsTest
+     */
+    @Test
+    @Tag("bench")
+    void testHotKeyDetectorZipf() throws InterruptedException {
+        int keys = 100_000;
+        int threads = 8;
+        int perThread = 1_000_000;
+        int top = 20;
+        // 1.按Zipf分布生成访问序列：累积分布上二分查找
+        double[] cdf = new double[keys];
+        double sum = 0;
+        for (int i = 0; i < keys; i++) {
+            sum += 1 / Math.pow(i + 1, 1.1);
+            cdf[i] = sum;
+        }
+        String[] keyNames = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            keyNames[i] = CACHE_SHOP_KEY + i;
+        }
+        Random random = new Random(42);
+        int[] workload = new int[perThread];
+        for (int i = 0; i < perThread; i++) {
+            int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+            workload[i] = index >= 0 ? index : -index - 1;
+        }
+        // 2.阈值取真实访问量第20名的key，窗口足够长，避免压测期间衰减
+        long expectedTop = (long) (threads * perThread / Math.pow(top, 1.1) / sum);
+        for (double sampleRate : new double[]{1.0, 0.1, 0.01}) {
+            CacheProperties properties = new CacheProperties();
+            properties.getHotKey().setSampleRate(sampleRate);
+            properties.getHotKey().setThreshold(expectedTop);
+            properties.getHotKey().setWindow(Duration.ofHours(1));
+            properties.getHotKey().setHotTtl(Duration.ofHours(1));
+            HotKeyDetector detector = new HotKeyDetector(properties);
+            CountDownLatch latch = new CountDownLatch(threads);
+            long begin = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                es.submit(() -> {
+                    for (int index : workload) {
+                        detector.record(keyNames[index]);
+                    }
+                    latch.countDown();
+                });
+            }
+            latch.await();
+            long cost = System.nanoTime() - begin;
+            // 3.统计前20名中被识别为热点的个数，以及误判为热点的个数
+            Set<String> expected = new HashSet<>(Arrays.asList(keyNames).subList(0, top));
+            int found = 0;
+            int falsePositive = 0;
+            for (int i = 0; i < keys; i++) {
+                if (detector.isHot(keyNames[i])) {
+                    if (expected.contains(keyNames[i])) {
+                        found++;
+                    } else {
+                        falsePositive++;
+                    }
+                }
+            }
+            System.out.println("采样率 " + sampleRate + "：ns/op = " + cost / ((long) threads * perThread)
+                    + "，前" + top + "名识别出 " + found + " 个，误判 " + falsePositive + " 个");
+        }
+    }
+
+    /**
+     * 批量创建订单的吞吐：批大小从1到512，每种批大小在临时的秒杀券上写入同样数量的订单，统计每秒订单数。
+     * 批大小为1时每单一个事务，相当于逐条消费。每个订单只落库一次的断言见 SeckillLoadTest
+     */
+    @Test
+    @Tag("bench")
+    void testVoucherOrderBatchThroughput() {
+        int total = 2048;
+        long voucherId = redisIdWorker.nextId("bench");
+        seckillVoucherService.save(new SeckillVoucher().setVoucherId(voucherId).setStock(100_000_000)
+                .setBeginTime(LocalDateTime.now()).setEndTime(LocalDateTime.now().plusDays(1)));
+        try {
+            long userId = 0;
+            for (int batchSize = 1; batchSize <= 512; batchSize *= 2) {
+                List<VoucherOrder> orders = new ArrayList<>(total);
+                for (int i = 0; i < total; i++) {
+                    orders.add(new VoucherOrder().setId(redisIdWorker.nextId("order"))
+                            .setUserId(++userId).setVoucherId(voucherId));
+                }
+                long begin = System.nanoTime();
+                for (int from = 0; from < total; from += batchSize) {
+                    voucherOrderService.createVoucherOrders(orders.subList(from, Math.min(total, from + batchSize)));
+                }
+                long cost = System.nanoTime() - begin;
+                System.out.println("批大小 " + batchSize + "：" + total * 1_000_000_000L / cost + " 单/秒");
+            }
+        } finally {
+            voucherOrderService.remove(new QueryWrapper<VoucherOrder>().eq("voucher_id", voucherId));
+            seckillVoucherService.removeById(voucherId);
+        }
+    }
+
+    /**
+     * 秒杀准入控制的过载压测：同一优惠券分别以本节点令牌桶速率的1倍与50倍发起请求各5秒，
+     * 对比放行数、拒绝数与redis在此期间消耗的CPU时间和执行的命令数。超出的请求在本地被拒绝，redis的开销应基本不变。
+     * 放行数与命令数的断言见 SeckillLoadTest
+     */
+    @Test
+    @Tag("bench")
+    void testSeckillAdmissionOverload() throws InterruptedException {
+        int rate = 1000;
+        int threads = 16;
+        long seconds = 5;
+        SeckillProperties properties = new SeckillProperties();
+        properties.getAdmission().setLimit(new SeckillProperties.Limit(rate, rate, rate * 5, 5));
+        long voucherId = redisIdWorker.nextId("bench");
+        for (int factor : new int[]{1, 50}) {
+            SeckillAdmission admission = new SeckillAdmission(stringRedisTemplate, properties);
+            Properties before = redisInfo();
+            // 每个线程匀速发出自己那一份请求
+            long interval = TimeUnit.SECONDS.toNanos(1) * threads / ((long) rate * factor);
+            CountDownLatch latch = new CountDownLatch(threads);
+            for (int t = 0; t < threads; t++) {
+                es.submit(() -> {
+                    Random random = new Random();
+                    long next = System.nanoTime();
+                    long end = next + TimeUnit.SECONDS.toNanos(seconds);
+                    while (next < end) {
+                        admission.admit(voucherId, (long) random.nextInt(100_000));
+                        next += interval;
+                        LockSupport.parkNanos(next - System.nanoTime());
+                    }
+                    latch.countDown();
+                });
+            }
+            latch.await();
+            Properties after = redisInfo();
+            Map<String, Object> stats = admission.stats();
+            System.out.println(factor + "倍负载：放行 " + stats.get("admitted") + "，拒绝 " + stats.get("shed")
+                    + "（本地 " + stats.get("localLimited") + "），redis CPU "
+                    + String.format("%.0f", (redisCpu(after) - redisCpu(before)) * 1000) + " ms，命令 "
+                    + (Long.parseLong(after.getProperty("total_commands_processed"))
+                    - Long.parseLong(before.getProperty("total_commands_processed"))));
+        }
+    }
+
+    private Properties redisInfo() {
+        return stringRedisTemplate.execute((RedisCallback<Properties>) connection -> {
+            Properties info = connection.info("cpu");
+            info.putAll(connection.info("stats"));
+            return info;
+        });
+    }
+
+    private double redisCpu(Properties info) {
+        return Double.parseDouble(info.getProperty("used_cpu_sys")) + Double.parseDouble(info.getProperty("used_cpu_user"));
+    }
 }
@@ -0,0 +1,724 @@
+package com.hmdp;
+
+import cn.hutool.json.JSONObject;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopDetailDTO;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Outbox;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.OutboxMapper;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheEvictOutboxHandler;
+import com.hmdp.utils.CacheNamespaces;
+import com.hmdp.utils.CacheStrategy;
+import com.hmdp.utils.CacheStrategyRegistry;
+import com.hmdp.utils.OrderConsumerPool;
+import com.hmdp.utils.OutboxDispatcher;
+import com.hmdp.utils.OrderStreamRouter;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.SeckillReconciler;
+import com.hmdp.utils.SeckillStockBuckets;
+import com.hmdp.utils.ShopGeoOutboxHandler;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.AfterAllCallback;
+import org.junit.jupiter.api.extension.BeforeAllCallback;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Range;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import redis.embedded.RedisServer;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.hmdp.utils.RedisConstants.CACHE_NS_BUILDING_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_NS_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM;
+import static com.hmdp.utils.RedisConstants.SECKILL_VOUCHER_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 秒杀全链路压测：不依赖外部环境，数据库使用H2（application-loadtest.yaml），redis默认启动内嵌的 redis-server，
+ * 也可以用 -Dloadtest.redis.port=6379 指向本机已有的redis（不能设置密码）
+ * <p>
+ * 通过 VoucherServiceImpl.addSeckillVoucher 创建秒杀券，模拟大量用户并发调用 seckillVoucher（每人请求两次），
+ * 统计吞吐与延迟分位数，等待订单从stream消费落库，统计落库延迟，并检查超卖与重复下单。
+ * 需要真实数据库与redis的其它用例（发件箱、缓存策略切换等）也放在这里，共用同一套环境
+ */
+@ExtendWith(SeckillLoadTest.EmbeddedRedis.class)
+@SpringBootTest
+@ActiveProfiles("loadtest")
+@DirtiesContext
+class SeckillLoadTest {
+
+    private static final int USERS = 5000;
+
+    private static final int REQUESTS_PER_USER = 2;
+
+    private static final int STOCK = 1000;
+
+    private static final int THREADS = 200;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private SeckillStockBuckets seckillStockBuckets;
+
+    @Resource
+    private SeckillReconciler seckillReconciler;
+
+    @Resource
+    private RedisIdWorker redisIdWorker;
+
+    @Resource
+    private OrderStreamRouter orderStreamRouter;
+
+    @Resource
+    private OrderConsumerPool orderConsumerPool;
+
+    @Resource
+    private OutboxDispatcher outboxDispatcher;
+
+    @Resource
+    private OutboxMapper outboxMapper;
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheStrategyRegistry strategyRegistry;
+
+    @Resource
+    private CacheNamespaces cacheNamespaces;
+
+    @Resource
+    private ShopGeoOutboxHandler shopGeoOutboxHandler;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.redis.port", () -> EmbeddedRedis.port);
+    }
+
+    @Test
+    void testSeckillLoad() throws InterruptedException {
+        // 1.创建秒杀券
+        Voucher voucher = new Voucher().setShopId(1L).setTitle("压测秒杀券").setPayValue(100L).setActualValue(1000L)
+                .setType(1).setStatus(1).setStock(STOCK)
+                .setBeginTime(LocalDateTime.now().minusHours(1)).setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        Long voucherId = voucher.getId();
+        // 2.并发请求，记录每个请求的延迟与每个成功订单的下单时间
+        int total = USERS * REQUESTS_PER_USER;
+        long[] latencies = new long[total];
+        Map<Long, Long> acceptedAt = new ConcurrentHashMap<>();
+        AtomicInteger soldOut = new AtomicInteger();
+        AtomicInteger duplicate = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        ExecutorService es = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch latch = new CountDownLatch(total);
+        long begin = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            int index = i;
+            long userId = i % USERS + 1;
+            es.submit(() -> {
+                UserDTO user = new UserDTO();
+                user.setId(userId);
+                UserHolder.saveUser(user);
+                try {
+                    long start = System.nanoTime();
+                    Result result = voucherOrderService.seckillVoucher(voucherId);
+                    latencies[index] = System.nanoTime() - start;
+                    if (Boolean.TRUE.equals(result.getSuccess())) {
+                        acceptedAt.put((Long) result.getData(), System.currentTimeMillis());
+                    } else if ("库存不足！".equals(result.getErrorMsg())) {
+                        soldOut.incrementAndGet();
+                    } else {
+                        duplicate.incrementAndGet();
+                    }
+                } catch (RuntimeException e) {
+                    if (errors.getAndIncrement() == 0) {
+                        e.printStackTrace();
+                    }
+                } finally {
+                    UserHolder.removeUser();
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        long cost = System.nanoTime() - begin;
+        es.shutdown();
+        Arrays.sort(latencies);
+        System.out.println("请求 " + total + " 次，成功 " + acceptedAt.size() + "，库存不足 " + soldOut
+                + "，重复下单 " + duplicate + "，异常 " + errors + "，吞吐 " + total * 1_000_000_000L / cost + " 次/秒");
+        System.out.println("延迟 p50 " + micros(latencies, 0.5) + " us，p99 " + micros(latencies, 0.99)
+                + " us，p999 " + micros(latencies, 0.999) + " us，max " + latencies[total - 1] / 1000 + " us");
+        // 3.等待订单全部落库，按订单的create_time统计从下单到落库的延迟
+        List<VoucherOrder> orders = waitForOrders(voucherId, acceptedAt.size());
+        long[] lags = new long[orders.size()];
+        for (int i = 0; i < orders.size(); i++) {
+            VoucherOrder order = orders.get(i);
+            long insertedAt = order.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            lags[i] = Math.max(0, insertedAt - acceptedAt.getOrDefault(order.getId(), insertedAt));
+        }
+        Arrays.sort(lags);
+        if (lags.length > 0) {
+            System.out.println("落库延迟 p50 " + lags[lags.length / 2] + " ms，p99 " + lags[(int) (lags.length * 0.99)]
+                    + " ms，max " + lags[lags.length - 1] + " ms");
+        }
+        // 4.超卖与一人一单检查
+        Set<Long> buyers = new HashSet<>();
+        for (VoucherOrder order : orders) {
+            buyers.add(order.getUserId());
+        }
+        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+        assertEquals(0, errors.get(), "请求异常");
+        assertEquals(Math.min(STOCK, USERS), acceptedAt.size(), "下单成功数");
+        assertEquals(acceptedAt.size(), orders.size(), "落库订单数");
+        assertEquals(orders.size(), buyers.size(), "存在重复下单的用户");
+        assertTrue(acceptedAt.keySet().containsAll(idsOf(orders)), "落库订单与下单结果不一致");
+        assertEquals(STOCK - orders.size(), seckillVoucher.getStock().intValue(), "数据库库存");
+        assertEquals(STOCK - acceptedAt.size(), seckillStockBuckets.remainingStock(voucherId), "redis库存");
+    }
+
+    @Test
+    void testReconcile() throws InterruptedException {
+        // 1.10个库存，5个用户下单并落库
+        Voucher voucher = new Voucher().setShopId(1L).setTitle("核对秒杀券").setPayValue(100L).setActualValue(1000L)
+                .setType(1).setStatus(1).setStock(10)
+                .setBeginTime(LocalDateTime.now().minusHours(1)).setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        Long voucherId = voucher.getId();
+        for (long userId = 1; userId <= 5; userId++) {
+            UserDTO user = new UserDTO();
+            user.setId(userId);
+            UserHolder.saveUser(user);
+            try {
+                assertTrue(voucherOrderService.seckillVoucher(voucherId).getSuccess());
+            } finally {
+                UserHolder.removeUser();
+            }
+        }
+        assertEquals(5, waitForOrders(voucherId, 5).size(), "落库订单数");
+        // 进行中的秒杀券不核对，结束后才核对
+        assertEquals(SeckillReconciler.State.OPEN, seckillReconciler.reconcile(voucherId, false).getState());
+        seckillVoucherService.update().set("end_time", LocalDateTime.now().minusMinutes(2)).eq("voucher_id", voucherId).update();
+        assertEquals(SeckillReconciler.State.OK, seckillReconciler.reconcile(voucherId, false).getState());
+        // 2.制造差异：用户1的购买记录丢失；用户100在redis扣了库存但订单丢失；redis库存多出2个
+        seckillStockBuckets.release(voucherId, 1L, seckillStockBuckets.buckets(voucherId));
+        seckillStockBuckets.restore(voucherId, Collections.singletonList(100L));
+        assertFalse(seckillStockBuckets.adjustStock(voucherId, 100, 1), "库存与读到的不同时不调整");
+        assertTrue(seckillStockBuckets.adjustStock(voucherId, seckillStockBuckets.remainingStock(voucherId), 1));
+        // 同一用户的第二个订单被唯一键拒绝
+        assertFalse(voucherOrderService.createVoucherOrder(new VoucherOrder()
+                .setId(redisIdWorker.nextId("order")).setUserId(2L).setVoucherId(voucherId)), "重复订单");
+        // 其它节点名下一条在本券结束之后写入、尚未确认的消息（其它券的新订单）不影响本券的核对
+        String streamKey = orderStreamRouter.streamKey(0);
+        String pendingId = stringRedisTemplate.execute(new DefaultRedisScript<>(
+                "local id = redis.call('xadd', KEYS[1], '*', 'userId', '0') "
+                        + "redis.call('xreadgroup', 'GROUP', ARGV[1], 'other-node', 'COUNT', 1, 'STREAMS', KEYS[1], '>') "
+                        + "return id", String.class), Collections.singletonList(streamKey), SECKILL_ORDER_GROUP);
+        try {
+            assertFalse(orderConsumerPool.isDrained());
+            // 3.第一次核对只观察，第二次差异不变时修复
+            assertEquals(SeckillReconciler.State.SETTLING, seckillReconciler.reconcile(voucherId, false).getState());
+            SeckillReconciler.Report report = seckillReconciler.reconcile(voucherId, false);
+            assertEquals(1, report.getMissingOrders(), "redis有、数据库没有的订单");
+            assertEquals(1, report.getReplayed(), "补建的订单");
+            assertEquals(1, report.getOrphanOrders(), "数据库有、redis没有的购买记录");
+            assertEquals(1, report.getRestored(), "写回的购买记录");
+            assertEquals(0, report.getDuplicateOrders(), "重复订单");
+            assertEquals(-2, report.getStockDrift(), "库存差异");
+            assertEquals(SeckillReconciler.State.REPAIRED, report.getState());
+            // 4.修复后：6个购买者、6个订单，redis库存以数据库为准
+            SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+            assertEquals(6, seckillStockBuckets.buyers(voucherId), "redis购买者数");
+            assertEquals(6, voucherOrderService.query().eq("voucher_id", voucherId).count(), "数据库订单数");
+            assertEquals(4, seckillVoucher.getStock().intValue(), "数据库库存");
+            assertEquals(4, seckillStockBuckets.remainingStock(voucherId), "redis库存");
+        } finally {
+            stringRedisTemplate.opsForStream().acknowledge(streamKey, SECKILL_ORDER_GROUP, pendingId);
+            stringRedisTemplate.opsForStream().delete(streamKey, pendingId);
+        }
+    }
+
+    @Test
+    void testSeckillWindow() throws InterruptedException {
+        // 1.超过预热提前量才开始的秒杀券创建时不写入redis；即将开始的立即写入；已结束的写入后按结束拒绝
+        Long later = addVoucher(LocalDateTime.now().plusHours(1), LocalDateTime.now().plusHours(2));
+        Long upcoming = addVoucher(LocalDateTime.now().plusSeconds(2), LocalDateTime.now().plusHours(1));
+        Long ended = addVoucher(LocalDateTime.now().minusHours(2), LocalDateTime.now().minusSeconds(1));
+        assertEquals(0, seckillStockBuckets.remainingStock(later), "未预热的库存");
+        assertEquals("秒杀尚未开始！", seckill(later, 1L).getErrorMsg());
+        assertEquals("秒杀尚未开始！", seckill(upcoming, 1L).getErrorMsg());
+        assertEquals("秒杀已经结束！", seckill(ended, 1L).getErrorMsg());
+        // 2.到达开始时间后可以下单，之前被拒绝的请求没有占用一人一单的名额
+        Thread.sleep(2500);
+        assertTrue(seckill(upcoming, 1L).getSuccess());
+        assertEquals(9, seckillStockBuckets.remainingStock(upcoming), "redis库存");
+    }
+
+    @Test
+    void testDeadLetter() throws InterruptedException {
+        Long voucherId = addVoucher(LocalDateTime.now().minusHours(1), LocalDateTime.now().plusHours(1));
+        String streamKey = orderStreamRouter.streamKey(0);
+        // 1.同一分区先写入一条无法落库的消息（用户id不是数字），再写入一条正常的消息
+        Map<String, String> poison = new HashMap<>();
+        poison.put("userId", "oops");
+        poison.put("voucherId", voucherId.toString());
+        poison.put("id", String.valueOf(redisIdWorker.nextId("order")));
+        RecordId poisonId = stringRedisTemplate.opsForStream().add(streamKey, poison);
+        long orderId = redisIdWorker.nextId("order");
+        Map<String, String> good = new HashMap<>();
+        good.put("userId", "42");
+        good.put("voucherId", voucherId.toString());
+        good.put("id", String.valueOf(orderId));
+        stringRedisTemplate.opsForStream().add(streamKey, good);
+        // 2.正常的消息不受影响，无法落库的消息超过投递次数后转入死信队列并确认
+        assertEquals(1, waitForOrders(voucherId, 1).size(), "正常的消息落库");
+        assertEquals(orderId, voucherOrderService.query().eq("voucher_id", voucherId).one().getId().longValue());
+        MapRecord<String, Object, Object> dead = null;
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (dead == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            for (MapRecord<String, Object, Object> record : stringRedisTemplate.opsForStream().range(SECKILL_ORDER_DLQ,
+                    Range.unbounded())) {
+                if (poisonId.getValue().equals(record.getValue().get("messageId"))) {
+                    dead = record;
+                }
+            }
+        }
+        assertTrue(dead != null, "死信队列中没有无法落库的消息");
+        assertEquals(streamKey, dead.getValue().get("stream"));
+        assertEquals("oops", dead.getValue().get("userId"));
+        assertTrue(String.valueOf(dead.getValue().get("reason")).contains("最后一次失败"), "死信缺少失败原因");
+        assertTrue(stringRedisTemplate.opsForStream().pending(streamKey, SECKILL_ORDER_GROUP,
+                Range.closed(poisonId.getValue(), poisonId.getValue()), 1).isEmpty(), "消息未确认");
+    }
+
+    /**
+     * 库存分为4个桶：预热之前的请求不会让本节点记住1个桶；同一个桶的9个用户抢8个库存，
+     * 本桶卖完后到相邻的桶扣减，全部卖完后最后一个用户释放占住的名额；之后按差异调整各桶库存
+     */
+    @Test
+    void testStockBuckets() throws InterruptedException {
+        int buckets = 4;
+        int stock = 8;
+        long voucherId = redisIdWorker.nextId("test");
+        seckillVoucherService.save(new SeckillVoucher().setVoucherId(voucherId).setStock(stock)
+                .setBeginTime(LocalDateTime.now().minusHours(1)).setEndTime(LocalDateTime.now().plusHours(1)));
+        // 1.预热之前请求，秒杀尚未开始，桶数不缓存
+        assertEquals("秒杀尚未开始！", seckill(voucherId, 4L).getErrorMsg());
+        // 2.按4个桶预热：MSETNX 写入各桶库存与桶数，重复预热不覆盖
+        SeckillProperties properties = new SeckillProperties();
+        properties.getStockBuckets().setCount(buckets);
+        SeckillStockBuckets bucketed = new SeckillStockBuckets(stringRedisTemplate, properties);
+        assertTrue(bucketed.init(voucherId, stock));
+        assertFalse(bucketed.init(voucherId, stock));
+        Map<String, String> window = new HashMap<>();
+        window.put("begin", String.valueOf(System.currentTimeMillis() - 60_000));
+        window.put("end", String.valueOf(System.currentTimeMillis() + 3_600_000));
+        stringRedisTemplate.opsForHash().putAll(SECKILL_VOUCHER_KEY + voucherId, window);
+        assertEquals(buckets, seckillStockBuckets.buckets(voucherId), "预热后读到的桶数");
+        // 3.用户都落在0号桶，前2个用本桶的库存，之后依次到相邻的桶扣减
+        for (long userId = 4; userId <= 4L * stock; userId += 4) {
+            assertTrue(seckill(voucherId, userId).getSuccess(), "用户 " + userId);
+        }
+        assertEquals("不能重复下单！", seckill(voucherId, 4L).getErrorMsg());
+        long last = 4L * (stock + 1);
+        assertEquals("库存不足！", seckill(voucherId, last).getErrorMsg());
+        assertFalse(stringRedisTemplate.opsForSet().isMember(seckillStockBuckets.orderKey(voucherId, 0, buckets),
+                String.valueOf(last)), "没有买到的用户仍占着名额");
+        assertEquals(stock, seckillStockBuckets.buyers(voucherId));
+        assertEquals(0, seckillStockBuckets.remainingStock(voucherId));
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            assertEquals("0", stringRedisTemplate.opsForValue().get(seckillStockBuckets.stockKey(voucherId, bucket, buckets)));
+        }
+        assertEquals(stock, waitForOrders(voucherId, stock).size(), "落库订单数");
+        // 4.调整库存：读到的总数不一致时不调整；增加时平均分到各桶，减少时依次从有库存的桶扣减
+        assertFalse(seckillStockBuckets.adjustStock(voucherId, 1, 5));
+        assertTrue(seckillStockBuckets.adjustStock(voucherId, 0, 5));
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(Arrays.asList(
+                seckillStockBuckets.stockKey(voucherId, 0, buckets), seckillStockBuckets.stockKey(voucherId, 1, buckets),
+                seckillStockBuckets.stockKey(voucherId, 2, buckets), seckillStockBuckets.stockKey(voucherId, 3, buckets)));
+        assertEquals(Arrays.asList("2", "1", "1", "1"), stocks);
+        assertTrue(seckillStockBuckets.adjustStock(voucherId, 5, -3));
+        assertEquals(2, seckillStockBuckets.remainingStock(voucherId));
+        seckillStockBuckets.delete(voucherId);
+        stringRedisTemplate.delete(SECKILL_VOUCHER_KEY + voucherId);
+    }
+
+    /**
+     * 分区之前写入 stream.orders 的消息：一条已投递给下线的旧消费者但未确认，一条还没有投递，都要落库并确认
+     */
+    @Test
+    void testLegacyStream() throws InterruptedException {
+        Long voucherId = addVoucher(LocalDateTime.now().minusHours(1), LocalDateTime.now().plusHours(1));
+        for (long userId = 7; userId <= 8; userId++) {
+            Map<String, String> order = new HashMap<>();
+            order.put("userId", String.valueOf(userId));
+            order.put("voucherId", voucherId.toString());
+            order.put("id", String.valueOf(redisIdWorker.nextId("order")));
+            stringRedisTemplate.opsForStream().add(SECKILL_ORDER_STREAM, order);
+        }
+        stringRedisTemplate.opsForStream().createGroup(SECKILL_ORDER_STREAM, ReadOffset.from("0"), SECKILL_ORDER_GROUP);
+        stringRedisTemplate.opsForStream().read(Consumer.from(SECKILL_ORDER_GROUP, "old-node"),
+                StreamReadOptions.empty().count(1), StreamOffset.create(SECKILL_ORDER_STREAM, ReadOffset.lastConsumed()));
+        try {
+            assertEquals(2, waitForOrders(voucherId, 2).size(), "旧stream中的订单落库");
+            long deadline = System.currentTimeMillis() + 30_000;
+            while (!orderConsumerPool.isDrained() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            assertTrue(orderConsumerPool.isDrained(), "旧stream中的消息未全部确认");
+        } finally {
+            stringRedisTemplate.delete(SECKILL_ORDER_STREAM);
+        }
+    }
+
+    /**
+     * 批大小从1到512，每批的订单再重复提交一次（模拟消息重投），批内还混入同一用户的另一个订单：
+     * 每个用户恰好落库一单，库存按实际落库的订单数扣减
+     */
+    @Test
+    void testOrderBatch() {
+        int stock = 100_000;
+        long voucherId = redisIdWorker.nextId("test");
+        seckillVoucherService.save(new SeckillVoucher().setVoucherId(voucherId).setStock(stock)
+                .setBeginTime(LocalDateTime.now()).setEndTime(LocalDateTime.now().plusDays(1)));
+        long userId = 0;
+        int created = 0;
+        for (int batchSize = 1; batchSize <= 512; batchSize *= 2) {
+            List<VoucherOrder> batch = new ArrayList<>(batchSize + 1);
+            for (int i = 0; i < batchSize; i++) {
+                batch.add(new VoucherOrder().setId(redisIdWorker.nextId("order")).setUserId(++userId).setVoucherId(voucherId));
+            }
+            batch.add(new VoucherOrder().setId(redisIdWorker.nextId("order")).setUserId(userId).setVoucherId(voucherId));
+            assertEquals(batchSize, voucherOrderService.createVoucherOrders(batch), "批大小 " + batchSize);
+            assertEquals(0, voucherOrderService.createVoucherOrders(batch), "批大小 " + batchSize + " 重复提交");
+            created += batchSize;
+        }
+        List<VoucherOrder> orders = voucherOrderService.list(new QueryWrapper<VoucherOrder>().eq("voucher_id", voucherId));
+        assertEquals(created, orders.size(), "落库订单数");
+        Set<Long> buyers = new HashSet<>();
+        orders.forEach(order -> buyers.add(order.getUserId()));
+        assertEquals(userId, buyers.size(), "存在重复下单的用户");
+        assertEquals(stock - created, seckillVoucherService.getById(voucherId).getStock().intValue(), "数据库库存");
+    }
+
+    /**
+     * 同一优惠券先以本节点令牌桶速率请求2秒，再以50倍速率请求2秒：两次的放行数都不超过令牌桶容量加上这段时间生成的令牌，
+     * 超出的请求在本地拒绝，50倍负载下redis执行的命令数与1倍时基本相同
+     */
+    @Test
+    void testAdmissionOverload() throws InterruptedException {
+        int rate = 200;
+        SeckillProperties properties = new SeckillProperties();
+        properties.getAdmission().setLimit(new SeckillProperties.Limit(rate, rate, rate * 5, 5));
+        long[] normal = overload(properties, rate, 1);
+        long[] overload = overload(properties, rate, 50);
+        for (long[] run : Arrays.asList(normal, overload)) {
+            // {请求数, 放行数, 拒绝数, redis命令数, 耗时毫秒}
+            assertEquals(run[0], run[1] + run[2], "放行与拒绝合计");
+            assertTrue(run[1] <= rate + rate * run[4] / 1000 + 1, "放行 " + run[1] + "，耗时 " + run[4] + " ms");
+        }
+        assertTrue(overload[0] > normal[0] * 25, "50倍负载的请求数 " + overload[0]);
+        assertTrue(overload[1] >= rate, "50倍负载的放行数 " + overload[1]);
+        assertTrue(overload[3] < normal[3] * 2, "redis命令 1倍 " + normal[3] + "，50倍 " + overload[3]);
+    }
+
+    /**
+     * 每个线程匀速发出自己那一份请求，持续2秒
+     *
+     * @return {请求数, 放行数, 拒绝数, redis命令数, 耗时毫秒}
+     */
+    private long[] overload(SeckillProperties properties, int rate, int factor) throws InterruptedException {
+        int threads = 4;
+        long seconds = 2;
+        SeckillAdmission admission = new SeckillAdmission(stringRedisTemplate, properties);
+        long voucherId = redisIdWorker.nextId("test");
+        long commandsBefore = redisCommands();
+        long interval = TimeUnit.SECONDS.toNanos(1) * threads / ((long) rate * factor);
+        AtomicInteger total = new AtomicInteger();
+        ExecutorService es = Executors.newFixedThreadPool(threads);
+        CountDownLatch latch = new CountDownLatch(threads);
+        long begin = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            es.submit(() -> {
+                Random random = new Random();
+                long next = System.nanoTime();
+                long end = next + TimeUnit.SECONDS.toNanos(seconds);
+                while (next < end) {
+                    admission.admit(voucherId, (long) random.nextInt(100_000));
+                    total.incrementAndGet();
+                    next += interval;
+                    LockSupport.parkNanos(next - System.nanoTime());
+                }
+                latch.countDown();
+            });
+        }
+        latch.await();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        es.shutdown();
+        long commands = redisCommands() - commandsBefore;
+        Map<String, Object> stats = admission.stats();
+        return new long[]{total.get(), (Long) stats.get("admitted"), (Long) stats.get("shed"), commands, elapsed};
+    }
+
+    /**
+     * 发件箱轮询：同一类型中无法解析的事件单独失败，失败次数在数据库中累加，达到上限的标记为失败，其它事件照常投递
+     */
+    @Test
+    void testOutboxPoll() {
+        LocalDateTime due = LocalDateTime.now().minusMinutes(1).withNano(0);
+        Outbox broken = newOutbox("not json", 0, due);
+        Outbox exhausted = newOutbox("not json", 9, due);
+        Outbox good = newOutbox("{\"prefix\":\"cache:test:\",\"id\":1}", 0, due);
+        outboxDispatcher.pollOnce();
+        assertNull(outboxMapper.selectById(good.getId()), "正常的事件投递后删除");
+        Outbox retry = outboxMapper.selectById(broken.getId());
+        assertEquals(1, retry.getAttempts().intValue());
+        assertEquals(Outbox.STATUS_PENDING, retry.getStatus().intValue());
+        assertTrue(retry.getNextRetryTime().isAfter(due), "失败的事件推迟重试");
+        Outbox dead = outboxMapper.selectById(exhausted.getId());
+        assertEquals(10, dead.getAttempts().intValue());
+        assertEquals(Outbox.STATUS_DEAD, dead.getStatus().intValue());
+        outboxMapper.deleteBatchIds(Arrays.asList(broken.getId(), exhausted.getId()));
+    }
+
+    private Outbox newOutbox(String payload, int attempts, LocalDateTime nextRetryTime) {
+        Outbox event = new Outbox().setType(CacheEvictOutboxHandler.TYPE).setPayload(payload)
+                .setStatus(Outbox.STATUS_PENDING).setAttempts(attempts)
+                .setNextRetryTime(nextRetryTime).setCreateTime(nextRetryTime);
+        outboxMapper.insert(event);
+        return event;
+    }
+
+    /**
+     * 运行时把店铺缓存切换为逻辑过期再切回缓存空对象：每种策略下异步详情接口与 queryById 先后写入、读取同一个key，
+     * 两边读到的都是完整的店铺，且redis中的值是当前策略的格式
+     */
+    @Test
+    void testShopDetailStrategySwitch() throws Exception {
+        Shop shop = new Shop().setName("策略切换店铺").setTypeId(1L).setImages("").setAddress("测试路1号")
+                .setX(120.149192).setY(30.316078).setSold(0).setComments(0).setScore(40);
+        shopService.saveShop(shop);
+        Long id = shop.getId();
+        try {
+            for (CacheStrategy strategy : new CacheStrategy[]{CacheStrategy.LOGICAL_EXPIRE, CacheStrategy.PASS_THROUGH}) {
+                // 与 PUT /admin/cache/strategy 相同：覆盖策略后让前缀整体失效
+                strategyRegistry.override(CACHE_SHOP_KEY, strategy);
+                cacheClient.invalidateAll(CACHE_SHOP_KEY);
+                assertShopDetail(id, shop.getName());
+                assertEquals(shop.getName(), ((Shop) shopService.queryById(id).getData()).getName(), strategy + " 同步读取");
+                assertLogicalFormat(id, strategy.isLogical());
+                cacheClient.invalidateAll(CACHE_SHOP_KEY);
+                assertEquals(shop.getName(), ((Shop) shopService.queryById(id).getData()).getName(), strategy + " 同步写入");
+                assertShopDetail(id, shop.getName());
+                assertLogicalFormat(id, strategy.isLogical());
+            }
+        } finally {
+            strategyRegistry.override(CACHE_SHOP_KEY, null);
+            cacheClient.invalidateAll(CACHE_SHOP_KEY);
+            shopService.removeById(id);
+        }
+    }
+
+    /**
+     * 按类型重建地理位置索引：重建期间发件箱投递的变更同时写入新版本，切换后不丢失；
+     * 并发的重建中后分配版本的先完成时，先分配的不会把版本号切回去
+     */
+    @Test
+    void testGeoRebuild() {
+        long typeId = redisIdWorker.nextId("test");
+        String namespace = SHOP_GEO_KEY + typeId;
+        Set<String> written = new HashSet<>();
+        try {
+            // 1.重建期间投递的变更
+            long version = cacheNamespaces.rebuild(namespace, key -> {
+                written.add(key);
+                stringRedisTemplate.opsForGeo().add(key, new Point(120.149192, 30.316078), "1");
+                assertEquals(2, cacheNamespaces.keys(namespace).size(), "重建中的版本");
+                shopGeoOutboxHandler.handle(Collections.singletonList(geoEvent(typeId, 2L)));
+            });
+            List<String> keys = cacheNamespaces.keys(namespace);
+            assertEquals(Collections.singletonList(namespace + ":v" + version), keys);
+            assertEquals(2L, stringRedisTemplate.opsForZSet().zCard(keys.get(0)), "快照与重建期间的变更");
+            // 2.并发重建：后分配版本的先完成
+            long newer = cacheNamespaces.rebuild(namespace, older -> {
+                written.add(older);
+                long inner = cacheNamespaces.rebuild(namespace, key -> {
+                    written.add(key);
+                    stringRedisTemplate.opsForGeo().add(key, new Point(120.149192, 30.316078), "3");
+                });
+                assertEquals(namespace + ":v" + inner, cacheNamespaces.keys(namespace).get(0));
+                stringRedisTemplate.opsForGeo().add(older, new Point(120.149192, 30.316078), "4");
+            });
+            assertTrue(newer > version);
+            keys = cacheNamespaces.keys(namespace);
+            assertEquals(Collections.singletonList(namespace + ":v" + newer), keys);
+            assertTrue(stringRedisTemplate.opsForZSet().score(keys.get(0), "3") != null, "后分配的版本仍然生效");
+        } finally {
+            stringRedisTemplate.delete(written);
+            stringRedisTemplate.delete(Arrays.asList(CACHE_NS_KEY + namespace, CACHE_NS_BUILDING_KEY + namespace));
+        }
+    }
+
+    private JSONObject geoEvent(long typeId, long shopId) {
+        return new JSONObject().set("op", ShopGeoOutboxHandler.ADD).set("typeId", typeId).set("shopId", shopId)
+                .set("x", 120.149192).set("y", 30.316078);
+    }
+
+    private void assertShopDetail(Long id, String name) throws Exception {
+        Result result = shopService.queryShopDetailAsync(id).get(10, TimeUnit.SECONDS);
+        assertTrue(result.getSuccess(), "异步详情查询失败：" + result.getErrorMsg());
+        assertEquals(name, ((ShopDetailDTO) result.getData()).getShop().getName(), "异步详情读到的店铺");
+    }
+
+    private void assertLogicalFormat(Long id, boolean logical) {
+        String raw = stringRedisTemplate.opsForValue().get(cacheClient.key(CACHE_SHOP_KEY, id));
+        assertTrue(raw != null && raw.contains("\"expireTime\"") == logical, "缓存格式：" + raw);
+    }
+
+    private Long addVoucher(LocalDateTime beginTime, LocalDateTime endTime) {
+        Voucher voucher = new Voucher().setShopId(1L).setTitle("时间窗口秒杀券").setPayValue(100L).setActualValue(1000L)
+                .setType(1).setStatus(1).setStock(10).setBeginTime(beginTime).setEndTime(endTime);
+        voucherService.addSeckillVoucher(voucher);
+        return voucher.getId();
+    }
+
+    private Result seckill(Long voucherId, Long userId) {
+        UserDTO user = new UserDTO();
+        user.setId(userId);
+        UserHolder.saveUser(user);
+        try {
+            return voucherOrderService.seckillVoucher(voucherId);
+        } finally {
+            UserHolder.removeUser();
+        }
+    }
+
+    private long redisCommands() {
+        return stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                Long.parseLong(connection.info("stats").getProperty("total_commands_processed")));
+    }
+
+    private List<VoucherOrder> waitForOrders(Long voucherId, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 60_000;
+        List<VoucherOrder> orders;
+        do {
+            Thread.sleep(100);
+            orders = voucherOrderService.list(new QueryWrapper<VoucherOrder>().eq("voucher_id", voucherId));
+        } while (orders.size() < expected && System.currentTimeMillis() < deadline);
+        return orders;
+    }
+
+    private static Set<Long> idsOf(List<VoucherOrder> orders) {
+        Set<Long> ids = new HashSet<>(orders.size());
+        for (VoucherOrder order : orders) {
+            ids.add(order.getId());
+        }
+        return ids;
+    }
+
+    private static long micros(long[] sorted, double quantile) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * quantile))] / 1000;
+    }
+
+    /**
+     * 启动与停止内嵌redis。声明在 @SpringBootTest 之前，先于容器启动、晚于容器关闭（@DirtiesContext），
+     * 容器关闭时消费者释放分区等操作还能访问redis
+     */
+    static class EmbeddedRedis implements BeforeAllCallback, AfterAllCallback {
+
+        private static int port;
+
+        private static RedisServer redisServer;
+
+        @Override
+        public void beforeAll(ExtensionContext context) throws IOException {
+            Integer localPort = Integer.getInteger("loadtest.redis.port");
+            if (localPort != null) {
+                port = localPort;
+                return;
+            }
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+            redisServer = RedisServer.newRedisServer().port(port).setting("save \"\"").build();
+            redisServer.start();
+        }
+
+        @Override
+        public void afterAll(ExtensionContext context) throws IOException {
+            if (redisServer != null) {
+                redisServer.stop();
+                redisServer = null;
+            }
+        }
+    }
+}